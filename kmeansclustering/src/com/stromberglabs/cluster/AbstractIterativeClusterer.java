@@ -0,0 +1,273 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+
+import com.stromberglabs.cluster.checker.ClusterChecker;
+
+/**
+ * <pre>
+ * The loop every k-means clusterer here runs, whether its values are in a list,
+ * read from disk a chunk at a time or spread over other processes:
+ * 
+ * 1) Assign everything to its closest cluster
+ * 2) Check to see if it needs to be recalculated
+ *    - If yes, calculate new clusters and go to 1)
+ *    - If no, or it's out of iterations, return current set of clusters
+ * 
+ * The checkpoints and the cancellation are handled here, so everything built on
+ * it gets both. Clusterers that only ever see the sums of the rows closest to
+ * each center, like {@link OutOfCoreKMeansClusterer}, just provide a
+ * {@link SumsSource}.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public abstract class AbstractIterativeClusterer {
+	int mMaxReclustering;
+	ClusterChecker mChecker;
+	File mCheckpointFile;
+	int mCheckpointInterval;
+	
+	protected AbstractIterativeClusterer(ClusterChecker checker, int maxReclustering){
+		mChecker = checker;
+		mMaxReclustering = maxReclustering;
+	}
+	
+	/**
+	 * Saves a {@link Checkpoint} to the file every so many iterations, so a long
+	 * run can be picked back up with resume if it dies. The writing happens on
+	 * another thread, the iterations only wait for the centers to be copied.
+	 * 
+	 * @param file - where to keep the checkpoint, null to stop checkpointing
+	 * @param everyIterations
+	 */
+	public void setCheckpoint(File file, int everyIterations){
+		if ( file != null && everyIterations < 1 ){
+			throw new RuntimeException("Can't checkpoint every " + everyIterations + " iterations, it has to be at least 1");
+		}
+		mCheckpointFile = file;
+		mCheckpointInterval = everyIterations;
+	}
+	
+	/**
+	 * Reads a checkpoint to resume from, the checker is replaced by the saved one
+	 * if there was one
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	protected Checkpoint readCheckpoint(File file) throws IOException {
+		Checkpoint saved = Checkpoint.read(file);
+		ClusterChecker checker = saved.getChecker();
+		if ( checker != null ){
+			mChecker = checker;
+		}
+		return saved;
+	}
+	
+	/**
+	 * One run of the loop
+	 * 
+	 * @param assignment - what the clusterer does every iteration
+	 * @param clusters - the clusters to start the first assignment with
+	 * @param numIterations - how many iterations were done before, when resuming
+	 * @param run
+	 * @return
+	 * @throws IOException if the assignment couldn't read its values
+	 */
+	protected ClusteringResult iterate(Assignment assignment, Cluster[] clusters, int numIterations, ClusteringRun run) throws IOException {
+		CheckpointWriter writer = mCheckpointFile == null ? null : new CheckpointWriter(mCheckpointFile);
+		try {
+			ClusteringResult result = iterate(assignment,clusters,numIterations,run,writer);
+			if ( writer != null ) writer.finish();
+			return result;
+		} finally {
+			if ( writer != null ) writer.close();
+		}
+	}
+	
+	private ClusteringResult iterate(Assignment assignment, Cluster[] clusters, int numIterations, ClusteringRun run, CheckpointWriter writer) throws IOException {
+		boolean recalculateClusters = true;
+		//the last assignment that finished, only kept when it might get cancelled
+		Cluster[] finished = null;
+
+		while ( recalculateClusters ){
+			if ( run.isCancelled() ){
+				return new ClusteringResult(finished != null ? finished : emptyClusters(clusters),false,true,numIterations);
+			}
+			
+			//add all items to nearest cluster
+			clusters = assignment.assign(clusters,run);
+			
+			if ( run.wasCancelled() ){
+				//the assignment gave up part way, so it's only got some of the values
+				return new ClusteringResult(finished != null ? finished : emptyClusters(clusters),false,true,numIterations);
+			}
+			
+			//see if the cluster distance hasn't moved
+			recalculateClusters = mChecker.recalculateClusters(clusters);
+			
+			//if it needs to be run again, set up new clusters on the updated centers
+			if ( recalculateClusters ){
+				if ( numIterations > mMaxReclustering ){
+					//out of iterations, hand back the last assignment rather than empty clusters
+					return new ClusteringResult(clusters,false,false,numIterations);
+				} else {
+					if ( run.isCancellable() ){
+						//the empty ones get reused for the next assignment, so they need replacing
+						finished = new Cluster[clusters.length];
+						for ( int i = 0; i < clusters.length; i++ ){
+							finished[i] = clusters[i].getItemCount() == 0 ? new Cluster(clusters[i].getLocation(),clusters[i].getId()) : clusters[i];
+						}
+					}
+					clusters = assignment.getNewClusters(clusters);
+					
+					numIterations++;
+					
+					if ( writer != null && numIterations % mCheckpointInterval == 0 ){
+						float[][] centers = new float[clusters.length][];
+						for ( int i = 0; i < clusters.length; i++ ){
+							centers[i] = clusters[i].getLocation();
+						}
+						writer.save(new Checkpoint(centers,numIterations,mChecker,assignment.getCheckpointState(clusters)));
+					}
+				}
+			}
+		}
+		
+		return new ClusteringResult(clusters,true,false,numIterations);
+	}
+	
+	private static Cluster[] emptyClusters(Cluster[] clusters){
+		Cluster[] empty = new Cluster[clusters.length];
+		for ( int i = 0; i < clusters.length; i++ ){
+			empty[i] = new Cluster(clusters[i].getLocation(),clusters[i].getId());
+		}
+		return empty;
+	}
+	
+	/**
+	 * Runs the loop over a clusterer's sums, the clusters come back with counts
+	 * and means but no items
+	 * 
+	 * @param source
+	 * @param initialCenters - one location per cluster
+	 * @param numIterations - how many iterations were done before, when resuming
+	 * @param token - null if it can't be cancelled
+	 * @return
+	 * @throws IOException
+	 */
+	protected ClusteringResult iterate(final SumsSource source, float[][] initialCenters, int numIterations, CancellationToken token) throws IOException {
+		Cluster[] clusters = new Cluster[initialCenters.length];
+		for ( int i = 0; i < clusters.length; i++ ){
+			clusters[i] = new Cluster(initialCenters[i].clone(),i);
+		}
+		return iterate(new Assignment(){
+			public Cluster[] assign(Cluster[] clusters, ClusteringRun run) throws IOException {
+				float[][] centers = new float[clusters.length][];
+				for ( int i = 0; i < clusters.length; i++ ){
+					centers[i] = clusters[i].getLocation();
+				}
+				PartialSums sums = source.getSums(centers,run);
+				if ( !run.wasCancelled() ){
+					sums.addTo(clusters);
+				}
+				return clusters;
+			}
+			
+			public Cluster[] getNewClusters(Cluster[] clusters){
+				for ( int i = 0; i < clusters.length; i++ ){
+					if ( clusters[i].getItemCount() > 0 )
+						clusters[i] = new Cluster(clusters[i].getClusterMean(),i);
+				}
+				return clusters;
+			}
+			
+			public Serializable getCheckpointState(Cluster[] clusters){
+				return null;
+			}
+		},clusters,numIterations,new ClusteringRun(token));
+	}
+	
+	/**
+	 * Carries on a run over a clusterer's sums from a checkpoint, the iteration
+	 * count carries on from where it was
+	 * 
+	 * @param source
+	 * @param checkpoint
+	 * @return
+	 * @throws IOException
+	 */
+	protected ClusteringResult resume(SumsSource source, File checkpoint) throws IOException {
+		Checkpoint saved = readCheckpoint(checkpoint);
+		return iterate(source,saved.getCenters(),saved.getIteration(),null);
+	}
+	
+	/**
+	 * What a clusterer does every time around the loop
+	 */
+	protected interface Assignment {
+		/**
+		 * Puts the values into the clusters, checking the run every so often to
+		 * see if it's been cancelled. Once it has whatever this returns gets thrown
+		 * away, so it can stop where it is.
+		 */
+		public Cluster[] assign(Cluster[] clusters, ClusteringRun run) throws IOException;
+		
+		/**
+		 * Sets up the clusters for the next assignment, on the means of this one
+		 */
+		public Cluster[] getNewClusters(Cluster[] clusters);
+		
+		/**
+		 * Anything besides the centers needed to carry on after a checkpoint, a
+		 * copy since it gets written on another thread, or null
+		 */
+		public Serializable getCheckpointState(Cluster[] clusters);
+	}
+	
+	/**
+	 * For clusterers whose rows only ever get summed up, the one pass over all of
+	 * them that makes up an iteration
+	 */
+	protected interface SumsSource {
+		/**
+		 * @param centers
+		 * @param run - to check every so often, once it's cancelled the sums get
+		 * thrown away so the pass can stop where it is
+		 * @return The sum and count of the rows closest to each center
+		 * @throws IOException
+		 */
+		public PartialSums getSums(float[][] centers, ClusteringRun run) throws IOException;
+	}
+}
@@ -27,6 +27,9 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.stromberglabs.cluster;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
@@ -45,15 +48,16 @@ import com.stromberglabs.cluster.Clusterable;
  *    - If yes, calculate new clusters and go to 2)
  *    - If no, return current set of clusters  
  * 
+ * Steps 2) and 3) are the loop in {@link AbstractIterativeClusterer}.
+ * 
  * @author Andrew
  *
  */
-public abstract class AbstractKClusterer implements KClusterer {
+public abstract class AbstractKClusterer extends AbstractIterativeClusterer implements KClusterer {
 	public static double DISTANCE_TOLERANCE = 0.005;
 	public static int MAX_RECLUSTERING = 100;
-	
-	int mMaxReclustering = MAX_RECLUSTERING;
-	ClusterChecker mChecker;
+	//how many values the assignment loops get through between looking at the cancellation token
+	protected static final int CANCEL_CHECK_INTERVAL = 1024;
 	
 	protected AbstractKClusterer(){
 		this(new DriftClusterChecker(DISTANCE_TOLERANCE),MAX_RECLUSTERING);
@@ -64,42 +68,148 @@ public abstract class AbstractKClusterer implements KClusterer {
 	}
 	
 	protected AbstractKClusterer(ClusterChecker checker, int maxReclustering){
-		mChecker = checker;
-		mMaxReclustering = maxReclustering;
+		super(checker,maxReclustering);
 	}
 	
 	public Cluster[] cluster(final List<? extends Clusterable> values, int numClusters) {
-		Cluster[] clusters = calculateInitialClusters(values,numClusters);
-		
-		boolean recalculateClusters = true;
-
-		int numIterations = 0;
-		while ( recalculateClusters ){
-			//add all items to nearest cluster
-			clusters = assignClusters(clusters,values);
-			
-			//see if the cluster distance hasn't moved
-			recalculateClusters = mChecker.recalculateClusters(clusters);
-			
-			//if it needs to be run again, set up new clusters on the updated centers
-			if ( recalculateClusters ){
-				if ( numIterations > mMaxReclustering ){
-					recalculateClusters = false;
+		return cluster(values,numClusters,null).getClusters();
+	}
+	
+	/**
+	 * Runs the same loop as {@link #cluster(List, int)}, but starts from the given
+	 * centers instead of choosing them itself. Handy when some other step already
+	 * has a good guess at where the centers are.
+	 * 
+	 * @param values
+	 * @param initialCenters - one location per cluster
+	 * @return
+	 */
+	public Cluster[] cluster(final List<? extends Clusterable> values, float[][] initialCenters) {
+		return cluster(values,initialCenters,null).getClusters();
+	}
+	
+	/**
+	 * <pre>
+	 * Same as {@link #cluster(List, int)}, but gives up once the token is
+	 * cancelled, which makes it usable when there's a time limit on getting an
+	 * answer. The token gets looked at between iterations and every
+	 * {@link #CANCEL_CHECK_INTERVAL} values while assigning, so it stops soon
+	 * after, not right away.
+	 * 
+	 * When it's cancelled part way through an assignment that assignment is thrown
+	 * out and the clusters from the last one that finished come back, with the
+	 * result saying it didn't converge.
+	 * </pre>
+	 * 
+	 * @param values
+	 * @param numClusters
+	 * @param token - null if it can't be cancelled
+	 * @return
+	 */
+	public ClusteringResult cluster(final List<? extends Clusterable> values, int numClusters, CancellationToken token){
+		ClusteringRun run = new ClusteringRun(token);
+		return iterate(values,calculateInitialClusters(values,numClusters,run),0,run);
+	}
+	
+	/**
+	 * Same as {@link #cluster(List, int, CancellationToken)} from the given centers
+	 * @param values
+	 * @param initialCenters
+	 * @param token
+	 * @return
+	 */
+	public ClusteringResult cluster(final List<? extends Clusterable> values, float[][] initialCenters, CancellationToken token){
+		ClusteringRun run = new ClusteringRun(token);
+		return iterate(values,calculateInitialClusters(values,initialCenters,run),0,run);
+	}
+	
+	/**
+	 * Carries on a run from a checkpoint, it has to be the same values in the same
+	 * order as the run that saved it. The checker is replaced by the saved one if
+	 * there was one, and the iteration count carries on from where it was.
+	 * 
+	 * @param values
+	 * @param checkpoint
+	 * @return
+	 * @throws IOException
+	 */
+	public Cluster[] resume(final List<? extends Clusterable> values, File checkpoint) throws IOException {
+		Checkpoint saved = readCheckpoint(checkpoint);
+		return iterate(values,restoreClusters(values,saved.getCenters(),saved.getState()),saved.getIteration(),new ClusteringRun(null)).getClusters();
+	}
+	
+	private ClusteringResult iterate(final List<? extends Clusterable> values, Cluster[] clusters, int numIterations, ClusteringRun run){
+		try {
+			return iterate(new Assignment(){
+				public Cluster[] assign(Cluster[] clusters, ClusteringRun run){
+					return assignClusters(clusters,values,run);
 				}
 				
-				clusters = getNewClusters(clusters);
+				public Cluster[] getNewClusters(Cluster[] clusters){
+					return AbstractKClusterer.this.getNewClusters(clusters);
+				}
 				
-				numIterations++;
-			}
+				public Serializable getCheckpointState(Cluster[] clusters){
+					return AbstractKClusterer.this.getCheckpointState(clusters,values);
+				}
+			},clusters,numIterations,run);
+		} catch ( IOException e ){
+			//the values are all in memory, nothing gets read
+			throw new RuntimeException(e);
 		}
-		
-		return clusters;
 	}
-
-	protected abstract Cluster[] assignClusters(Cluster[] clusters,final List<? extends Clusterable> values);
+	
+	/**
+	 * Puts the values into the clusters, checking the run every
+	 * {@link #CANCEL_CHECK_INTERVAL} values to see if it's been cancelled
+	 * @param clusters
+	 * @param values
+	 * @param run
+	 * @return
+	 */
+	protected abstract Cluster[] assignClusters(Cluster[] clusters,final List<? extends Clusterable> values, ClusteringRun run);
 	
 	protected abstract Cluster[] getNewClusters(Cluster[] clusters);
 	
+	/**
+	 * Anything besides the centers the clusterer needs to carry on after a
+	 * checkpoint. It gets written on another thread so it has to be a copy.
+	 * @param clusters - the clusters about to go into the next assignment
+	 * @param values
+	 * @return null if the centers are all it needs
+	 */
+	protected Serializable getCheckpointState(Cluster[] clusters, List<? extends Clusterable> values){
+		return null;
+	}
+	
+	/**
+	 * Sets up the clusters to go into the next assignment when resuming, the
+	 * state is whatever {@link #getCheckpointState(Cluster[], List)} saved.
+	 * @param values
+	 * @param centers
+	 * @param state
+	 * @return
+	 */
+	protected Cluster[] restoreClusters(List<? extends Clusterable> values, float[][] centers, Serializable state){
+		return calculateInitialClusters(values,centers);
+	}
+	
+	/**
+	 * The initial clusters for a run, a clusterer that does any real work picking
+	 * them can check the run for cancellation while it does
+	 * @param values
+	 * @param numClusters
+	 * @param run
+	 * @return
+	 */
+	protected Cluster[] calculateInitialClusters(List<? extends Clusterable> values, int numClusters, ClusteringRun run){
+		return calculateInitialClusters(values,numClusters);
+	}
+	
+	protected Cluster[] calculateInitialClusters(List<? extends Clusterable> values, float[][] centers, ClusteringRun run){
+		return calculateInitialClusters(values,centers);
+	}
+	
 	/**
 	* Calculates the initial clusters randomly, this could be replaced with a better algorithm
 	* @param values
@@ -121,4 +231,18 @@ public abstract class AbstractKClusterer implements KClusterer {
 		}
 		return clusters;
 	}
+	
+	/**
+	 * Creates the initial clusters from centers that were picked elsewhere
+	 * @param values
+	 * @param centers
+	 * @return
+	 */
+	protected Cluster[] calculateInitialClusters(List<? extends Clusterable> values, float[][] centers){
+		Cluster[] clusters = new Cluster[centers.length];
+		for ( int i = 0; i < centers.length; i++ ){
+			clusters[i] = new Cluster(centers[i],i);
+		}
+		return clusters;
+	}
 }
@@ -0,0 +1,298 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.stromberglabs.data.FloatDataset;
+import com.stromberglabs.data.SparseHistogram;
+
+/**
+ * <pre>
+ * Turns the descriptors of an image into a histogram of the visual words they
+ * fall in, the words being the clusters of a {@link KMeansModel} trained on
+ * descriptors from lots of images. The words get looked up through whatever
+ * index the model was made with, so pick a KD tree or forest there for a big
+ * vocabulary.
+ * 
+ * The images get encoded in parallel on the fork/join pool. Each thread counts
+ * into its own array of counts, one per word, and remembers which words it
+ * touched so it only has to clear those for the next image, so apart from the
+ * histograms themselves nothing gets allocated per image or per descriptor.
+ * 
+ * The histograms are the word counts, optionally times the words' inverse
+ * document frequencies, see {@link #fitIdf(List)}, and then normalized, see
+ * {@link Weighting} and {@link Normalization}. Set those up before encoding,
+ * after that the encoder can be used from any number of threads.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class BagOfWordsEncoder {
+	/**
+	 * <pre>
+	 * TF - the number of descriptors that fell in each word
+	 * TF_IDF - the counts times log(images/images the word shows up in), so the
+	 *  words that show up everywhere count for less
+	 * </pre>
+	 */
+	public enum Weighting { TF, TF_IDF }
+	
+	/**
+	 * <pre>
+	 * NONE - leave the weights as they are
+	 * L1 - the weights add up to 1
+	 * L2 - the histogram has length 1, so the dot product of two is their cosine
+	 * </pre>
+	 */
+	public enum Normalization { NONE, L1, L2 }
+	
+	public static int PARALLEL_IMAGE_CHUNK = 4;
+	
+	private final KMeansModel mModel;
+	private Weighting mWeighting;
+	private Normalization mNormalization;
+	private float[] mIdf;
+	
+	private final ThreadLocal<Scratch> mScratch = new ThreadLocal<Scratch>(){
+		protected Scratch initialValue(){
+			return new Scratch(mModel.getNumClusters(),mModel.getDimension());
+		}
+	};
+	
+	public BagOfWordsEncoder(KMeansModel model){
+		this(model,Weighting.TF,Normalization.L1);
+	}
+	
+	public BagOfWordsEncoder(KMeansModel model, Weighting weighting, Normalization normalization){
+		mModel = model;
+		mWeighting = weighting;
+		mNormalization = normalization;
+	}
+	
+	/**
+	 * Counts how many of the images every word shows up in and sets the inverse
+	 * document frequencies from that, words none of them have get 0
+	 */
+	public void fitIdf(List<FloatDataset> images){
+		SparseHistogram[] counts = encode(images,Weighting.TF,Normalization.NONE);
+		int[] documents = new int[mModel.getNumClusters()];
+		for ( SparseHistogram histogram : counts ){
+			for ( int i = 0; i < histogram.size(); i++ ){
+				documents[histogram.getWord(i)]++;
+			}
+		}
+		float[] idf = new float[documents.length];
+		for ( int word = 0; word < idf.length; word++ ){
+			idf[word] = documents[word] == 0 ? 0 : (float)Math.log((double)images.size()/documents[word]);
+		}
+		mIdf = idf;
+	}
+	
+	/**
+	 * @param idf - one weight per word, like ones saved from an earlier {@link #fitIdf(List)}
+	 */
+	public void setIdf(float[] idf){
+		if ( idf.length != mModel.getNumClusters() ){
+			throw new RuntimeException(idf.length + " IDF weights for " + mModel.getNumClusters() + " words");
+		}
+		mIdf = idf.clone();
+	}
+	
+	public float[] getIdf(){
+		return mIdf == null ? null : mIdf.clone();
+	}
+	
+	public void setWeighting(Weighting weighting){
+		mWeighting = weighting;
+	}
+	
+	public Weighting getWeighting(){
+		return mWeighting;
+	}
+	
+	public void setNormalization(Normalization normalization){
+		mNormalization = normalization;
+	}
+	
+	public Normalization getNormalization(){
+		return mNormalization;
+	}
+	
+	public KMeansModel getModel(){
+		return mModel;
+	}
+	
+	/**
+	 * @param descriptors - one row per descriptor
+	 * @return The image's histogram
+	 */
+	public SparseHistogram encode(FloatDataset descriptors){
+		return encode(descriptors,mWeighting,mNormalization,mScratch.get());
+	}
+	
+	/**
+	 * Encodes the images in parallel
+	 * 
+	 * @param images - each image's descriptors, one row per descriptor
+	 * @return The images' histograms in the same order
+	 */
+	public SparseHistogram[] encodeAll(List<FloatDataset> images){
+		return encode(images,mWeighting,mNormalization);
+	}
+	
+	private SparseHistogram[] encode(List<FloatDataset> images, Weighting weighting, Normalization normalization){
+		if ( weighting == Weighting.TF_IDF && mIdf == null ){
+			throw new RuntimeException("TF-IDF needs the IDF weights, fit or set them first");
+		}
+		SparseHistogram[] histograms = new SparseHistogram[images.size()];
+		ForkJoinPool.commonPool().invoke(new EncodeTask(images,histograms,weighting,normalization,0,images.size()));
+		return histograms;
+	}
+	
+	private class EncodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private List<FloatDataset> mImages;
+		private SparseHistogram[] mHistograms;
+		private Weighting mTaskWeighting;
+		private Normalization mTaskNormalization;
+		private int mStart;
+		private int mEnd;
+		
+		public EncodeTask(List<FloatDataset> images, SparseHistogram[] histograms, Weighting weighting, Normalization normalization, int start, int end){
+			mImages = images;
+			mHistograms = histograms;
+			mTaskWeighting = weighting;
+			mTaskNormalization = normalization;
+			mStart = start;
+			mEnd = end;
+		}
+		
+		protected void compute(){
+			if ( mEnd - mStart <= PARALLEL_IMAGE_CHUNK ){
+				Scratch scratch = mScratch.get();
+				for ( int i = mStart; i < mEnd; i++ ){
+					mHistograms[i] = encode(mImages.get(i),mTaskWeighting,mTaskNormalization,scratch);
+				}
+				return;
+			}
+			int middle = (mStart + mEnd) >>> 1;
+			invokeAll(new EncodeTask(mImages,mHistograms,mTaskWeighting,mTaskNormalization,mStart,middle),
+				new EncodeTask(mImages,mHistograms,mTaskWeighting,mTaskNormalization,middle,mEnd));
+		}
+	}
+	
+	private SparseHistogram encode(FloatDataset descriptors, Weighting weighting, Normalization normalization, Scratch scratch){
+		if ( descriptors.size() > 0 && descriptors.getDimension() != mModel.getDimension() ){
+			throw new RuntimeException("The descriptors have " + descriptors.getDimension() + " dimensions, the words have " + mModel.getDimension());
+		}
+		int[] counts = scratch.mCounts;
+		int[] touched = scratch.mTouched;
+		int numTouched = 0;
+		for ( int i = 0; i < descriptors.size(); i++ ){
+			int word = mModel.predict(descriptors.getRow(i,scratch.mRow));
+			if ( counts[word]++ == 0 ){
+				touched[numTouched++] = word;
+			}
+		}
+		Arrays.sort(touched,0,numTouched);
+		int[] words = new int[numTouched];
+		float[] weights = new float[numTouched];
+		double norm = 0;
+		for ( int i = 0; i < numTouched; i++ ){
+			int word = touched[i];
+			words[i] = word;
+			weights[i] = weighting == Weighting.TF_IDF ? counts[word]*mIdf[word] : counts[word];
+			counts[word] = 0;
+			norm += normalization == Normalization.L2 ? weights[i]*weights[i] : Math.abs(weights[i]);
+		}
+		if ( normalization != Normalization.NONE && norm > 0 ){
+			if ( normalization == Normalization.L2 ) norm = Math.sqrt(norm);
+			for ( int i = 0; i < numTouched; i++ ){
+				weights[i] /= norm;
+			}
+		}
+		return new SparseHistogram(words,weights);
+	}
+	
+	private static class Scratch {
+		private int[] mCounts;
+		private int[] mTouched;
+		private float[] mRow;
+		
+		public Scratch(int numWords, int dimension){
+			mCounts = new int[numWords];
+			mTouched = new int[numWords];
+			mRow = new float[dimension];
+		}
+	}
+	
+	public static void main(String args[]){
+		Random random = new Random(1);
+		int dimensions = 32;
+		int numWords = 2000;
+		float[][] words = new float[numWords][dimensions];
+		for ( float[] word : words ){
+			for ( int d = 0; d < dimensions; d++ ){
+				word[d] = (float)random.nextGaussian();
+			}
+		}
+		List<FloatDataset> images = new ArrayList<FloatDataset>();
+		for ( int i = 0; i < 300; i++ ){
+			FloatDataset image = new FloatDataset(300,dimensions);
+			for ( int j = 0; j < image.getData().length; j++ ){
+				image.getData()[j] = (float)random.nextGaussian();
+			}
+			images.add(image);
+		}
+		KMeansModel model = new KMeansModel(words,KMeansModel.IndexType.KD_FOREST);
+		
+		//one point at a time with a new array for every descriptor and image
+		long start = System.currentTimeMillis();
+		for ( FloatDataset image : images ){
+			float[] histogram = new float[numWords];
+			for ( int i = 0; i < image.size(); i++ ){
+				histogram[model.predict(image.getRow(i,null))]++;
+			}
+		}
+		System.out.println("Point at a time: " + (System.currentTimeMillis() - start) + "ms");
+		
+		BagOfWordsEncoder encoder = new BagOfWordsEncoder(model,Weighting.TF_IDF,Normalization.L2);
+		encoder.fitIdf(images);
+		start = System.currentTimeMillis();
+		SparseHistogram[] histograms = encoder.encodeAll(images);
+		System.out.println("Encoder: " + (System.currentTimeMillis() - start) + "ms");
+		System.out.println("Image 0 has " + histograms[0].size() + " distinct words, similarity to itself " + histograms[0].dot(histograms[0]) + ", to image 1 " + histograms[0].dot(histograms[1]));
+	}
+}
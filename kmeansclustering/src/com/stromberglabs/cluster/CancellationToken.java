@@ -0,0 +1,73 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+/**
+ * <pre>
+ * Lets a clustering run be stopped early, either by calling {@link #cancel()}
+ * from another thread or by giving it a time limit up front. The clusterers
+ * look at it between iterations and every so often while assigning values, see
+ * {@link AbstractKClusterer#cluster(java.util.List, int, CancellationToken)}.
+ * 
+ * Once it's cancelled it stays cancelled, make a new one for the next run.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class CancellationToken {
+	private volatile boolean mCancelled;
+	private long mDeadline;
+	private boolean mHasDeadline;
+	
+	/**
+	 * A token that only stops when it's cancelled
+	 */
+	public CancellationToken(){
+	}
+	
+	/**
+	 * @param timeoutMillis - how long from now until it cancels itself
+	 */
+	public CancellationToken(long timeoutMillis){
+		mDeadline = System.nanoTime() + timeoutMillis * 1000000L;
+		mHasDeadline = true;
+	}
+	
+	public void cancel(){
+		mCancelled = true;
+	}
+	
+	public boolean isCancelled(){
+		if ( mCancelled ) return true;
+		if ( mHasDeadline && System.nanoTime() - mDeadline >= 0 ){
+			mCancelled = true;
+		}
+		return mCancelled;
+	}
+}
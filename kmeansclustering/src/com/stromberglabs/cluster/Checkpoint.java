@@ -0,0 +1,158 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.stromberglabs.cluster.checker.ClusterChecker;
+
+/**
+ * <pre>
+ * Where a clustering run had gotten to, so it can pick up from there after the
+ * process dies, see {@link AbstractIterativeClusterer#setCheckpoint(File, int)} and
+ * {@link AbstractKClusterer#resume(java.util.List, File)}. It holds the centers
+ * for the next iteration, how many iterations there have been, the checker if
+ * it's Serializable, and whatever else the clusterer needs to carry on where it
+ * left off, like the bounds of {@link ElkanKMeansClusterer}.
+ * 
+ * The checker gets serialized when the checkpoint is made, since it keeps
+ * changing as the run goes on. Everything else is a copy nobody else touches,
+ * so the checkpoint can be written out on another thread.
+ * 
+ * The file gets written next to the old one and then moved over it, so a crash
+ * part way through writing leaves the last good checkpoint.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class Checkpoint implements Serializable {
+	private static final long serialVersionUID = 1L;
+	public static final int VERSION = 1;
+	
+	private int mVersion = VERSION;
+	private float[][] mCenters;
+	private int mIteration;
+	private byte[] mChecker;
+	private Serializable mState;
+	
+	/**
+	 * @param centers - copied
+	 * @param iteration - the number of iterations done
+	 * @param checker - saved if it's Serializable
+	 * @param state - the clusterer's own state, it has to be a copy
+	 */
+	public Checkpoint(float[][] centers, int iteration, ClusterChecker checker, Serializable state){
+		mCenters = new float[centers.length][];
+		for ( int i = 0; i < centers.length; i++ ){
+			mCenters[i] = centers[i].clone();
+		}
+		mIteration = iteration;
+		mState = state;
+		if ( checker instanceof Serializable ){
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				ObjectOutputStream out = new ObjectOutputStream(bytes);
+				out.writeObject(checker);
+				out.close();
+				mChecker = bytes.toByteArray();
+			} catch ( IOException e ){
+				throw new RuntimeException("Couldn't save the checker",e);
+			}
+		}
+	}
+	
+	public float[][] getCenters(){
+		return mCenters;
+	}
+	
+	public int getIteration(){
+		return mIteration;
+	}
+	
+	/**
+	 * @return The checker as it was when the checkpoint was made, or null if it
+	 * wasn't Serializable
+	 */
+	public ClusterChecker getChecker(){
+		if ( mChecker == null ) return null;
+		try {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(mChecker));
+			return (ClusterChecker)in.readObject();
+		} catch ( Exception e ){
+			throw new RuntimeException("Couldn't restore the checker",e);
+		}
+	}
+	
+	public Serializable getState(){
+		return mState;
+	}
+	
+	public void write(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp),1 << 16));
+		try {
+			out.writeObject(this);
+		} finally {
+			out.close();
+		}
+		try {
+			Files.move(temp.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+		} catch ( AtomicMoveNotSupportedException e ){
+			Files.move(temp.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	public static Checkpoint read(File file) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file),1 << 16));
+		try {
+			Checkpoint checkpoint = (Checkpoint)in.readObject();
+			if ( checkpoint.mVersion != VERSION ){
+				throw new RuntimeException("Can't resume from a version " + checkpoint.mVersion + " checkpoint, only version " + VERSION);
+			}
+			return checkpoint;
+		} catch ( ClassNotFoundException e ){
+			throw new RuntimeException("The checkpoint needs a class that isn't here",e);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes checkpoints on a background thread so the iterations don't wait for
+ * the disk. If a new checkpoint comes in while the last one is still being
+ * written only the newest gets written next, the ones in between are already
+ * out of date. A write that fails gets thrown from the next save or finish,
+ * better to stop than to run for hours thinking there's a checkpoint.
+ * 
+ * @author Andrew
+ *
+ */
+class CheckpointWriter {
+	private File mFile;
+	private ExecutorService mExecutor;
+	private AtomicReference<Checkpoint> mPending = new AtomicReference<Checkpoint>();
+	private volatile IOException mError;
+	
+	public CheckpointWriter(File file){
+		mFile = file;
+		mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable runnable){
+				Thread thread = new Thread(runnable,"checkpoint-writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	public void save(Checkpoint checkpoint){
+		checkError();
+		mPending.set(checkpoint);
+		mExecutor.execute(new Runnable(){
+			public void run(){
+				Checkpoint latest = mPending.getAndSet(null);
+				if ( latest == null ) return;
+				try {
+					latest.write(mFile);
+				} catch ( IOException e ){
+					mError = e;
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Waits for the last checkpoint to be written and throws if any of them failed,
+	 * for when the run finished
+	 */
+	public void finish(){
+		close();
+		checkError();
+	}
+	
+	/**
+	 * Waits for the last checkpoint to be written. It doesn't throw, so it can go
+	 * in a finally without hiding whatever stopped the run.
+	 */
+	public void close(){
+		mExecutor.shutdown();
+		try {
+			mExecutor.awaitTermination(Long.MAX_VALUE,TimeUnit.MILLISECONDS);
+		} catch ( InterruptedException e ){
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void checkError(){
+		if ( mError != null ){
+			throw new RuntimeException("Couldn't write the checkpoint to " + mFile,mError);
+		}
+	}
+}
@@ -27,6 +27,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.stromberglabs.cluster;
 
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -36,6 +37,8 @@ public class Cluster implements Clusterable {
 	private float[] mOriginalMeanLocation;
 	private float[] mCurrentMeanLocation;
 	private List<Clusterable> mClusterItems;
+	//items that were added without being kept, see addSummary
+	private int mSummarizedCount;
 	
 	private int id;
 	
@@ -52,7 +55,7 @@ public class Cluster implements Clusterable {
 	public float[] getClusterMean(){
 		float[] normedCurrentLocation = new float[mCurrentMeanLocation.length];
 		for ( int i = 0; i < mCurrentMeanLocation.length; i++ ){
-			normedCurrentLocation[i] = mCurrentMeanLocation[i]/((float)mClusterItems.size());
+			normedCurrentLocation[i] = mCurrentMeanLocation[i]/((float)getItemCount());
 		}
 		return normedCurrentLocation;
 	}
@@ -70,10 +73,49 @@ public class Cluster implements Clusterable {
 		mClusterItems.add(item);
 	}
 	
+	/**
+	 * Adds a group of items whose locations have already been summed up, so a
+	 * whole group can be added without going over each item's location again.
+	 * @param items
+	 * @param sum - the sum of the items' locations
+	 */
+	public void addItems(Collection<? extends Clusterable> items, float[] sum){
+		if ( mCurrentMeanLocation == null ){
+			mCurrentMeanLocation = sum.clone();
+		} else {
+			mCurrentMeanLocation = sumArrays(mCurrentMeanLocation, sum);
+		}
+		mClusterItems.addAll(items);
+	}
+	
+	/**
+	 * Counts items toward the mean without keeping them, for when there are too
+	 * many to hold on to, like a pass over data that doesn't fit in memory.
+	 * They don't show up in getItems(), only in getItemCount() and the mean.
+	 * @param count - how many items
+	 * @param sum - the sum of their locations
+	 */
+	public void addSummary(int count, float[] sum){
+		if ( mCurrentMeanLocation == null ){
+			mCurrentMeanLocation = sum.clone();
+		} else {
+			mCurrentMeanLocation = sumArrays(mCurrentMeanLocation, sum);
+		}
+		mSummarizedCount += count;
+	}
+	
 	public List<Clusterable> getItems(){
 		return mClusterItems;
 	}
 	
+	/**
+	 * The number of items in the cluster, the ones it kept and the ones that were
+	 * only summarized
+	 */
+	public int getItemCount(){
+		return mClusterItems.size() + mSummarizedCount;
+	}
+	
 	/**
 	 * Get the original location of the cluster
 	 */
@@ -27,11 +27,21 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.stromberglabs.cluster;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 import com.stromberglabs.cluster.Clusterable;
 
 public class ClusterUtils {
+	/**
+	 * How many dimensions get summed between checks against the bound in the
+	 * early abandoning distance functions. Checking every dimension costs more
+	 * in branches than it saves, checking too rarely wastes work on far away
+	 * candidates.
+	 */
+	public static int DISTANCE_BLOCK_SIZE = 8;
+	
 	public static double getEuclideanDistance(double[] a,double[] b){
 		if ( a.length != b.length ){
 			throw new RuntimeException("Attempting to compare two clusterables of different dimensions");
@@ -62,6 +72,187 @@ public class ClusterUtils {
 		return getEuclideanDistance(a.getLocation(),b.getLocation());
 	}
 	
+	/**
+	 * Returns the squared euclidean distance between the two arrays, unless the
+	 * partial sum gets larger than the bound first. In that case it stops adding
+	 * up dimensions and returns the partial sum, which is already bigger than the
+	 * bound, so a caller looking for something closer than the bound can just
+	 * treat it as "too far".
+	 * 
+	 * @param a
+	 * @param b
+	 * @param bound - the squared distance to beat, usually the best so far
+	 * @return
+	 */
+	public static double getSquaredDistance(float[] a, float[] b, double bound){
+		if ( a.length != b.length ){
+			throw new RuntimeException("Attempting to compare two clusterables of different dimensions");
+		}
+		
+		double sum = 0;
+		int i = 0;
+		while ( i < a.length ){
+			int blockEnd = Math.min(i + DISTANCE_BLOCK_SIZE,a.length);
+			for ( ; i < blockEnd; i++ ){
+				double diff = a[i] - b[i];
+				sum += diff*diff;
+			}
+			if ( sum > bound ) return sum;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Same as {@link #getSquaredDistance(float[], float[], double)} but for a row that
+	 * sits somewhere inside a bigger flat array, like the rows of a
+	 * {@link com.stromberglabs.data.FloatDataset}.
+	 * 
+	 * @param data
+	 * @param offset - index in data where the row starts
+	 * @param b - the other location, its length is the row length
+	 * @param bound - the squared distance to beat, usually the best so far
+	 * @return
+	 */
+	public static double getSquaredDistance(float[] data, int offset, float[] b, double bound){
+		double sum = 0;
+		int i = 0;
+		while ( i < b.length ){
+			int blockEnd = Math.min(i + DISTANCE_BLOCK_SIZE,b.length);
+			for ( ; i < blockEnd; i++ ){
+				double diff = data[offset + i] - b[i];
+				sum += diff*diff;
+			}
+			if ( sum > bound ) return sum;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Same as {@link #getSquaredDistance(float[], float[], double)} but visits the
+	 * dimensions in the order given. If the dimensions with the most spread come
+	 * first the sum passes the bound sooner and more of the work gets skipped.
+	 * 
+	 * @param a
+	 * @param b
+	 * @param order - a permutation of the dimension indexes, see {@link #getDimensionOrder(float[][])}
+	 * @param bound - the squared distance to beat, usually the best so far
+	 * @return
+	 */
+	public static double getSquaredDistance(float[] a, float[] b, int[] order, double bound){
+		if ( a.length != b.length || order.length != a.length ){
+			throw new RuntimeException("Attempting to compare two clusterables of different dimensions");
+		}
+		
+		double sum = 0;
+		int i = 0;
+		while ( i < order.length ){
+			int blockEnd = Math.min(i + DISTANCE_BLOCK_SIZE,order.length);
+			for ( ; i < blockEnd; i++ ){
+				int dim = order[i];
+				double diff = a[dim] - b[dim];
+				sum += diff*diff;
+			}
+			if ( sum > bound ) return sum;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Finds the index of the center closest to the location, comparing squared
+	 * distances that give up as soon as they can't beat the closest so far. Ties
+	 * go to the lowest index.
+	 * 
+	 * @param location
+	 * @param centers
+	 * @param order - the order to visit the dimensions in, or null for the natural order
+	 * @return
+	 */
+	public static int getNearestIndex(float[] location, float[][] centers, int[] order){
+		int nearest = -1;
+		double minDistance = Double.MAX_VALUE;
+		for ( int i = 0; i < centers.length; i++ ){
+			double distance = order == null ?
+					getSquaredDistance(location,centers[i],minDistance) :
+					getSquaredDistance(location,centers[i],order,minDistance);
+			if ( distance < minDistance ){
+				nearest = i;
+				minDistance = distance;
+			}
+		}
+		return nearest;
+	}
+	
+	public static int getNearestIndex(float[] location, float[][] centers){
+		return getNearestIndex(location,centers,null);
+	}
+	
+	/**
+	 * Same as {@link #getNearestIndex(float[], float[][])} but for a row inside a
+	 * bigger flat array, so the rows of a chunk don't have to be copied out first
+	 * 
+	 * @param data
+	 * @param offset - index in data where the row starts
+	 * @param centers
+	 * @return
+	 */
+	public static int getNearestIndex(float[] data, int offset, float[][] centers){
+		int nearest = -1;
+		double minDistance = Double.MAX_VALUE;
+		for ( int i = 0; i < centers.length; i++ ){
+			double distance = getSquaredDistance(data,offset,centers[i],minDistance);
+			if ( distance < minDistance ){
+				nearest = i;
+				minDistance = distance;
+			}
+		}
+		return nearest;
+	}
+	
+	/**
+	 * Returns the dimension indexes sorted by the variance of the given locations
+	 * along them, highest variance first. Computed over the cluster centers this
+	 * is a cheap guess at which dimensions separate a point from the far away
+	 * centers the fastest.
+	 * 
+	 * @param locations
+	 * @return
+	 */
+	public static int[] getDimensionOrder(float[][] locations){
+		int dimensions = locations[0].length;
+		final double[] variance = new double[dimensions];
+		double[] mean = new double[dimensions];
+		for ( float[] location : locations ){
+			for ( int i = 0; i < dimensions; i++ ){
+				mean[i] += location[i];
+			}
+		}
+		for ( int i = 0; i < dimensions; i++ ){
+			mean[i] /= locations.length;
+		}
+		for ( float[] location : locations ){
+			for ( int i = 0; i < dimensions; i++ ){
+				double diff = location[i] - mean[i];
+				variance[i] += diff*diff;
+			}
+		}
+		
+		Integer[] order = new Integer[dimensions];
+		for ( int i = 0; i < dimensions; i++ ){
+			order[i] = i;
+		}
+		Arrays.sort(order,new Comparator<Integer>(){
+			public int compare(Integer a, Integer b){
+				return Double.compare(variance[b],variance[a]);
+			}
+		});
+		
+		int[] result = new int[dimensions];
+		for ( int i = 0; i < dimensions; i++ ){
+			result[i] = order[i];
+		}
+		return result;
+	}
+	
 	public static double sumDifferences(List<Double> a, List<Double> b){
 		assert(a.size() == b.size());
 		double sumDiff = 0;
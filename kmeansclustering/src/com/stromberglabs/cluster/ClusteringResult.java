@@ -0,0 +1,76 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+/**
+ * What a clustering run ended with, along with whether it actually converged or
+ * got stopped first by running out of iterations or being cancelled. A run that
+ * didn't converge still has the clusters from the last assignment that finished.
+ * 
+ * @author Andrew
+ *
+ */
+public class ClusteringResult {
+	private Cluster[] mClusters;
+	private boolean mConverged;
+	private boolean mCancelled;
+	private int mNumIterations;
+	
+	ClusteringResult(Cluster[] clusters, boolean converged, boolean cancelled, int numIterations){
+		mClusters = clusters;
+		mConverged = converged;
+		mCancelled = cancelled;
+		mNumIterations = numIterations;
+	}
+	
+	/**
+	 * @return The clusters, if it was cancelled before the first assignment
+	 * finished these are the starting centers with nothing in them
+	 */
+	public Cluster[] getClusters(){
+		return mClusters;
+	}
+	
+	/**
+	 * @return True if the checker said the clusters were done moving
+	 */
+	public boolean isConverged(){
+		return mConverged;
+	}
+	
+	public boolean isCancelled(){
+		return mCancelled;
+	}
+	
+	/**
+	 * @return How many times the centers were moved
+	 */
+	public int getNumIterations(){
+		return mNumIterations;
+	}
+}
@@ -0,0 +1,86 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+/**
+ * One run of a clusterer, handed to every step of it, so the clusterer doesn't
+ * keep anything about the run in its own fields and two runs on the same one
+ * don't get in each other's way.
+ * 
+ * @author Andrew
+ *
+ */
+public class ClusteringRun {
+	private CancellationToken mToken;
+	private boolean mCancelled;
+	private Object mState;
+	
+	/**
+	 * @param token - null if the run can't be cancelled
+	 */
+	ClusteringRun(CancellationToken token){
+		mToken = token;
+	}
+	
+	/**
+	 * For the assignment loops to check every
+	 * {@link AbstractKClusterer#CANCEL_CHECK_INTERVAL} values. Once it says true
+	 * the assignment can stop where it is, whatever it returns gets thrown away.
+	 * @return
+	 */
+	public boolean isCancelled(){
+		if ( !mCancelled && mToken != null && mToken.isCancelled() ){
+			mCancelled = true;
+		}
+		return mCancelled;
+	}
+	
+	/**
+	 * @return True if anything has seen the run get cancelled, without checking
+	 * the token again
+	 */
+	boolean wasCancelled(){
+		return mCancelled;
+	}
+	
+	boolean isCancellable(){
+		return mToken != null;
+	}
+	
+	/**
+	 * @return Whatever the clusterer keeps between the iterations of the run, like
+	 * an index over the clusters, or null until it sets something
+	 */
+	public Object getState(){
+		return mState;
+	}
+	
+	public void setState(Object state){
+		mState = state;
+	}
+}
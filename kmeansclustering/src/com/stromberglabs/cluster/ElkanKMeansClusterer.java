@@ -27,6 +27,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.stromberglabs.cluster;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -35,6 +36,7 @@ import java.util.Map;
 import java.util.Random;
 
 import com.stromberglabs.cluster.Clusterable;
+import com.stromberglabs.cluster.checker.ClusterChecker;
 
 public class ElkanKMeansClusterer extends AbstractKClusterer {
 	public static double DISTANCE_TOLERANCE = 0.005;
@@ -55,7 +57,11 @@ public class ElkanKMeansClusterer extends AbstractKClusterer {
 		super();
 	}
 	
-	protected Cluster[] assignClusters(Cluster[] clusters, List<? extends Clusterable> values) {
+	public ElkanKMeansClusterer(ClusterChecker checker, int maxReclustering){
+		super(checker,maxReclustering);
+	}
+	
+	protected Cluster[] assignClusters(Cluster[] clusters, List<? extends Clusterable> values, ClusteringRun run) {
 		int numClusters = clusters.length;
 		//transferring points into new clusters now so I don't have to keep track of what I've already
 		//seen in the old clusters
@@ -114,10 +120,12 @@ public class ElkanKMeansClusterer extends AbstractKClusterer {
 //			System.out.println("points assigned: " + assignedPoints.size());
 		
 		//Try to eliminate some more points
+		int checked = 0;
 		for ( int i = 0; i < numClusters; i++ ){
 			Cluster c = clusters[i];
 			List<Clusterable> items = c.getItems();
 			for ( Clusterable x : items ){
+				if ( checked++ % CANCEL_CHECK_INTERVAL == 0 && run.isCancelled() ) return newClusters;
 				//calculate d(x,c)
 				int newCluster = i;//assume it's going to be in the same cluster
 				double minDistance = 0;
@@ -195,6 +203,10 @@ public class ElkanKMeansClusterer extends AbstractKClusterer {
 	* @return
 	*/
 	protected Cluster[] calculateInitialClusters(List<? extends Clusterable> values,int numClusters){
+		return calculateInitialClusters(values,numClusters,new ClusteringRun(null));
+	}
+	
+	protected Cluster[] calculateInitialClusters(List<? extends Clusterable> values,int numClusters, ClusteringRun run){
 		Cluster[] clusters = new Cluster[numClusters];
 		//Random random = new Random(System.currentTimeMillis());
 		Random random = new Random(1);
@@ -207,11 +219,24 @@ public class ElkanKMeansClusterer extends AbstractKClusterer {
 			clusterCenters.add(index);
 			clusters[i] = new Cluster(values.get(index).getLocation(),i);
 		}
-		return assignClustersByDistance(values,clusters);
+		return assignClustersByDistance(values,clusters,run);
+	}
+	
+	protected Cluster[] calculateInitialClusters(List<? extends Clusterable> values, float[][] centers){
+		return calculateInitialClusters(values,centers,new ClusteringRun(null));
+	}
+	
+	protected Cluster[] calculateInitialClusters(List<? extends Clusterable> values, float[][] centers, ClusteringRun run){
+		return assignClustersByDistance(values,super.calculateInitialClusters(values,centers),run);
 	}
 	
-	protected Cluster[] assignClustersByDistance(List<? extends Clusterable> values, Cluster[] clusters){
+	/**
+	 * The first assignment, which the bounds start from. If the run gets cancelled
+	 * part way it stops, the run won't go any further anyway.
+	 */
+	protected Cluster[] assignClustersByDistance(List<? extends Clusterable> values, Cluster[] clusters, ClusteringRun run){
 		for ( int j = 0; j < values.size(); j++ ){
+			if ( j % CANCEL_CHECK_INTERVAL == 0 && run.isCancelled() ) return clusters;
 			Clusterable val = values.get(j);
 			Cluster nearestCluster = null;
 			double minDistance = Float.MAX_VALUE;
@@ -231,6 +256,61 @@ public class ElkanKMeansClusterer extends AbstractKClusterer {
 		return clusters;
 	}
 	
+	/**
+	 * The bounds only skip work if they carry on from the last iteration, so
+	 * they're saved along with which points are in which cluster. The members
+	 * are kept in order so the sums come out exactly the same after a resume.
+	 */
+	private static class ElkanState implements Serializable {
+		private static final long serialVersionUID = 1L;
+		int[][] mMembers;
+		double[] mUpperBounds;
+	}
+	
+	protected Serializable getCheckpointState(Cluster[] clusters, List<? extends Clusterable> values){
+		ElkanState state = new ElkanState();
+		state.mMembers = new int[clusters.length][];
+		state.mUpperBounds = new double[values.size()];
+		for ( int i = 0; i < clusters.length; i++ ){
+			List<Clusterable> items = clusters[i].getItems();
+			state.mMembers[i] = new int[items.size()];
+			int j = 0;
+			for ( Clusterable x : items ){
+				state.mMembers[i][j++] = mPointIds.get(x);
+			}
+		}
+		for ( int j = 0; j < values.size(); j++ ){
+			state.mUpperBounds[j] = mUx.get(j);
+		}
+		return state;
+	}
+	
+	protected Cluster[] restoreClusters(List<? extends Clusterable> values, float[][] centers, Serializable saved){
+		if ( !(saved instanceof ElkanState) ){
+			return calculateInitialClusters(values,centers);
+		}
+		ElkanState state = (ElkanState)saved;
+		if ( state.mUpperBounds.length != values.size() ){
+			throw new RuntimeException("The checkpoint was for " + state.mUpperBounds.length + " points, not " + values.size());
+		}
+		mUx.clear();
+		mRx.clear();
+		mPointIds.clear();
+		for ( int j = 0; j < values.size(); j++ ){
+			mPointIds.put(values.get(j),j);
+			mUx.put(j,state.mUpperBounds[j]);
+			mRx.put(j,Boolean.TRUE);
+		}
+		Cluster[] clusters = new Cluster[centers.length];
+		for ( int i = 0; i < centers.length; i++ ){
+			clusters[i] = new Cluster(centers[i],i);
+			for ( int id : state.mMembers[i] ){
+				clusters[i].addItem(values.get(id));
+			}
+		}
+		return clusters;
+	}
+	
 	private void updatePointMaxDistance(int point,double distance){
 		if ( mUx.containsKey(point) ){
 			mUx.put(point,mUx.get(point)+distance);
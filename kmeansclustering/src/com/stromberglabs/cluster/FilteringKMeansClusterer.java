@@ -0,0 +1,117 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.stromberglabs.cluster.checker.ClusterChecker;
+import com.stromberglabs.cluster.Clusterable;
+import com.stromberglabs.tree.FilteringKDTree;
+
+/**
+ * Lloyd's k-means using the filtering algorithm of Kanungo et al. Instead of a
+ * tree over the centers that gets rebuilt every iteration like
+ * {@link KMeansTreeClusterer}, this builds a {@link FilteringKDTree} over the
+ * values at the start of each run and reuses it for every iteration of that run,
+ * it's dropped when the run ends. Whole groups of values get
+ * assigned to a cluster at once when no other center could be closer to any of
+ * them, so in low to moderate dimensions it does a fraction of the distance
+ * computations for the same result as {@link KMeansClusterer}.
+ * 
+ * @author Andrew
+ *
+ */
+public class FilteringKMeansClusterer extends AbstractKClusterer {
+	private long mDistanceCount;
+	
+	public FilteringKMeansClusterer(){
+		super();
+	}
+	
+	public FilteringKMeansClusterer(ClusterChecker checker, int maxRecluster){
+		super(checker,maxRecluster);
+	}
+	
+	protected Cluster[] assignClusters(Cluster[] clusters, final List<? extends Clusterable> values, ClusteringRun run){
+		//the values don't change between iterations, so the tree only gets built once per run
+		TreeRun tree = (TreeRun)run.getState();
+		if ( tree == null ){
+			tree = new TreeRun(new FilteringKDTree(values));
+			run.setState(tree);
+		}
+		tree.mDistanceCount += tree.mTree.assign(clusters);
+		mDistanceCount = tree.mDistanceCount;
+		return clusters;
+	}
+	
+	protected Cluster[] getNewClusters(Cluster[] clusters){
+		for ( int i = 0; i < clusters.length; i++ ){
+			if ( clusters[i].getItems().size() > 0 )
+				clusters[i] = new Cluster(clusters[i].getClusterMean(),i);
+		}
+		return clusters;
+	}
+	
+	/**
+	 * @return How many distances were computed during the last run, summed over
+	 * all of its iterations
+	 */
+	public long getDistanceCount(){
+		return mDistanceCount;
+	}
+	
+	private static class TreeRun {
+		private FilteringKDTree mTree;
+		private long mDistanceCount;
+		
+		private TreeRun(FilteringKDTree tree){
+			mTree = tree;
+		}
+	}
+	
+	public static void main(String args[]){
+		Random random = new Random(System.currentTimeMillis());
+		int numPoints = 100000;
+		int numClusters = 100;
+		List<Clusterable> points = new ArrayList<Clusterable>(numPoints);
+		for ( int i = 0; i < numPoints; i++ ){
+			int x = random.nextInt(1000) - 500;
+			int y = random.nextInt(1000) - 500;
+			points.add(new Point((float)x,(float)y));
+		}
+		FilteringKMeansClusterer clusterer = new FilteringKMeansClusterer();
+		long start = System.currentTimeMillis();
+		clusterer.cluster(points,numClusters);
+		System.out.println("filtering: " + (System.currentTimeMillis() - start) + "ms, " + clusterer.getDistanceCount() + " distances");
+		start = System.currentTimeMillis();
+		new KMeansClusterer().cluster(points,numClusters);
+		System.out.println("lloyd: " + (System.currentTimeMillis() - start) + "ms");
+	}
+}
@@ -0,0 +1,370 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.stromberglabs.cluster.Clusterable;
+import com.stromberglabs.tree.ClusterKDForest;
+
+/**
+ * <pre>
+ * Picks the number of trees and the bin budget for a {@link KMeansForestClusterer}
+ * by trying them out on the data:
+ * 
+ * 1) Pick centers the way the clusterer would and a sample of the values
+ * 2) Move the centers a few Lloyd iterations over a bigger sample, so they look
+ *    more like the centers most of the run is spent on than random values do
+ * 3) Find every sampled value's true closest center by brute force
+ * 4) For each tree count build a forest over the centers from before the last
+ *    of those iterations and time updating it to the ones after, then for each
+ *    bin budget time the sampled assignments and measure how many agree with
+ *    the brute force ones (the recall)
+ * 5) Take the cheapest configuration that reaches the target recall, or if
+ *    there's a time budget instead, the one with the best recall within it
+ * 
+ * The cost of a configuration is the forest update plus assigning all the
+ * values, since that's what the clusterer does every iteration after the
+ * first. The build only happens once a run so it isn't part of the cost, it's
+ * still measured, see {@link Configuration#getBuildCost()}. The first tree count
+ * gets run once untimed to warm up the JIT, and every time is the median of
+ * TIMING_RUNS tries so one slow one doesn't decide things.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class ForestAutoTuner {
+	public static int[] DEFAULT_TREE_COUNTS = {1,2,4,8,16};
+	public static int[] DEFAULT_BIN_BUDGETS = {1,2,5,10,20,50,100,200,500,1000,2000};
+	public static int DEFAULT_SAMPLE_SIZE = 1000;
+	public static int DEFAULT_SETTLE_ITERATIONS = 2;
+	//how many values per center get sampled to move the centers on
+	public static int SETTLE_SAMPLE_PER_CLUSTER = 20;
+	public static int TIMING_RUNS = 5;
+	
+	private double mTargetRecall;
+	private long mTimeBudget;
+	private int mSampleSize = DEFAULT_SAMPLE_SIZE;
+	private int mSettleIterations = DEFAULT_SETTLE_ITERATIONS;
+	private int[] mTreeCounts = DEFAULT_TREE_COUNTS;
+	private int[] mBinBudgets = DEFAULT_BIN_BUDGETS;
+	private long mSeed = 1;
+	
+	private ForestAutoTuner(double targetRecall, long timeBudget){
+		mTargetRecall = targetRecall;
+		mTimeBudget = timeBudget;
+	}
+	
+	/**
+	 * @param targetRecall - the fraction of values that should land in their true closest cluster
+	 * @return A tuner that finds the cheapest configuration with at least that recall
+	 */
+	public static ForestAutoTuner forRecall(double targetRecall){
+		return new ForestAutoTuner(targetRecall,-1);
+	}
+	
+	/**
+	 * @param nanosPerIteration - how long updating the forest and a whole assignment
+	 * pass over the values may take
+	 * @return A tuner that finds the configuration with the best recall within that time
+	 */
+	public static ForestAutoTuner forTimeBudget(long nanosPerIteration){
+		return new ForestAutoTuner(-1,nanosPerIteration);
+	}
+	
+	public ForestAutoTuner setSampleSize(int sampleSize){
+		mSampleSize = sampleSize;
+		return this;
+	}
+	
+	/**
+	 * @param iterations - how many Lloyd iterations to move the centers before
+	 * tuning, 0 to tune on the centers as they're given
+	 */
+	public ForestAutoTuner setSettleIterations(int iterations){
+		mSettleIterations = iterations;
+		return this;
+	}
+	
+	public ForestAutoTuner setCandidates(int[] treeCounts, int[] binBudgets){
+		mTreeCounts = treeCounts;
+		mBinBudgets = binBudgets;
+		return this;
+	}
+	
+	public ForestAutoTuner setSeed(long seed){
+		mSeed = seed;
+		return this;
+	}
+	
+	/**
+	 * Tunes the clusterer for these values and number of clusters, and sets it up
+	 * with the chosen configuration
+	 * 
+	 * @param clusterer
+	 * @param values
+	 * @param numClusters
+	 * @return The chosen configuration, or the best one found if none met the
+	 * target, see {@link Configuration#meetsTarget()}
+	 */
+	public Configuration tune(KMeansForestClusterer clusterer, List<? extends Clusterable> values, int numClusters){
+		Configuration chosen = tune(clusterer.calculateInitialClusters(values,numClusters),values);
+		clusterer.setNumTrees(chosen.getNumTrees());
+		clusterer.setMaxBinsChecked(chosen.getMaxBinsChecked());
+		return chosen;
+	}
+	
+	/**
+	 * Tunes a forest over the given centers for assigning the values to them
+	 * 
+	 * @param centers - where the run starts, moved a few iterations before tuning
+	 * @param values
+	 * @return The chosen configuration
+	 */
+	public Configuration tune(Clusterable[] centers, List<? extends Clusterable> values){
+		Random random = new Random(mSeed);
+		int sampleSize = Math.min(mSampleSize,values.size());
+		Set<Integer> picked = new HashSet<Integer>();
+		List<float[]> sample = new ArrayList<float[]>(sampleSize);
+		while ( sample.size() < sampleSize ){
+			int index = random.nextInt(values.size());
+			if ( picked.add(index) ){
+				sample.add(values.get(index).getLocation());
+			}
+		}
+		
+		float[][] centerLocations = new float[centers.length][];
+		for ( int i = 0; i < centers.length; i++ ){
+			centerLocations[i] = centers[i].getLocation();
+		}
+		float[] settleSample = settleSample(values,centerLocations.length,centerLocations[0].length,random);
+		float[][] previousLocations = settle(centerLocations,settleSample,mSettleIterations - 1);
+		centerLocations = settle(previousLocations,settleSample,Math.min(1,mSettleIterations));
+		Clusterable[] previous = new Clusterable[centerLocations.length];
+		centers = new Clusterable[centerLocations.length];
+		for ( int i = 0; i < centers.length; i++ ){
+			previous[i] = new Cluster(previousLocations[i],i);
+			centers[i] = new Cluster(centerLocations[i],i);
+		}
+		
+		int[] truth = new int[sampleSize];
+		for ( int i = 0; i < sampleSize; i++ ){
+			truth[i] = ClusterUtils.getNearestIndex(sample.get(i),centerLocations);
+		}
+		
+		//untimed, so the JIT has compiled the searches before anything gets timed
+		measure(previous,centers,sample,truth,values.size(),mTreeCounts[0]);
+		
+		Configuration best = null;
+		for ( int numTrees : mTreeCounts ){
+			for ( Configuration candidate : measure(previous,centers,sample,truth,values.size(),numTrees) ){
+				if ( isBetter(candidate,best) ) best = candidate;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Times a forest of the given number of trees at every bin budget, the forest
+	 * gets built over the previous centers and updated to the current ones like a
+	 * clusterer's would be between iterations
+	 */
+	private List<Configuration> measure(Clusterable[] previous, Clusterable[] centers, List<float[]> sample, int[] truth, int numValues, int numTrees){
+		List<Configuration> measured = new ArrayList<Configuration>();
+		long[] buildTimes = new long[TIMING_RUNS];
+		long[] times = new long[TIMING_RUNS];
+		ClusterKDForest forest = null;
+		for ( int run = 0; run < times.length; run++ ){
+			long start = System.nanoTime();
+			forest = new ClusterKDForest(previous,numTrees,1,mSeed);
+			buildTimes[run] = System.nanoTime() - start;
+			start = System.nanoTime();
+			forest.update(centers);
+			times[run] = System.nanoTime() - start;
+		}
+		long buildTime = median(buildTimes);
+		long updateTime = median(times);
+		
+		for ( int maxBins : mBinBudgets ){
+			int agree = 0;
+			for ( int run = 0; run < times.length; run++ ){
+				agree = 0;
+				long start = System.nanoTime();
+				for ( int i = 0; i < sample.size(); i++ ){
+					if ( forest.findClosestIndex(sample.get(i),maxBins) == truth[i] ) agree++;
+				}
+				times[run] = System.nanoTime() - start;
+			}
+			double queryTime = (double)median(times)/sample.size();
+			measured.add(new Configuration(numTrees,maxBins,(double)agree/sample.size(),
+					updateTime + (long)(queryTime*numValues),buildTime));
+			//more bins can't do better than every assignment right
+			if ( agree == sample.size() ) break;
+		}
+		return measured;
+	}
+	
+	private static long median(long[] times){
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length/2];
+	}
+	
+	/**
+	 * The values the centers get moved on, SETTLE_SAMPLE_PER_CLUSTER of them for
+	 * every center laid out one after another
+	 */
+	private static float[] settleSample(List<? extends Clusterable> values, int numCenters, int dimension, Random random){
+		int sampleSize = (int)Math.min(values.size(),(long)SETTLE_SAMPLE_PER_CLUSTER*numCenters);
+		float[] chunk = new float[sampleSize*dimension];
+		for ( int i = 0; i < sampleSize; i++ ){
+			System.arraycopy(values.get(random.nextInt(values.size())).getLocation(),0,chunk,i*dimension,dimension);
+		}
+		return chunk;
+	}
+	
+	/**
+	 * A few Lloyd iterations over a sample of the values, the centers the run
+	 * spends most of its time on have moved off the random values it started with
+	 */
+	private static float[][] settle(float[][] centers, float[] chunk, int iterations){
+		if ( iterations < 1 ) return centers;
+		int dimension = centers[0].length;
+		int sampleSize = chunk.length/dimension;
+		float[][] settled = centers.clone();
+		PartialSums sums = new PartialSums(centers.length,dimension);
+		for ( int iteration = 0; iteration < iterations; iteration++ ){
+			Cluster[] clusters = new Cluster[settled.length];
+			for ( int i = 0; i < settled.length; i++ ){
+				clusters[i] = new Cluster(settled[i],i);
+			}
+			sums.clear();
+			sums.add(chunk,sampleSize,settled);
+			sums.addTo(clusters);
+			for ( int i = 0; i < settled.length; i++ ){
+				if ( clusters[i].getItemCount() > 0 ) settled[i] = clusters[i].getClusterMean();
+			}
+		}
+		return settled;
+	}
+	
+	private boolean isBetter(Configuration candidate, Configuration best){
+		if ( best == null ) return true;
+		if ( candidate.meetsTarget() != best.meetsTarget() ) return candidate.meetsTarget();
+		if ( candidate.meetsTarget() ){
+			//both good enough, cheapest wins for a recall target and best recall wins for a time budget
+			if ( mTimeBudget < 0 ) return candidate.mCost < best.mCost;
+			return candidate.mRecall > best.mRecall || (candidate.mRecall == best.mRecall && candidate.mCost < best.mCost);
+		}
+		//neither is good enough, get as close as possible
+		if ( mTimeBudget < 0 ) return candidate.mRecall > best.mRecall;
+		return candidate.mCost < best.mCost;
+	}
+	
+	/**
+	 * A tree count and bin budget along with what they measured as
+	 */
+	public class Configuration {
+		private int mNumTrees;
+		private int mMaxBinsChecked;
+		private double mRecall;
+		private long mCost;
+		private long mBuildCost;
+		
+		private Configuration(int numTrees, int maxBinsChecked, double recall, long cost, long buildCost){
+			mNumTrees = numTrees;
+			mMaxBinsChecked = maxBinsChecked;
+			mRecall = recall;
+			mCost = cost;
+			mBuildCost = buildCost;
+		}
+		
+		public int getNumTrees(){
+			return mNumTrees;
+		}
+		
+		public int getMaxBinsChecked(){
+			return mMaxBinsChecked;
+		}
+		
+		/**
+		 * @return The fraction of sampled values assigned to their true closest center
+		 */
+		public double getRecall(){
+			return mRecall;
+		}
+		
+		/**
+		 * @return The estimated nanoseconds to update the forest and assign all the
+		 * values, what every iteration after the first takes
+		 */
+		public long getCost(){
+			return mCost;
+		}
+		
+		/**
+		 * @return The estimated nanoseconds to build the forest, which happens once a run
+		 */
+		public long getBuildCost(){
+			return mBuildCost;
+		}
+		
+		public boolean meetsTarget(){
+			return mTimeBudget < 0 ? mRecall >= mTargetRecall : mCost <= mTimeBudget;
+		}
+		
+		public String toString(){
+			return "trees = " + mNumTrees + ", max bins = " + mMaxBinsChecked + ", recall = " + mRecall +
+					", cost = " + mCost/1000000.0 + "ms per iteration, " + mBuildCost/1000000.0 + "ms to build" + (meetsTarget() ? "" : " (target not met)");
+		}
+	}
+	
+	public static void main(String args[]){
+		Random random = new Random(System.currentTimeMillis());
+		int numPoints = 20000;
+		int dimensions = 32;
+		List<Clusterable> points = new ArrayList<Clusterable>(numPoints);
+		for ( int i = 0; i < numPoints; i++ ){
+			final float[] location = new float[dimensions];
+			for ( int j = 0; j < dimensions; j++ ){
+				location[j] = (float)random.nextGaussian();
+			}
+			points.add(new Clusterable(){
+				public float[] getLocation(){ return location; }
+			});
+		}
+		KMeansForestClusterer clusterer = new KMeansForestClusterer();
+		System.out.println(ForestAutoTuner.forRecall(0.95).tune(clusterer,points,500));
+	}
+}
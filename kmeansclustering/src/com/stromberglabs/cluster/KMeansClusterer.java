@@ -31,33 +31,55 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
+import com.stromberglabs.cluster.checker.ClusterChecker;
 import com.stromberglabs.cluster.Clusterable;
 
 public class KMeansClusterer extends AbstractKClusterer {
+	private boolean mReorderDimensions = false;
+	
 	public KMeansClusterer() {
 		super();
 	}
 	
-	protected Cluster[] assignClusters(Cluster[] clusters,final List<? extends Clusterable> values){
-		assignClustersByDistance(clusters, values);
+	/**
+	 * @param reorderDimensions - if true the distance calculations visit the
+	 * 			dimensions with the highest variance across the centers first, which
+	 * 			lets far away centers get thrown out sooner in high dimensions
+	 */
+	public KMeansClusterer(boolean reorderDimensions) {
+		super();
+		mReorderDimensions = reorderDimensions;
+	}
+	
+	public KMeansClusterer(ClusterChecker checker, int maxRecluster) {
+		super(checker,maxRecluster);
+	}
+	
+	protected Cluster[] assignClusters(Cluster[] clusters,final List<? extends Clusterable> values, ClusteringRun run){
+		assignClustersByDistance(clusters, values, run);
 		return clusters;
 	}
 	
-	protected void assignClustersByDistance(Cluster[] clusters, List<? extends Clusterable> values){
+	/**
+	 * Puts every value into the cluster with the closest center. The distances
+	 * are compared squared and each one gives up as soon as it can't beat the
+	 * closest center found so far for that value.
+	 * 
+	 * @param clusters
+	 * @param values
+	 * @param run
+	 */
+	protected void assignClustersByDistance(Cluster[] clusters, List<? extends Clusterable> values, ClusteringRun run){
+		float[][] centers = new float[clusters.length][];
+		for ( int i = 0; i < clusters.length; i++ ){
+			centers[i] = clusters[i].getLocation();
+		}
+		int[] order = mReorderDimensions ? ClusterUtils.getDimensionOrder(centers) : null;
+		
 		for ( int j = 0; j < values.size(); j++ ){
+			if ( j % CANCEL_CHECK_INTERVAL == 0 && run.isCancelled() ) return;
 			Clusterable val = values.get(j);
-			Cluster nearestCluster = null;
-			double minDistance = Float.MAX_VALUE;
-			for ( int i = 0; i < clusters.length; i++ ){
-				Cluster cluster = clusters[i];
-				double distance = ClusterUtils.getEuclideanDistance(val,cluster);
-				//System.out.println("cluster " + i + ", point " + j + ",distance: " + distance);
-				if ( distance < minDistance ){
-					nearestCluster = cluster;
-					minDistance = distance;
-				}
-			}
-			nearestCluster.addItem(val);
+			clusters[ClusterUtils.getNearestIndex(val.getLocation(),centers,order)].addItem(val);
 		}
 	}
 	
@@ -37,6 +37,7 @@ import com.stromberglabs.tree.ClusterKDForest;
 
 public class KMeansForestClusterer extends AbstractKClusterer {
 	private int mNumTrees = 8;
+	private int mMaxBinsChecked = 10;
 	
 	public KMeansForestClusterer(){
 		super();
@@ -57,16 +58,50 @@ public class KMeansForestClusterer extends AbstractKClusterer {
 		mNumTrees = numTrees;
 	}
 	
+	public KMeansForestClusterer(int numTrees, int maxBinsChecked, ClusterChecker checker, int maxRecluster){
+		super(checker,maxRecluster);
+		mNumTrees = numTrees;
+		mMaxBinsChecked = maxBinsChecked;
+	}
+	
+	public int getNumTrees(){
+		return mNumTrees;
+	}
+	
+	public void setNumTrees(int numTrees){
+		mNumTrees = numTrees;
+	}
+	
+	public int getMaxBinsChecked(){
+		return mMaxBinsChecked;
+	}
+	
+	/**
+	 * @param maxBinsChecked - how many bins each assignment gets to check, over all the trees
+	 */
+	public void setMaxBinsChecked(int maxBinsChecked){
+		mMaxBinsChecked = maxBinsChecked;
+	}
+	
 	/**
-	 * Use the mode of 8 k-d trees to determine which value goes into which cluster
+	 * Use a forest of k-d trees to determine which value goes into which cluster.
+	 * The forest is kept with the run, after the first iteration it gets updated
+	 * to where the clusters moved rather than built again.
 	 * @param clusters
 	 * @param values
 	 */
-	protected Cluster[] assignClusters(final Cluster[] clusters,final List<? extends Clusterable> values){
-		ClusterKDForest forest = new ClusterKDForest(clusters,mNumTrees,10);
+	protected Cluster[] assignClusters(final Cluster[] clusters,final List<? extends Clusterable> values, ClusteringRun run){
+		ClusterKDForest forest = (ClusterKDForest)run.getState();
+		if ( forest == null ){
+			forest = new ClusterKDForest(clusters,mNumTrees,mMaxBinsChecked);
+			run.setState(forest);
+		} else {
+			forest.update(clusters);
+		}
+		int count = 0;
 		for ( Clusterable item : values ){
-			Clusterable closest = forest.findClosest(item);
-			((Cluster)closest).addItem(item);
+			if ( count++ % CANCEL_CHECK_INTERVAL == 0 && run.isCancelled() ) return clusters;
+			clusters[forest.findClosestIndex(item.getLocation(),mMaxBinsChecked)].addItem(item);
 		}
 		return clusters;
 	}
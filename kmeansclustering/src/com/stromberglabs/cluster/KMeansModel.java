@@ -0,0 +1,463 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.stromberglabs.cluster.checker.DriftClusterChecker;
+import com.stromberglabs.cluster.Clusterable;
+import com.stromberglabs.data.FloatDataset;
+import com.stromberglabs.graph.HNSWIndex;
+import com.stromberglabs.tree.ClusterBallTree;
+import com.stromberglabs.tree.ClusterIndex;
+import com.stromberglabs.tree.ClusterKDForest;
+import com.stromberglabs.tree.ClusterKDTree;
+import com.stromberglabs.util.BufferUtils;
+
+/**
+ * <pre>
+ * The result of a clustering run packaged up for assigning new points to the
+ * clusters, like the descriptors of new images to the words of a vocabulary.
+ * It copies the centers when it's made and never changes after that, so any
+ * number of threads can predict with it at once.
+ * 
+ * The centers can be searched a few ways, see {@link IndexType}. The batch
+ * predictions split the rows between the threads of the fork/join pool, each
+ * thread reusing one buffer for its rows, so the only allocations are the
+ * tasks themselves.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class KMeansModel {
+	/**
+	 * <pre>
+	 * BRUTE_FORCE - compare with every center, stopping each comparison early once it's worse
+	 * BOUNDS - centers sorted by their projection onto the direction they're most
+	 *  spread along, since two points can't be closer than their projections are the
+	 *  scan goes outward from the point's projection and stops once the gap passes
+	 *  the best distance. Exact and needs no memory past the sort.
+	 * KD_TREE - a {@link ClusterKDTree}, exact
+	 * KD_FOREST - a {@link ClusterKDForest}, approximate
+	 * BALL_TREE - a {@link ClusterBallTree}, exact
+	 * HNSW - an {@link HNSWIndex}, approximate
+	 * </pre>
+	 */
+	public enum IndexType { BRUTE_FORCE, BOUNDS, KD_TREE, KD_FOREST, BALL_TREE, HNSW }
+	
+	public static int FOREST_TREES = 8;
+	public static int FOREST_BINS_CHECKED = 64;
+	public static int BATCH_CHUNK_SIZE = 1024;
+	
+	private final float[][] mCentroids;
+	private final IndexType mIndexType;
+	private final ClusterIndex mIndex;
+	
+	//for BOUNDS, the centers' indexes sorted by their projection onto mDirection
+	private final float[] mDirection;
+	private final int[] mOrder;
+	private final double[] mProjections;
+	
+	private static final ThreadLocal<float[][]> BUFFER = new ThreadLocal<float[][]>(){
+		protected float[][] initialValue(){
+			return new float[1][0];
+		}
+	};
+	
+	public KMeansModel(Cluster[] clusters){
+		this(clusters,IndexType.BRUTE_FORCE);
+	}
+	
+	public KMeansModel(Cluster[] clusters, IndexType indexType){
+		this(locations(clusters),indexType);
+	}
+	
+	/**
+	 * @param centroids - one location per cluster, they get copied
+	 * @param indexType - how to search the centroids
+	 */
+	public KMeansModel(float[][] centroids, IndexType indexType){
+		this(copy(centroids),indexType,null);
+	}
+	
+	/**
+	 * @param centroids - the model keeps these, they don't get copied
+	 * @param indexData - where to read the KD tree or forest from instead of
+	 * building it, see {@link #write(ByteBuffer)}, or null to build it
+	 */
+	private KMeansModel(float[][] centroids, IndexType indexType, ByteBuffer indexData){
+		mCentroids = centroids;
+		Clusterable[] points = new Clusterable[centroids.length];
+		for ( int i = 0; i < centroids.length; i++ ){
+			points[i] = new Centroid(mCentroids[i]);
+		}
+		mIndexType = indexType;
+		boolean restore = indexData != null;
+		if ( indexType == IndexType.KD_TREE ){
+			mIndex = restore ? ClusterKDTree.read(points,indexData) : new ClusterKDTree(points,true);
+		} else if ( indexType == IndexType.KD_FOREST ){
+			mIndex = restore ? ClusterKDForest.read(points,indexData) : new ClusterKDForest(points,FOREST_TREES,FOREST_BINS_CHECKED);
+		} else {
+			mIndex = indexType == IndexType.BALL_TREE ? new ClusterBallTree(points) :
+				indexType == IndexType.HNSW ? new HNSWIndex(points) : null;
+		}
+		if ( indexType == IndexType.BOUNDS ){
+			mDirection = principalDirection(mCentroids);
+			mProjections = new double[mCentroids.length];
+			Integer[] order = new Integer[mCentroids.length];
+			final double[] projections = new double[mCentroids.length];
+			for ( int i = 0; i < mCentroids.length; i++ ){
+				projections[i] = project(mCentroids[i]);
+				order[i] = i;
+			}
+			Arrays.sort(order,new Comparator<Integer>(){
+				public int compare(Integer a, Integer b){
+					return Double.compare(projections[a],projections[b]);
+				}
+			});
+			mOrder = new int[order.length];
+			for ( int i = 0; i < order.length; i++ ){
+				mOrder[i] = order[i];
+				mProjections[i] = projections[order[i]];
+			}
+		} else {
+			mDirection = null;
+			mOrder = null;
+			mProjections = null;
+		}
+	}
+	
+	private static float[][] copy(float[][] centroids){
+		if ( centroids.length == 0 ) throw new RuntimeException("A model needs at least one centroid");
+		float[][] copies = new float[centroids.length][];
+		for ( int i = 0; i < centroids.length; i++ ){
+			copies[i] = centroids[i].clone();
+		}
+		return copies;
+	}
+	
+	private static float[][] locations(Cluster[] clusters){
+		float[][] locations = new float[clusters.length][];
+		for ( int i = 0; i < clusters.length; i++ ){
+			locations[i] = clusters[i].getLocation();
+		}
+		return locations;
+	}
+	
+	/**
+	 * A few rounds of power iteration on the centroids' covariance, a unit vector
+	 * along the direction they're most spread out in
+	 */
+	private static float[] principalDirection(float[][] centroids){
+		int dimension = centroids[0].length;
+		double[] mean = new double[dimension];
+		for ( float[] centroid : centroids ){
+			for ( int d = 0; d < dimension; d++ ){
+				mean[d] += centroid[d]/(double)centroids.length;
+			}
+		}
+		Random random = new Random(1);
+		double[] direction = new double[dimension];
+		for ( int d = 0; d < dimension; d++ ){
+			direction[d] = random.nextGaussian();
+		}
+		for ( int iteration = 0; iteration < 10; iteration++ ){
+			double[] next = new double[dimension];
+			for ( float[] centroid : centroids ){
+				double dot = 0;
+				for ( int d = 0; d < dimension; d++ ){
+					dot += (centroid[d] - mean[d])*direction[d];
+				}
+				for ( int d = 0; d < dimension; d++ ){
+					next[d] += dot*(centroid[d] - mean[d]);
+				}
+			}
+			double norm = 0;
+			for ( int d = 0; d < dimension; d++ ){
+				norm += next[d]*next[d];
+			}
+			norm = Math.sqrt(norm);
+			//all the centroids in one spot, any direction is as good as another
+			if ( norm == 0 ) break;
+			for ( int d = 0; d < dimension; d++ ){
+				direction[d] = next[d]/norm;
+			}
+		}
+		float[] unit = new float[dimension];
+		double norm = 0;
+		for ( int d = 0; d < dimension; d++ ){
+			norm += direction[d]*direction[d];
+		}
+		norm = Math.sqrt(norm);
+		for ( int d = 0; d < dimension; d++ ){
+			unit[d] = (float)(direction[d]/norm);
+		}
+		return unit;
+	}
+	
+	private double project(float[] location){
+		double projection = 0;
+		for ( int d = 0; d < mDirection.length; d++ ){
+			projection += mDirection[d]*location[d];
+		}
+		return projection;
+	}
+	
+	/**
+	 * @param location
+	 * @return The index of the cluster closest to the location, exactly unless
+	 * the model uses one of the approximate indexes
+	 */
+	public int predict(float[] location){
+		switch ( mIndexType ){
+			case BOUNDS: return boundedNearest(location);
+			case KD_FOREST: return ((ClusterKDForest)mIndex).findClosestIndex(location);
+			case KD_TREE:
+			case BALL_TREE: return mIndex.exactNearestIndex(location);
+			case HNSW: return ((HNSWIndex)mIndex).findClosestIndex(location);
+			default: return ClusterUtils.getNearestIndex(location,mCentroids);
+		}
+	}
+	
+	public int predict(Clusterable point){
+		return predict(point.getLocation());
+	}
+	
+	private int boundedNearest(float[] location){
+		double projection = project(location);
+		int above = Arrays.binarySearch(mProjections,projection);
+		if ( above < 0 ) above = -above - 1;
+		int below = above - 1;
+		int best = -1;
+		double bestDistance = Double.MAX_VALUE;
+		//a little slack on the gap so rounding in the projections can't prune the true closest
+		double slack = 1e-6*(1 + Math.abs(projection));
+		while ( below >= 0 || above < mOrder.length ){
+			//take whichever side is closer in projection next
+			boolean takeAbove = below < 0 || (above < mOrder.length && mProjections[above] - projection < projection - mProjections[below]);
+			int position = takeAbove ? above++ : below--;
+			double gap = Math.abs(mProjections[position] - projection) - slack;
+			if ( gap > 0 && gap*gap > bestDistance ){
+				//everything further out on this side is even further, and the other side was closer so it's done too
+				break;
+			}
+			int index = mOrder[position];
+			double distance = ClusterUtils.getSquaredDistance(location,mCentroids[index],bestDistance);
+			if ( distance < bestDistance || (distance == bestDistance && index < best) ){
+				best = index;
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * @param data
+	 * @return The cluster of every row of the data
+	 */
+	public int[] predictBatch(FloatDataset data){
+		int[] labels = new int[data.size()];
+		predictBatch(data,labels);
+		return labels;
+	}
+	
+	/**
+	 * Same as {@link #predictBatch(FloatDataset)} but fills in the given array
+	 * 
+	 * @param data
+	 * @param labels - at least data.size() long
+	 */
+	public void predictBatch(FloatDataset data, int[] labels){
+		predictWithDistances(data,labels,null);
+	}
+	
+	/**
+	 * Finds the cluster of every row of the data along with the distance to its center
+	 * 
+	 * @param data
+	 * @param labels - at least data.size() long
+	 * @param distances - at least data.size() long, or null if they aren't wanted
+	 */
+	public void predictWithDistances(FloatDataset data, int[] labels, double[] distances){
+		if ( data.getDimension() != getDimension() ){
+			throw new RuntimeException("Can't predict rows of dimension " + data.getDimension() + " with a model of dimension " + getDimension());
+		}
+		ForkJoinPool.commonPool().invoke(new PredictTask(data,labels,distances,0,data.size()));
+	}
+	
+	private class PredictTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private FloatDataset mData;
+		private int[] mLabels;
+		private double[] mDistances;
+		private int mStart;
+		private int mEnd;
+		
+		public PredictTask(FloatDataset data, int[] labels, double[] distances, int start, int end){
+			mData = data;
+			mLabels = labels;
+			mDistances = distances;
+			mStart = start;
+			mEnd = end;
+		}
+		
+		protected void compute(){
+			if ( mEnd - mStart <= BATCH_CHUNK_SIZE ){
+				float[][] buffer = BUFFER.get();
+				if ( buffer[0].length != mData.getDimension() ) buffer[0] = new float[mData.getDimension()];
+				float[] row = buffer[0];
+				for ( int i = mStart; i < mEnd; i++ ){
+					mData.getRow(i,row);
+					int label = predict(row);
+					mLabels[i] = label;
+					if ( mDistances != null ){
+						mDistances[i] = Math.sqrt(ClusterUtils.getSquaredDistance(row,mCentroids[label],Double.MAX_VALUE));
+					}
+				}
+				return;
+			}
+			int middle = (mStart + mEnd) >>> 1;
+			invokeAll(new PredictTask(mData,mLabels,mDistances,mStart,middle),new PredictTask(mData,mLabels,mDistances,middle,mEnd));
+		}
+	}
+	
+	public int getNumClusters(){
+		return mCentroids.length;
+	}
+	
+	public int getDimension(){
+		return mCentroids[0].length;
+	}
+	
+	public IndexType getIndexType(){
+		return mIndexType;
+	}
+	
+	/**
+	 * @param cluster
+	 * @return A copy of the cluster's center
+	 */
+	public float[] getCentroid(int cluster){
+		return mCentroids[cluster].clone();
+	}
+	
+	/**
+	 * @return The number of bytes {@link #write(ByteBuffer)} takes
+	 */
+	public long getSerializedSize(){
+		long size = 12 + 4L*mCentroids.length*getDimension();
+		if ( mIndex instanceof ClusterKDTree ) size += ((ClusterKDTree)mIndex).getSerializedSize();
+		if ( mIndex instanceof ClusterKDForest ) size += ((ClusterKDForest)mIndex).getSerializedSize();
+		return size;
+	}
+	
+	/**
+	 * Writes the index type and the centroid matrix at the buffer's position, and
+	 * for the KD tree and forest their flattened structure after that, so loading
+	 * them doesn't rebuild anything. The other indexes get built again when the
+	 * model is read, the ball tree is quick enough to build and HNSW builds the
+	 * same graph from the same centers and seed, so writing its links would only
+	 * make the file bigger.
+	 */
+	public void write(ByteBuffer out){
+		out.putInt(mIndexType.ordinal());
+		out.putInt(mCentroids.length);
+		out.putInt(getDimension());
+		BufferUtils.putMatrix(out,mCentroids);
+		if ( mIndex instanceof ClusterKDTree ) ((ClusterKDTree)mIndex).write(out);
+		if ( mIndex instanceof ClusterKDForest ) ((ClusterKDForest)mIndex).write(out);
+	}
+	
+	/**
+	 * Reads a model written by {@link #write(ByteBuffer)} from the buffer's position
+	 */
+	public static KMeansModel read(ByteBuffer in){
+		int index = in.getInt();
+		if ( index < 0 || index >= IndexType.values().length ){
+			throw new RuntimeException("Not a model file");
+		}
+		IndexType indexType = IndexType.values()[index];
+		int numClusters = in.getInt();
+		int dimension = in.getInt();
+		float[][] centroids = BufferUtils.getMatrix(in,numClusters,dimension);
+		return new KMeansModel(centroids,indexType,in);
+	}
+	
+	private static class Centroid implements Clusterable {
+		private float[] mLocation;
+		
+		public Centroid(float[] location){
+			mLocation = location;
+		}
+		
+		public float[] getLocation(){
+			return mLocation;
+		}
+	}
+	
+	public static void main(String args[]){
+		Random random = new Random(1);
+		int numPoints = 20000;
+		int numClusters = 1000;
+		int dimensions = 16;
+		List<Clusterable> points = new ArrayList<Clusterable>(numPoints);
+		for ( int i = 0; i < numPoints; i++ ){
+			float[] location = new float[dimensions];
+			for ( int d = 0; d < dimensions; d++ ){
+				location[d] = (float)random.nextGaussian();
+			}
+			points.add(new Centroid(location));
+		}
+		Cluster[] clusters = new KMeansClusterer(new DriftClusterChecker(0.01),5).cluster(points,numClusters);
+		FloatDataset queries = new FloatDataset(100000,dimensions);
+		for ( int i = 0; i < queries.getData().length; i++ ){
+			queries.getData()[i] = (float)random.nextGaussian();
+		}
+		int[] truth = new KMeansModel(clusters).predictBatch(queries);
+		int[] labels = new int[queries.size()];
+		for ( IndexType type : IndexType.values() ){
+			KMeansModel model = new KMeansModel(clusters,type);
+			long start = System.currentTimeMillis();
+			model.predictBatch(queries,labels);
+			long time = System.currentTimeMillis() - start;
+			int correct = 0;
+			for ( int i = 0; i < labels.length; i++ ){
+				if ( labels[i] == truth[i] ) correct++;
+			}
+			System.out.println(type + ": " + time + "ms, " + (double)correct/labels.length + " agree with brute force");
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.stromberglabs.data.FloatDataset;
+
+/**
+ * <pre>
+ * Holds the model that's currently being served, for when the lookups come in
+ * on lots of request threads while a new model gets trained in the background.
+ * 
+ * The model and its version sit together in one immutable {@link Snapshot}
+ * behind an AtomicReference. Reading it is a single volatile read, nothing ever
+ * locks, and swapping in a new model replaces the whole snapshot at once. A
+ * {@link KMeansModel} builds its index in its constructor and never changes it
+ * after that, so by the time a model can be swapped in it's completely built,
+ * and the queries already running on the old one just finish on the old one.
+ * 
+ * Anything that needs several answers from the same model, like a batch that
+ * shouldn't be split between two vocabularies, should get a snapshot once and
+ * use its model for all of them instead of going through the holder each time.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class KMeansModelHolder {
+	private final AtomicReference<Snapshot> mSnapshot;
+	
+	public KMeansModelHolder(KMeansModel model){
+		if ( model == null ) throw new RuntimeException("Can't serve a null model");
+		mSnapshot = new AtomicReference<Snapshot>(new Snapshot(model,1));
+	}
+	
+	public Snapshot getSnapshot(){
+		return mSnapshot.get();
+	}
+	
+	public KMeansModel getModel(){
+		return mSnapshot.get().getModel();
+	}
+	
+	public long getVersion(){
+		return mSnapshot.get().getVersion();
+	}
+	
+	/**
+	 * Starts serving the model
+	 * 
+	 * @return The version the model was given, one more than the version it replaced
+	 */
+	public long swap(KMeansModel model){
+		if ( model == null ) throw new RuntimeException("Can't serve a null model");
+		while ( true ){
+			Snapshot current = mSnapshot.get();
+			Snapshot next = new Snapshot(model,current.getVersion() + 1);
+			if ( mSnapshot.compareAndSet(current,next) ) return next.getVersion();
+		}
+	}
+	
+	/**
+	 * Starts serving the model only if the version being served is still the
+	 * expected one, so two retrains that started from the same version can't
+	 * both win
+	 * 
+	 * @return The new version, or -1 if another model got swapped in first
+	 */
+	public long compareAndSwap(long expectedVersion, KMeansModel model){
+		if ( model == null ) throw new RuntimeException("Can't serve a null model");
+		Snapshot current = mSnapshot.get();
+		if ( current.getVersion() != expectedVersion ) return -1;
+		Snapshot next = new Snapshot(model,expectedVersion + 1);
+		return mSnapshot.compareAndSet(current,next) ? next.getVersion() : -1;
+	}
+	
+	public int predict(float[] location){
+		return mSnapshot.get().getModel().predict(location);
+	}
+	
+	public int predict(Clusterable point){
+		return predict(point.getLocation());
+	}
+	
+	/**
+	 * The whole batch gets predicted by the same model
+	 */
+	public int[] predictBatch(FloatDataset data){
+		return mSnapshot.get().getModel().predictBatch(data);
+	}
+	
+	/**
+	 * A model and the version it was served as
+	 */
+	public static class Snapshot {
+		private final KMeansModel mModel;
+		private final long mVersion;
+		
+		private Snapshot(KMeansModel model, long version){
+			mModel = model;
+			mVersion = version;
+		}
+		
+		public KMeansModel getModel(){
+			return mModel;
+		}
+		
+		public long getVersion(){
+			return mVersion;
+		}
+		
+		public String toString(){
+			return "Version " + mVersion + ", " + mModel.getNumClusters() + " clusters";
+		}
+	}
+}
@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Random;
 
 import com.stromberglabs.cluster.Clusterable;
+import com.stromberglabs.tree.ClusterIndex;
 import com.stromberglabs.tree.ClusterKDTree;
 
 public class KMeansTreeClusterer extends AbstractKClusterer {
@@ -42,15 +43,41 @@ public class KMeansTreeClusterer extends AbstractKClusterer {
 		super();
 	}
 	
-	protected Cluster[] assignClusters(final Cluster[] clusters,final List<? extends Clusterable> values){
-		ClusterKDTree tree = new ClusterKDTree(clusters,true);
+	/**
+	 * Use an index over the clusters to find each value's closest one. The index is
+	 * kept with the run, so after the first iteration the tree just gets updated to
+	 * where the clusters moved rather than built again, and it's gone once the run
+	 * is over.
+	 * @param clusters
+	 * @param values
+	 */
+	protected Cluster[] assignClusters(final Cluster[] clusters,final List<? extends Clusterable> values, ClusteringRun run){
+		ClusterIndex tree = (ClusterIndex)run.getState();
+		if ( tree == null ){
+			tree = createIndex(clusters);
+			run.setState(tree);
+		} else {
+			tree.update(clusters);
+		}
+		int count = 0;
 		for ( Clusterable item : values ){
+			if ( count++ % CANCEL_CHECK_INTERVAL == 0 && run.isCancelled() ) return clusters;
 			Cluster closest = (Cluster)tree.exactNearestNeighbor(item);
 			closest.addItem(item);
 		}
 		return clusters;
 	}
 	
+	/**
+	 * Builds the index the values get assigned through, a k-d tree unless a subclass
+	 * knows of a better one for its data
+	 * @param clusters
+	 * @return
+	 */
+	protected ClusterIndex createIndex(Cluster[] clusters){
+		return new ClusterKDTree(clusters,true);
+	}
+	
 	protected Cluster[] getNewClusters(Cluster[] clusters){
 		for ( int i = 0; i < clusters.length; i++ ){
 			if ( clusters[i].getItems().size() > 0 )
@@ -0,0 +1,278 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.stromberglabs.cluster.checker.ClusterChecker;
+import com.stromberglabs.cluster.checker.DriftClusterChecker;
+import com.stromberglabs.data.ChunkSource;
+import com.stromberglabs.data.FloatDataset;
+import com.stromberglabs.data.RawFloatChunkSource;
+
+/**
+ * <pre>
+ * Lloyd's k-means over data that doesn't fit in memory, read from a
+ * {@link ChunkSource} one chunk at a time, every iteration a full pass:
+ * 
+ * 1) Assign each row of the chunk to its closest center, in parallel on the
+ *    fork/join pool with the same kernel {@link KMeansClusterer} uses
+ * 2) Add the rows to their centers' running sums and counts, see {@link PartialSums}
+ * 3) At the end of the pass hand the sums to the clusters and let the
+ *    {@link ClusterChecker} decide whether to go again, in the same loop as
+ *    {@link AbstractKClusterer}, so it checkpoints and cancels the same way
+ * 
+ * There are two chunk buffers, while one gets assigned a background thread
+ * reads the next chunk into the other, so the disk and the CPUs stay busy at
+ * the same time. Memory stays at the two chunks plus the k*d sums no matter
+ * how big the data is.
+ * 
+ * The clusters don't keep their items, there would be too many of them. They
+ * get a count and the sum of their items' locations instead, see
+ * {@link Cluster#addSummary(int, float[])}, which is all the checkers and the
+ * centers need.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class OutOfCoreKMeansClusterer extends AbstractIterativeClusterer {
+	public static int DEFAULT_CHUNK_ROWS = 65536;
+	
+	private int mChunkRows;
+	private int mNumPasses;
+	
+	public OutOfCoreKMeansClusterer(){
+		this(new DriftClusterChecker(AbstractKClusterer.DISTANCE_TOLERANCE),AbstractKClusterer.MAX_RECLUSTERING);
+	}
+	
+	public OutOfCoreKMeansClusterer(ClusterChecker checker, int maxReclustering){
+		this(checker,maxReclustering,DEFAULT_CHUNK_ROWS);
+	}
+	
+	/**
+	 * @param checker
+	 * @param maxReclustering
+	 * @param chunkRows - how many rows to read at a time
+	 */
+	public OutOfCoreKMeansClusterer(ClusterChecker checker, int maxReclustering, int chunkRows){
+		super(checker,maxReclustering);
+		mChunkRows = chunkRows;
+	}
+	
+	/**
+	 * Clusters starting from rows picked at random out of the first chunk
+	 */
+	public Cluster[] cluster(ChunkSource source, int numClusters) throws IOException {
+		return cluster(source,numClusters,null).getClusters();
+	}
+	
+	/**
+	 * Same as {@link #cluster(ChunkSource, int)}, but gives up once the token is
+	 * cancelled, the token gets looked at between chunks
+	 * 
+	 * @param source
+	 * @param numClusters
+	 * @param token - null if it can't be cancelled
+	 * @return
+	 */
+	public ClusteringResult cluster(ChunkSource source, int numClusters, CancellationToken token) throws IOException {
+		int dimension = source.getDimension();
+		float[] chunk = new float[mChunkRows*dimension];
+		source.reset();
+		int rows = source.read(chunk);
+		if ( rows < numClusters ){
+			throw new RuntimeException("Need at least " + numClusters + " rows in the first chunk to start from, got " + rows);
+		}
+		float[][] centers = new float[numClusters][dimension];
+		Random random = new Random(1);
+		Set<Integer> chosen = new HashSet<Integer>();
+		for ( int i = 0; i < numClusters; i++ ){
+			int row = random.nextInt(rows);
+			while ( chosen.contains(row) ){
+				row = random.nextInt(rows);
+			}
+			chosen.add(row);
+			System.arraycopy(chunk,row*dimension,centers[i],0,dimension);
+		}
+		return cluster(source,centers,token);
+	}
+	
+	/**
+	 * @param source
+	 * @param initialCenters - one location per cluster
+	 * @return The clusters, with counts and means but no items
+	 */
+	public Cluster[] cluster(ChunkSource source, float[][] initialCenters) throws IOException {
+		return cluster(source,initialCenters,null).getClusters();
+	}
+	
+	/**
+	 * Same as {@link #cluster(ChunkSource, int, CancellationToken)} from the given centers
+	 */
+	public ClusteringResult cluster(ChunkSource source, float[][] initialCenters, CancellationToken token) throws IOException {
+		return iterate(source,initialCenters,0,token);
+	}
+	
+	/**
+	 * Carries on a run from a checkpoint, it has to be the same source
+	 * @param source
+	 * @param checkpoint
+	 * @return
+	 * @throws IOException
+	 */
+	public Cluster[] resume(ChunkSource source, File checkpoint) throws IOException {
+		Checkpoint saved = readCheckpoint(checkpoint);
+		return iterate(source,saved.getCenters(),saved.getIteration(),null).getClusters();
+	}
+	
+	private ClusteringResult iterate(final ChunkSource source, float[][] initialCenters, int numIterations, CancellationToken token) throws IOException {
+		final int dimension = source.getDimension();
+		if ( initialCenters.length > 0 && initialCenters[0].length != dimension ){
+			throw new RuntimeException("Got centers of " + initialCenters[0].length + " dimensions for rows of " + dimension);
+		}
+		final ExecutorService reader = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable runnable){
+				Thread thread = new Thread(runnable,"chunk-prefetch");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			mNumPasses = 0;
+			final float[][] buffers = { new float[mChunkRows*dimension], new float[mChunkRows*dimension] };
+			final PartialSums sums = new PartialSums(initialCenters.length,dimension);
+			return iterate(new SumsSource(){
+				public PartialSums getSums(float[][] centers, ClusteringRun run) throws IOException {
+					pass(source,centers,buffers,sums,reader,run);
+					return sums;
+				}
+			},initialCenters,numIterations,token);
+		} finally {
+			reader.shutdownNow();
+		}
+	}
+	
+	/**
+	 * One pass over the data, reading the next chunk while assigning this one
+	 */
+	private void pass(final ChunkSource source, float[][] centers, final float[][] buffers, PartialSums sums, ExecutorService reader, ClusteringRun run) throws IOException {
+		sums.clear();
+		source.reset();
+		int current = 0;
+		Future<Integer> next = reader.submit(read(source,buffers[current]));
+		while ( true ){
+			int rows = get(next);
+			if ( rows == 0 ) break;
+			float[] chunk = buffers[current];
+			current ^= 1;
+			next = reader.submit(read(source,buffers[current]));
+			if ( run.isCancelled() ){
+				//let the read finish so nothing is still using the source once this returns
+				get(next);
+				return;
+			}
+			sums.add(chunk,rows,centers);
+		}
+		mNumPasses++;
+	}
+	
+	private static Callable<Integer> read(final ChunkSource source, final float[] buffer){
+		return new Callable<Integer>(){
+			public Integer call() throws IOException {
+				return source.read(buffer);
+			}
+		};
+	}
+	
+	private static int get(Future<Integer> future) throws IOException {
+		try {
+			return future.get();
+		} catch ( InterruptedException e ){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for the next chunk",e);
+		} catch ( ExecutionException e ){
+			if ( e.getCause() instanceof IOException ) throw (IOException)e.getCause();
+			if ( e.getCause() instanceof RuntimeException ) throw (RuntimeException)e.getCause();
+			throw new RuntimeException("Couldn't read the next chunk",e.getCause());
+		}
+	}
+	
+	/**
+	 * @return The number of passes over the data the last run took
+	 */
+	public int getNumPasses(){
+		return mNumPasses;
+	}
+	
+	public static void main(String args[]) throws IOException {
+		Random random = new Random(1);
+		int numRows = 1000000;
+		int dimensions = 16;
+		float[][] centers = new float[50][dimensions];
+		for ( float[] center : centers ){
+			for ( int d = 0; d < dimensions; d++ ){
+				center[d] = (float)random.nextGaussian()*5;
+			}
+		}
+		FloatDataset data = new FloatDataset(numRows,dimensions);
+		for ( int i = 0; i < numRows; i++ ){
+			float[] center = centers[random.nextInt(centers.length)];
+			for ( int d = 0; d < dimensions; d++ ){
+				data.getData()[i*dimensions + d] = center[d] + (float)random.nextGaussian();
+			}
+		}
+		File file = File.createTempFile("data",".f32");
+		file.deleteOnExit();
+		RawFloatChunkSource.write(data,file);
+		System.out.println("Wrote " + file.length()/(1024*1024) + "MB");
+		data = null;
+		
+		RawFloatChunkSource source = new RawFloatChunkSource(file,dimensions);
+		OutOfCoreKMeansClusterer clusterer = new OutOfCoreKMeansClusterer(new DriftClusterChecker(0.01),50);
+		long start = System.currentTimeMillis();
+		Cluster[] clusters = clusterer.cluster(source,centers.length);
+		long time = System.currentTimeMillis() - start;
+		source.close();
+		int empty = 0;
+		for ( Cluster cluster : clusters ){
+			if ( cluster.getItemCount() == 0 ) empty++;
+		}
+		System.out.println(clusterer.getNumPasses() + " passes in " + time + "ms, " + empty + " empty clusters");
+	}
+}
@@ -0,0 +1,193 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <pre>
+ * The running sum and count of the rows assigned to every cluster during one
+ * Lloyd iteration, for when the rows come in pieces: chunks of a file that
+ * doesn't fit in memory, or partitions held by different processes. The sums
+ * of the pieces get merged and handed to the clusters at the end, see
+ * {@link Cluster#addSummary(int, float[])}.
+ * 
+ * The sums are doubles so adding up millions of rows doesn't lose the small
+ * ones to rounding.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class PartialSums {
+	public static int PARALLEL_ASSIGN_CHUNK = 4096;
+	
+	private double[][] mSums;
+	private long[] mCounts;
+	private int mDimension;
+	private int[] mLabels = new int[0];
+	
+	public PartialSums(int numClusters, int dimension){
+		mSums = new double[numClusters][dimension];
+		mCounts = new long[numClusters];
+		mDimension = dimension;
+	}
+	
+	public void clear(){
+		for ( int i = 0; i < mSums.length; i++ ){
+			mCounts[i] = 0;
+			for ( int d = 0; d < mDimension; d++ ){
+				mSums[i][d] = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Assigns every row to its closest center, in parallel on the fork/join pool
+	 * with the same kernel {@link KMeansClusterer} uses, and adds it to that
+	 * center's sum
+	 * 
+	 * @param chunk - the rows one after another
+	 * @param rows - how many of them to use
+	 * @param centers
+	 */
+	public void add(float[] chunk, int rows, float[][] centers){
+		if ( mLabels.length < rows ) mLabels = new int[rows];
+		ForkJoinPool.commonPool().invoke(new AssignTask(chunk,mDimension,centers,mLabels,0,rows));
+		for ( int row = 0; row < rows; row++ ){
+			int label = mLabels[row];
+			double[] sum = mSums[label];
+			int offset = row*mDimension;
+			for ( int d = 0; d < mDimension; d++ ){
+				sum[d] += chunk[offset + d];
+			}
+			mCounts[label]++;
+		}
+	}
+	
+	public void merge(PartialSums other){
+		if ( other.mSums.length != mSums.length || other.mDimension != mDimension ){
+			throw new RuntimeException("Can't merge sums of " + other.mSums.length + "x" + other.mDimension + " into " + mSums.length + "x" + mDimension);
+		}
+		for ( int i = 0; i < mSums.length; i++ ){
+			mCounts[i] += other.mCounts[i];
+			for ( int d = 0; d < mDimension; d++ ){
+				mSums[i][d] += other.mSums[i][d];
+			}
+		}
+	}
+	
+	/**
+	 * Gives every cluster that got rows their count and sum
+	 */
+	public void addTo(Cluster[] clusters){
+		for ( int i = 0; i < mSums.length; i++ ){
+			if ( mCounts[i] == 0 ) continue;
+			if ( mCounts[i] > Integer.MAX_VALUE ){
+				throw new RuntimeException(mCounts[i] + " rows in one cluster is more than a cluster can count");
+			}
+			float[] sum = new float[mDimension];
+			for ( int d = 0; d < mDimension; d++ ){
+				sum[d] = (float)mSums[i][d];
+			}
+			clusters[i].addSummary((int)mCounts[i],sum);
+		}
+	}
+	
+	public long getCount(int cluster){
+		return mCounts[cluster];
+	}
+	
+	public int getNumClusters(){
+		return mSums.length;
+	}
+	
+	public int getDimension(){
+		return mDimension;
+	}
+	
+	/**
+	 * Writes the number of clusters and dimensions, then every cluster's count and sum
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(mSums.length);
+		out.writeInt(mDimension);
+		for ( int i = 0; i < mSums.length; i++ ){
+			out.writeLong(mCounts[i]);
+			for ( int d = 0; d < mDimension; d++ ){
+				out.writeDouble(mSums[i][d]);
+			}
+		}
+	}
+	
+	public static PartialSums read(DataInput in) throws IOException {
+		PartialSums sums = new PartialSums(in.readInt(),in.readInt());
+		for ( int i = 0; i < sums.mSums.length; i++ ){
+			sums.mCounts[i] = in.readLong();
+			for ( int d = 0; d < sums.mDimension; d++ ){
+				sums.mSums[i][d] = in.readDouble();
+			}
+		}
+		return sums;
+	}
+	
+	private static class AssignTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private float[] mChunk;
+		private int mDimension;
+		private float[][] mCenters;
+		private int[] mLabels;
+		private int mStart;
+		private int mEnd;
+		
+		public AssignTask(float[] chunk, int dimension, float[][] centers, int[] labels, int start, int end){
+			mChunk = chunk;
+			mDimension = dimension;
+			mCenters = centers;
+			mLabels = labels;
+			mStart = start;
+			mEnd = end;
+		}
+		
+		protected void compute(){
+			if ( mEnd - mStart <= PARALLEL_ASSIGN_CHUNK ){
+				for ( int row = mStart; row < mEnd; row++ ){
+					mLabels[row] = ClusterUtils.getNearestIndex(mChunk,row*mDimension,mCenters);
+				}
+				return;
+			}
+			int middle = (mStart + mEnd) >>> 1;
+			invokeAll(new AssignTask(mChunk,mDimension,mCenters,mLabels,mStart,middle),
+				new AssignTask(mChunk,mDimension,mCenters,mLabels,middle,mEnd));
+		}
+	}
+}
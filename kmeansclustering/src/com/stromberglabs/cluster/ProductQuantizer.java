@@ -0,0 +1,416 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.stromberglabs.cluster.checker.DriftClusterChecker;
+import com.stromberglabs.data.FloatDataset;
+import com.stromberglabs.tree.Neighbors;
+import com.stromberglabs.util.IntTopN;
+
+/**
+ * <pre>
+ * A product quantizer (Jegou, Douze and Schmid), which compresses vectors to a
+ * few bytes each and searches them without decompressing them.
+ * 
+ * The dimensions get split into M subspaces, and the part of the vectors in each
+ * subspace gets clustered into at most 256 centroids, so a vector is stored as M
+ * bytes, the centroid closest to it in every subspace. With 128 dimensions and M
+ * of 16 that's 16 bytes instead of 512. Each subspace gets its own clusterer from
+ * the factory and they all train at the same time on the fork/join pool.
+ * 
+ * Searches use asymmetric distances, the query isn't quantized. First the
+ * squared distance from the query to every centroid in every subspace goes into
+ * a table of M*K values, then the distance to a code is just M lookups added up.
+ * 
+ * <code>
+ * ProductQuantizer quantizer = new ProductQuantizer(16,256,factory);
+ * quantizer.train(sample);
+ * byte[] codes = quantizer.encode(descriptors);
+ * quantizer.search(query,codes,10,neighbors);
+ * </code>
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class ProductQuantizer {
+	public static int MAX_CENTROIDS = 256;
+	public static int PARALLEL_CHUNK_SIZE = 1024;
+	
+	private int mNumSubspaces;
+	private int mNumCentroids;
+	private KClustererFactory mFactory;
+	
+	private int mDimension;
+	//subspace s covers dimensions [mStarts[s],mStarts[s+1])
+	private int[] mStarts;
+	//[subspace][centroid], each centroid only as long as its subspace
+	private float[][][] mCodebooks;
+	
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>(){
+		protected Scratch initialValue(){
+			return new Scratch();
+		}
+	};
+	
+	/**
+	 * @param numSubspaces - M, the number of bytes per code
+	 * @param numCentroids - K, the centroids per subspace, at most 256
+	 * @param factory - makes the clusterer for every subspace
+	 */
+	public ProductQuantizer(int numSubspaces, int numCentroids, KClustererFactory factory){
+		if ( numCentroids < 1 || numCentroids > MAX_CENTROIDS ){
+			throw new RuntimeException("Can't fit " + numCentroids + " centroids in a byte");
+		}
+		mNumSubspaces = numSubspaces;
+		mNumCentroids = numCentroids;
+		mFactory = factory;
+	}
+	
+	/**
+	 * Learns the centroids of every subspace, a sample of the vectors to be stored
+	 * is enough. The subspaces get an equal share of the dimensions, or as close
+	 * to it as they divide.
+	 */
+	public void train(FloatDataset data){
+		final int dimension = data.getDimension();
+		if ( dimension < mNumSubspaces ){
+			throw new RuntimeException("Can't split " + dimension + " dimensions into " + mNumSubspaces + " subspaces");
+		}
+		if ( data.size() < mNumCentroids ){
+			throw new RuntimeException("Need at least " + mNumCentroids + " vectors to train, got " + data.size());
+		}
+		final int[] starts = new int[mNumSubspaces + 1];
+		for ( int s = 0; s <= mNumSubspaces; s++ ){
+			starts[s] = s*dimension/mNumSubspaces;
+		}
+		final float[][][] codebooks = new float[mNumSubspaces][][];
+		final float[] values = data.getData();
+		final int size = data.size();
+		final RecursiveAction[] trainings = new RecursiveAction[mNumSubspaces];
+		for ( int i = 0; i < mNumSubspaces; i++ ){
+			final int subspace = i;
+			trainings[i] = new RecursiveAction(){
+				private static final long serialVersionUID = 1L;
+				
+				protected void compute(){
+					int start = starts[subspace];
+					int length = starts[subspace+1] - start;
+					List<Clusterable> parts = new ArrayList<Clusterable>(size);
+					for ( int row = 0; row < size; row++ ){
+						float[] part = new float[length];
+						System.arraycopy(values,row*dimension + start,part,0,length);
+						parts.add(new Part(part));
+					}
+					Cluster[] clusters = mFactory.create().cluster(parts,mNumCentroids);
+					float[][] codebook = new float[clusters.length][];
+					for ( int c = 0; c < clusters.length; c++ ){
+						codebook[c] = clusters[c].getLocation().clone();
+					}
+					codebooks[subspace] = codebook;
+				}
+			};
+		}
+		ForkJoinPool.commonPool().invoke(new RecursiveAction(){
+			private static final long serialVersionUID = 1L;
+			
+			protected void compute(){
+				invokeAll(trainings);
+			}
+		});
+		mDimension = dimension;
+		mStarts = starts;
+		mCodebooks = codebooks;
+	}
+	
+	private void checkTrained(int dimension){
+		if ( mCodebooks == null ) throw new RuntimeException("The quantizer hasn't been trained");
+		if ( dimension != mDimension ){
+			throw new RuntimeException("The quantizer was trained on " + mDimension + " dimensions, not " + dimension);
+		}
+	}
+	
+	/**
+	 * Encodes every row, in parallel
+	 * 
+	 * @return The codes, getNumSubspaces() bytes per row one row after another
+	 */
+	public byte[] encode(FloatDataset data){
+		checkTrained(data.getDimension());
+		byte[] codes = new byte[data.size()*mNumSubspaces];
+		ForkJoinPool.commonPool().invoke(new EncodeTask(data.getData(),codes,0,data.size()));
+		return codes;
+	}
+	
+	private class EncodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private float[] mData;
+		private byte[] mCodes;
+		private int mStart;
+		private int mEnd;
+		
+		public EncodeTask(float[] data, byte[] codes, int start, int end){
+			mData = data;
+			mCodes = codes;
+			mStart = start;
+			mEnd = end;
+		}
+		
+		protected void compute(){
+			if ( mEnd - mStart <= PARALLEL_CHUNK_SIZE ){
+				for ( int row = mStart; row < mEnd; row++ ){
+					encode(mData,row*mDimension,mCodes,row*mNumSubspaces);
+				}
+				return;
+			}
+			int middle = (mStart + mEnd) >>> 1;
+			invokeAll(new EncodeTask(mData,mCodes,mStart,middle),new EncodeTask(mData,mCodes,middle,mEnd));
+		}
+	}
+	
+	/**
+	 * @param location - the vector to encode
+	 * @param codes - where to put its getNumSubspaces() bytes
+	 * @param offset - where in codes they go
+	 */
+	public void encode(float[] location, byte[] codes, int offset){
+		checkTrained(location.length);
+		encode(location,0,codes,offset);
+	}
+	
+	private void encode(float[] data, int dataOffset, byte[] codes, int codeOffset){
+		for ( int s = 0; s < mNumSubspaces; s++ ){
+			int start = dataOffset + mStarts[s];
+			float[][] codebook = mCodebooks[s];
+			int best = 0;
+			double bestDistance = Double.MAX_VALUE;
+			for ( int c = 0; c < codebook.length; c++ ){
+				double distance = ClusterUtils.getSquaredDistance(data,start,codebook[c],bestDistance);
+				if ( distance < bestDistance ){
+					bestDistance = distance;
+					best = c;
+				}
+			}
+			codes[codeOffset + s] = (byte)best;
+		}
+	}
+	
+	/**
+	 * Puts the centroids the code of a row stands for back together
+	 * 
+	 * @param codes
+	 * @param row - which code in codes
+	 * @param location - where the vector goes, getDimension() long
+	 */
+	public void decode(byte[] codes, int row, float[] location){
+		checkTrained(location.length);
+		int offset = row*mNumSubspaces;
+		for ( int s = 0; s < mNumSubspaces; s++ ){
+			float[] centroid = mCodebooks[s][codes[offset + s] & 0xFF];
+			System.arraycopy(centroid,0,location,mStarts[s],centroid.length);
+		}
+	}
+	
+	/**
+	 * The squared distances from the query to every centroid of every subspace,
+	 * the one to centroid c of subspace s at s*getNumCentroids() + c
+	 * 
+	 * @param table - getNumSubspaces()*getNumCentroids() long
+	 */
+	public void distanceTable(float[] query, float[] table){
+		checkTrained(query.length);
+		for ( int s = 0; s < mNumSubspaces; s++ ){
+			int start = mStarts[s];
+			float[][] codebook = mCodebooks[s];
+			for ( int c = 0; c < codebook.length; c++ ){
+				table[s*mNumCentroids + c] = (float)ClusterUtils.getSquaredDistance(query,start,codebook[c],Double.MAX_VALUE);
+			}
+		}
+	}
+	
+	/**
+	 * @param table - from {@link #distanceTable(float[], float[])}
+	 * @return The approximate squared distance from the table's query to a row's code
+	 */
+	public double distance(float[] table, byte[] codes, int row){
+		int offset = row*mNumSubspaces;
+		double distance = 0;
+		for ( int s = 0; s < mNumSubspaces; s++ ){
+			distance += table[s*mNumCentroids + (codes[offset + s] & 0xFF)];
+		}
+		return distance;
+	}
+	
+	/**
+	 * Finds the codes closest to the query by their asymmetric distances, the
+	 * results' distances are the approximate euclidean ones
+	 * 
+	 * @param query
+	 * @param codes - rows of getNumSubspaces() bytes from {@link #encode(FloatDataset)}
+	 * @param k - how many to find
+	 * @param result - gets the rows of the closest codes
+	 * @return The number found
+	 */
+	public int search(float[] query, byte[] codes, int k, Neighbors result){
+		Scratch scratch = SCRATCH.get();
+		int tableSize = mNumSubspaces*mNumCentroids;
+		if ( scratch.mTable.length < tableSize ) scratch.mTable = new float[tableSize];
+		float[] table = scratch.mTable;
+		distanceTable(query,table);
+		IntTopN top = scratch.mTop;
+		top.clear(k);
+		int numCodes = codes.length/mNumSubspaces;
+		for ( int row = 0; row < numCodes; row++ ){
+			int offset = row*mNumSubspaces;
+			double worst = top.isFull() ? top.worstPriority() : Double.MAX_VALUE;
+			double distance = 0;
+			for ( int s = 0; s < mNumSubspaces && distance < worst; s++ ){
+				distance += table[s*mNumCentroids + (codes[offset + s] & 0xFF)];
+			}
+			if ( distance < worst ) top.add(row,distance);
+		}
+		result.fill(top);
+		return result.size();
+	}
+	
+	public Neighbors search(float[] query, byte[] codes, int k){
+		Neighbors result = new Neighbors(k);
+		search(query,codes,k,result);
+		return result;
+	}
+	
+	public int getNumSubspaces(){
+		return mNumSubspaces;
+	}
+	
+	public int getNumCentroids(){
+		return mNumCentroids;
+	}
+	
+	public int getDimension(){
+		return mDimension;
+	}
+	
+	/**
+	 * @return A copy of the centroids of the subspace
+	 */
+	public float[][] getCodebook(int subspace){
+		float[][] codebook = new float[mCodebooks[subspace].length][];
+		for ( int c = 0; c < codebook.length; c++ ){
+			codebook[c] = mCodebooks[subspace][c].clone();
+		}
+		return codebook;
+	}
+	
+	/**
+	 * One subspace's part of a training vector
+	 */
+	private static class Part implements Clusterable {
+		private float[] mLocation;
+		
+		public Part(float[] location){
+			mLocation = location;
+		}
+		
+		public float[] getLocation(){
+			return mLocation;
+		}
+	}
+	
+	private static class Scratch {
+		private float[] mTable = new float[0];
+		private IntTopN mTop = new IntTopN(1);
+	}
+	
+	public static void main(String args[]){
+		Random random = new Random(1);
+		int dimensions = 64;
+		int numVectors = 100000;
+		//vectors around a few hundred centers, so there's structure to find
+		float[][] centers = new float[500][dimensions];
+		for ( float[] center : centers ){
+			for ( int d = 0; d < dimensions; d++ ){
+				center[d] = (float)random.nextGaussian()*4;
+			}
+		}
+		FloatDataset data = new FloatDataset(numVectors,dimensions);
+		for ( int i = 0; i < numVectors; i++ ){
+			float[] center = centers[random.nextInt(centers.length)];
+			for ( int d = 0; d < dimensions; d++ ){
+				data.getData()[i*dimensions + d] = center[d] + (float)random.nextGaussian();
+			}
+		}
+		FloatDataset sample = new FloatDataset(Arrays.copyOf(data.getData(),10000*dimensions),dimensions);
+		
+		ProductQuantizer quantizer = new ProductQuantizer(8,256,new KClustererFactory(){
+			public KClusterer create(){
+				return new KMeansClusterer(new DriftClusterChecker(0.01),10);
+			}
+		});
+		long start = System.currentTimeMillis();
+		quantizer.train(sample);
+		System.out.println("Trained in " + (System.currentTimeMillis() - start) + "ms");
+		start = System.currentTimeMillis();
+		byte[] codes = quantizer.encode(data);
+		System.out.println("Encoded in " + (System.currentTimeMillis() - start) + "ms, " + codes.length/1024 + "KB instead of " + 4L*data.getData().length/1024 + "KB");
+		
+		int numQueries = 100;
+		int k = 10;
+		int found = 0;
+		Neighbors neighbors = new Neighbors(k);
+		long searchTime = 0;
+		for ( int q = 0; q < numQueries; q++ ){
+			float[] query = data.getRow(random.nextInt(numVectors),null);
+			for ( int d = 0; d < dimensions; d++ ){
+				query[d] += (float)random.nextGaussian()*0.5F;
+			}
+			IntTopN exact = new IntTopN(k);
+			for ( int i = 0; i < numVectors; i++ ){
+				exact.add(i,ClusterUtils.getSquaredDistance(query,data.getRow(i,null),Double.MAX_VALUE));
+			}
+			int[] truth = new int[k];
+			exact.drainSorted(truth,new double[k]);
+			start = System.nanoTime();
+			quantizer.search(query,codes,100,neighbors);
+			searchTime += System.nanoTime() - start;
+			for ( int i = 0; i < neighbors.size(); i++ ){
+				for ( int t : truth ){
+					if ( neighbors.getIndex(i) == t ) found++;
+				}
+			}
+		}
+		System.out.println("Recall of the 10 closest in the top 100: " + (double)found/(numQueries*k) + ", " + searchTime/(1000000*numQueries) + "ms a search");
+	}
+}
@@ -0,0 +1,178 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.stromberglabs.cluster.checker.DriftClusterChecker;
+import com.stromberglabs.cluster.projection.GaussianRandomProjection;
+import com.stromberglabs.cluster.projection.Projection;
+import com.stromberglabs.cluster.Clusterable;
+
+/**
+ * Wraps another {@link KClusterer} and runs it on a lower dimensional projection
+ * of the values:
+ * 
+ * 1) Project all the values with the {@link Projection}
+ * 2) Cluster the projected values with the wrapped clusterer
+ * 3) Average the original values of each projected cluster to get centers back
+ *    in the original space, a cluster that came back empty gets the value
+ *    farthest from the centers found so far instead
+ * 4) Run a few exact Lloyd iterations in the original space from those centers
+ * 
+ * The returned clusters hold the original values and have locations in the
+ * original space, so it can be dropped in wherever the wrapped clusterer was used.
+ * 
+ * @author Andrew
+ *
+ */
+public class ProjectedKClusterer implements KClusterer {
+	public static int DEFAULT_REFINE_ITERATIONS = 3;
+	
+	private KClusterer mClusterer;
+	private Projection mProjection;
+	private int mRefineIterations;
+	
+	public ProjectedKClusterer(KClusterer clusterer, Projection projection){
+		this(clusterer,projection,DEFAULT_REFINE_ITERATIONS);
+	}
+	
+	/**
+	 * @param clusterer - does the clustering in the projected space
+	 * @param projection - how to get to the projected space
+	 * @param refineIterations - max number of exact iterations in the original space,
+	 * 			0 means just hand back the projected clustering's assignments
+	 */
+	public ProjectedKClusterer(KClusterer clusterer, Projection projection, int refineIterations){
+		mClusterer = clusterer;
+		mProjection = projection;
+		mRefineIterations = refineIterations;
+	}
+	
+	public Cluster[] cluster(final List<? extends Clusterable> values, int numClusters) {
+		mProjection.fit(values);
+		List<ProjectedValue> projected = new ArrayList<ProjectedValue>(values.size());
+		for ( int i = 0; i < values.size(); i++ ){
+			projected.add(new ProjectedValue(mProjection.project(values.get(i).getLocation()),i));
+		}
+		
+		Cluster[] projectedClusters = mClusterer.cluster(projected,numClusters);
+		float[][] centers = new float[projectedClusters.length][];
+		int[] labels = new int[values.size()];
+		for ( int i = 0; i < projectedClusters.length; i++ ){
+			List<Clusterable> items = projectedClusters[i].getItems();
+			if ( items.size() > 0 ){
+				List<Clusterable> originals = new ArrayList<Clusterable>(items.size());
+				for ( Clusterable item : items ){
+					int index = ((ProjectedValue)item).mIndex;
+					originals.add(values.get(index));
+					labels[index] = i;
+				}
+				centers[i] = Cluster.getMeanValue(originals);
+			}
+		}
+		
+		//nothing to average for an empty cluster and no way back from its projected
+		//center, so it takes the value farthest from every center so far, so two
+		//empty clusters don't both go to the same far off group
+		double[] distances = null;
+		for ( int i = 0; i < centers.length; i++ ){
+			if ( centers[i] != null ) continue;
+			if ( distances == null ){
+				distances = new double[values.size()];
+				for ( int j = 0; j < distances.length; j++ ){
+					float[] center = centers[labels[j]];
+					distances[j] = center == null ? -1 : ClusterUtils.getEuclideanDistance(values.get(j).getLocation(),center);
+				}
+			}
+			int farthest = 0;
+			for ( int j = 1; j < distances.length; j++ ){
+				if ( distances[j] > distances[farthest] ) farthest = j;
+			}
+			centers[i] = values.get(farthest).getLocation().clone();
+			for ( int j = 0; j < distances.length; j++ ){
+				double distance = ClusterUtils.getEuclideanDistance(values.get(j).getLocation(),centers[i]);
+				if ( distances[j] < 0 || distance < distances[j] ) distances[j] = distance;
+			}
+		}
+		
+		if ( mRefineIterations > 0 ){
+			AbstractKClusterer refiner = new KMeansClusterer(new DriftClusterChecker(AbstractKClusterer.DISTANCE_TOLERANCE),mRefineIterations);
+			return refiner.cluster(values,centers);
+		}
+		
+		Cluster[] clusters = new Cluster[projectedClusters.length];
+		for ( int i = 0; i < projectedClusters.length; i++ ){
+			clusters[i] = new Cluster(centers[i],i);
+			for ( Clusterable item : projectedClusters[i].getItems() ){
+				clusters[i].addItem(values.get(((ProjectedValue)item).mIndex));
+			}
+		}
+		return clusters;
+	}
+	
+	/**
+	 * A value in the projected space that remembers which original value it came from
+	 */
+	private static class ProjectedValue implements Clusterable {
+		private float[] mLocation;
+		private int mIndex;
+		
+		public ProjectedValue(float[] location, int index){
+			mLocation = location;
+			mIndex = index;
+		}
+		
+		public float[] getLocation(){
+			return mLocation;
+		}
+	}
+	
+	public static void main(String args[]){
+		Random random = new Random(System.currentTimeMillis());
+		int numPoints = 10000;
+		int dimensions = 128;
+		List<Clusterable> points = new ArrayList<Clusterable>(numPoints);
+		for ( int i = 0; i < numPoints; i++ ){
+			final float[] location = new float[dimensions];
+			for ( int j = 0; j < dimensions; j++ ){
+				location[j] = random.nextInt(1000) - 500;
+			}
+			points.add(new Clusterable(){
+				public float[] getLocation(){ return location; }
+			});
+		}
+		KClusterer clusterer = new ProjectedKClusterer(new KMeansClusterer(),new GaussianRandomProjection(16,1));
+		Cluster[] clusters = clusterer.cluster(points,10);
+		for ( Cluster c : clusters ){
+			System.out.println(c.getId() + "," + c.getItems().size());
+		}
+	}
+}
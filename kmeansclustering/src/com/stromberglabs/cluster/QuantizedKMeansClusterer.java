@@ -0,0 +1,142 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.stromberglabs.cluster.checker.ClusterChecker;
+import com.stromberglabs.cluster.Clusterable;
+import com.stromberglabs.data.QuantizedDataset;
+import com.stromberglabs.data.QuantizedDataset.Centers;
+import com.stromberglabs.data.QuantizedDataset.Encoding;
+
+/**
+ * A Lloyd's k-means clusterer that does its assignments over a
+ * {@link QuantizedDataset} instead of the original floats. Only the points whose
+ * closest center can't be told apart from the second closest given the
+ * quantization error get compared with their exact values. The items added to
+ * the clusters are the original values, so the new centers are computed at full
+ * precision and come out the same as with {@link KMeansClusterer}.
+ * 
+ * The original values are still needed for that, so this doesn't save any memory,
+ * the codes are just a lot smaller to go through every iteration. They're made
+ * at the start of each run and dropped when it ends.
+ * 
+ * @author Andrew
+ *
+ */
+public class QuantizedKMeansClusterer extends AbstractKClusterer {
+	private Encoding mEncoding;
+	private int mExactChecks;
+	
+	public QuantizedKMeansClusterer(){
+		this(Encoding.INT8);
+	}
+	
+	public QuantizedKMeansClusterer(Encoding encoding){
+		super();
+		mEncoding = encoding;
+	}
+	
+	public QuantizedKMeansClusterer(Encoding encoding, ClusterChecker checker, int maxRecluster){
+		super(checker,maxRecluster);
+		mEncoding = encoding;
+	}
+	
+	protected Cluster[] assignClusters(Cluster[] clusters, final List<? extends Clusterable> values, ClusteringRun run){
+		//the values don't change between iterations, so they only get encoded once per run
+		EncodedRun encoded = (EncodedRun)run.getState();
+		if ( encoded == null ){
+			encoded = new EncodedRun(QuantizedDataset.encode(values,mEncoding));
+			run.setState(encoded);
+		}
+		
+		float[][] centers = new float[clusters.length][];
+		for ( int i = 0; i < clusters.length; i++ ){
+			centers[i] = clusters[i].getLocation();
+		}
+		Centers prepared = encoded.mDataset.prepare(centers);
+		
+		for ( int j = 0; j < values.size(); j++ ){
+			if ( j % CANCEL_CHECK_INTERVAL == 0 && run.isCancelled() ) break;
+			Clusterable val = values.get(j);
+			int nearest = encoded.mDataset.approximateNearest(j,prepared);
+			if ( nearest == -1 ){
+				nearest = ClusterUtils.getNearestIndex(val.getLocation(),centers);
+				encoded.mExactChecks++;
+			}
+			clusters[nearest].addItem(val);
+		}
+		mExactChecks = encoded.mExactChecks;
+		return clusters;
+	}
+	
+	protected Cluster[] getNewClusters(Cluster[] clusters){
+		for ( int i = 0; i < clusters.length; i++ ){
+			if ( clusters[i].getItems().size() > 0 )
+				clusters[i] = new Cluster(clusters[i].getClusterMean(),i);
+		}
+		return clusters;
+	}
+	
+	/**
+	 * @return How many points had to be compared with their exact values during
+	 * the last run, summed over all of its iterations
+	 */
+	public int getExactCheckCount(){
+		return mExactChecks;
+	}
+	
+	private static class EncodedRun {
+		private QuantizedDataset mDataset;
+		private int mExactChecks;
+		
+		private EncodedRun(QuantizedDataset dataset){
+			mDataset = dataset;
+		}
+	}
+	
+	public static void main(String args[]){
+		Random random = new Random(System.currentTimeMillis());
+		int numPoints = 10000;
+		List<Clusterable> points = new ArrayList<Clusterable>(numPoints);
+		for ( int i = 0; i < numPoints; i++ ){
+			int x = random.nextInt(1000) - 500;
+			int y = random.nextInt(1000) - 500;
+			points.add(new Point((float)x,(float)y));
+		}
+		QuantizedKMeansClusterer clusterer = new QuantizedKMeansClusterer();
+		Cluster[] clusters = clusterer.cluster(points,10);
+		for ( Cluster c : clusters ){
+			System.out.println(c.getId() + "," + c.getItems().size());
+		}
+		System.out.println("exact checks: " + clusterer.getExactCheckCount());
+	}
+}
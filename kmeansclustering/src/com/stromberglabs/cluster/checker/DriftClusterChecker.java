@@ -27,6 +27,8 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.stromberglabs.cluster.checker;
 
+import java.io.Serializable;
+
 import com.stromberglabs.cluster.Cluster;
 import com.stromberglabs.cluster.ClusterUtils;
 
@@ -37,7 +39,8 @@ import com.stromberglabs.cluster.ClusterUtils;
  * @author Andrew
  *
  */
-public class DriftClusterChecker implements ClusterChecker {
+public class DriftClusterChecker implements ClusterChecker, Serializable {
+	private static final long serialVersionUID = 1L;
 	
 	private double mDriftTolerance;
 	
@@ -47,7 +50,7 @@ public class DriftClusterChecker implements ClusterChecker {
 	
 	public boolean recalculateClusters(Cluster[] clusters) {
 		for ( Cluster cluster : clusters ){
-			if ( cluster.getItems().size() > 0 ){
+			if ( cluster.getItemCount() > 0 ){
 				double distanceChange = ClusterUtils.getEuclideanDistance(cluster.getClusterMean(),cluster.getLocation());
 				if ( distanceChange > mDriftTolerance ){
 					return true;
@@ -27,6 +27,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.stromberglabs.cluster.checker;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -42,7 +43,8 @@ import com.stromberglabs.cluster.Cluster;
  * @author Andrew
  *
  */
-public class ShiftCountClusterChecker implements ClusterChecker {
+public class ShiftCountClusterChecker implements ClusterChecker, Serializable {
+	private static final long serialVersionUID = 1L;
 	Map<Integer,Integer> mPreviousCounts = new HashMap<Integer, Integer>();
 	
 	private float mPercentChange;
@@ -56,7 +58,7 @@ public class ShiftCountClusterChecker implements ClusterChecker {
 	public boolean recalculateClusters(Cluster[] clusters) {
 		Map<Integer,Integer> newCounts = new HashMap<Integer, Integer>();
 		for ( Cluster c : clusters ) {
-			newCounts.put(c.getId(),c.getItems().size());
+			newCounts.put(c.getId(),c.getItemCount());
 		}
 		
 		for ( Integer id : newCounts.keySet() ){
@@ -0,0 +1,329 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.stromberglabs.cluster.AbstractIterativeClusterer;
+import com.stromberglabs.cluster.AbstractKClusterer;
+import com.stromberglabs.cluster.CancellationToken;
+import com.stromberglabs.cluster.Checkpoint;
+import com.stromberglabs.cluster.Cluster;
+import com.stromberglabs.cluster.ClusteringResult;
+import com.stromberglabs.cluster.ClusteringRun;
+import com.stromberglabs.cluster.PartialSums;
+import com.stromberglabs.cluster.checker.ClusterChecker;
+import com.stromberglabs.cluster.checker.DriftClusterChecker;
+import com.stromberglabs.data.FloatDataset;
+import com.stromberglabs.data.RawFloatChunkSource;
+
+/**
+ * <pre>
+ * Runs k-means over data split between several {@link PartitionWorker}s, each
+ * one usually its own process with its own heap and cores. It's the same loop
+ * as {@link AbstractKClusterer}, so it checkpoints and cancels the same way:
+ * 
+ * 1) Pick the initial centers, at random out of a sample from every worker
+ * 2) Send the centers to every worker, they all assign their partitions at the
+ *    same time and send back their {@link PartialSums}
+ * 3) Merge the sums into the clusters and ask the {@link ClusterChecker} whether
+ *    to go again
+ *    - If yes, move the centers to the means and go to 2)
+ *    - If no, tell the workers to stop and return the clusters
+ * 
+ * The workers connect to the coordinator's server socket, which makes it easy
+ * to start them anywhere, including as threads or processes on the same
+ * machine. Like the out of core clusterer the clusters come back with counts
+ * and means but no items, those stay with the workers. A cancelled run stops
+ * once the pass the workers are on comes back.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class PartitionCoordinator extends AbstractIterativeClusterer {
+	public static int ACCEPT_TIMEOUT = 60000;
+	//how long to wait on a worker's answer, a pass over a big partition can take a while
+	public static int READ_TIMEOUT = 600000;
+	
+	private int mNumPasses;
+	
+	public PartitionCoordinator(){
+		this(new DriftClusterChecker(AbstractKClusterer.DISTANCE_TOLERANCE),AbstractKClusterer.MAX_RECLUSTERING);
+	}
+	
+	public PartitionCoordinator(ClusterChecker checker, int maxReclustering){
+		super(checker,maxReclustering);
+	}
+	
+	/**
+	 * Waits for the workers to connect and clusters their data, starting from
+	 * rows picked at random out of samples from all of them
+	 * 
+	 * @param server - where the workers connect
+	 * @param numWorkers - how many to wait for
+	 * @param numClusters
+	 */
+	public Cluster[] cluster(ServerSocket server, int numWorkers, int numClusters) throws IOException {
+		return cluster(server,numWorkers,numClusters,null).getClusters();
+	}
+	
+	/**
+	 * Same as {@link #cluster(ServerSocket, int, int)}, but gives up once the
+	 * token is cancelled
+	 * @param server
+	 * @param numWorkers
+	 * @param numClusters
+	 * @param token - null if it can't be cancelled
+	 */
+	public ClusteringResult cluster(ServerSocket server, int numWorkers, int numClusters, CancellationToken token) throws IOException {
+		List<Worker> workers = accept(server,numWorkers);
+		try {
+			List<float[]> sample = new ArrayList<float[]>();
+			for ( Worker worker : workers ){
+				worker.mOut.writeInt(Protocol.SAMPLE);
+				worker.mOut.writeInt(numClusters);
+				worker.mOut.flush();
+			}
+			for ( Worker worker : workers ){
+				Protocol.readStatus(worker.mIn,worker.toString());
+				for ( float[] row : Protocol.readRows(worker.mIn) ){
+					sample.add(row);
+				}
+			}
+			if ( sample.size() < numClusters ){
+				throw new RuntimeException("The workers only have " + sample.size() + " rows to start " + numClusters + " clusters from");
+			}
+			Random random = new Random(1);
+			float[][] centers = new float[numClusters][];
+			for ( int i = 0; i < numClusters; i++ ){
+				centers[i] = sample.remove(random.nextInt(sample.size()));
+			}
+			return iterate(workers,centers,0,token);
+		} finally {
+			stop(workers);
+		}
+	}
+	
+	/**
+	 * @param server - where the workers connect
+	 * @param numWorkers - how many to wait for
+	 * @param initialCenters - one location per cluster
+	 */
+	public Cluster[] cluster(ServerSocket server, int numWorkers, float[][] initialCenters) throws IOException {
+		return cluster(server,numWorkers,initialCenters,null).getClusters();
+	}
+	
+	public ClusteringResult cluster(ServerSocket server, int numWorkers, float[][] initialCenters, CancellationToken token) throws IOException {
+		return cluster(server,numWorkers,initialCenters,0,token);
+	}
+	
+	/**
+	 * Carries on a run from a checkpoint, the workers have to have the same data
+	 * @param server - where the workers connect
+	 * @param numWorkers - how many to wait for
+	 * @param checkpoint
+	 */
+	public Cluster[] resume(ServerSocket server, int numWorkers, File checkpoint) throws IOException {
+		Checkpoint saved = readCheckpoint(checkpoint);
+		return cluster(server,numWorkers,saved.getCenters(),saved.getIteration(),null).getClusters();
+	}
+	
+	private ClusteringResult cluster(ServerSocket server, int numWorkers, float[][] initialCenters, int numIterations, CancellationToken token) throws IOException {
+		List<Worker> workers = accept(server,numWorkers);
+		try {
+			return iterate(workers,initialCenters,numIterations,token);
+		} finally {
+			stop(workers);
+		}
+	}
+	
+	private List<Worker> accept(ServerSocket server, int numWorkers) throws IOException {
+		server.setSoTimeout(ACCEPT_TIMEOUT);
+		List<Worker> workers = new ArrayList<Worker>();
+		try {
+			for ( int i = 0; i < numWorkers; i++ ){
+				Worker worker = new Worker(server.accept());
+				workers.add(worker);
+				if ( worker.mDimension != workers.get(0).mDimension ){
+					throw new RuntimeException("Worker " + worker + " has " + worker.mDimension + " dimensions, " + workers.get(0) + " has " + workers.get(0).mDimension);
+				}
+			}
+		} catch ( IOException e ){
+			stop(workers);
+			throw e;
+		} catch ( RuntimeException e ){
+			stop(workers);
+			throw e;
+		}
+		return workers;
+	}
+	
+	private ClusteringResult iterate(final List<Worker> workers, float[][] initialCenters, int numIterations, CancellationToken token) throws IOException {
+		final int dimension = workers.get(0).mDimension;
+		for ( int i = 0; i < initialCenters.length; i++ ){
+			//anything else would get the stream out of step with what the workers read
+			if ( initialCenters[i].length != dimension ){
+				throw new RuntimeException("Center " + i + " has " + initialCenters[i].length + " dimensions, the workers' rows have " + dimension);
+			}
+		}
+		mNumPasses = 0;
+		return iterate(new SumsSource(){
+			public PartialSums getSums(float[][] centers, ClusteringRun run) throws IOException {
+				for ( Worker worker : workers ){
+					worker.mOut.writeInt(Protocol.ASSIGN);
+					Protocol.writeRows(worker.mOut,centers,dimension);
+					worker.mOut.flush();
+				}
+				PartialSums sums = new PartialSums(centers.length,dimension);
+				for ( Worker worker : workers ){
+					Protocol.readStatus(worker.mIn,worker.toString());
+					sums.merge(PartialSums.read(worker.mIn));
+				}
+				mNumPasses++;
+				return sums;
+			}
+		},initialCenters,numIterations,token);
+	}
+	
+	private static void stop(List<Worker> workers){
+		for ( Worker worker : workers ){
+			try {
+				worker.mOut.writeInt(Protocol.STOP);
+				worker.mOut.flush();
+			} catch ( IOException e ){
+				//it's gone already
+			}
+			try {
+				worker.mSocket.close();
+			} catch ( IOException e ){
+			}
+		}
+	}
+	
+	/**
+	 * @return The number of passes over the data the last run took
+	 */
+	public int getNumPasses(){
+		return mNumPasses;
+	}
+	
+	/**
+	 * The coordinator's end of one worker's connection
+	 */
+	private static class Worker {
+		private Socket mSocket;
+		private DataInputStream mIn;
+		private DataOutputStream mOut;
+		private int mDimension;
+		private long mRows;
+		
+		public Worker(Socket socket) throws IOException {
+			mSocket = socket;
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(READ_TIMEOUT);
+			mIn = new DataInputStream(new BufferedInputStream(socket.getInputStream(),1 << 16));
+			mOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),1 << 16));
+			if ( mIn.readInt() != Protocol.MAGIC ){
+				socket.close();
+				throw new RuntimeException("Something that isn't a worker connected from " + socket.getRemoteSocketAddress());
+			}
+			int version = mIn.readInt();
+			if ( version != Protocol.VERSION ){
+				socket.close();
+				throw new RuntimeException("Worker at " + socket.getRemoteSocketAddress() + " speaks version " + version + ", not " + Protocol.VERSION);
+			}
+			mDimension = mIn.readInt();
+			mRows = mIn.readLong();
+		}
+		
+		public String toString(){
+			if ( mRows < 0 ) return String.valueOf(mSocket.getRemoteSocketAddress());
+			return mSocket.getRemoteSocketAddress() + " (" + mRows + " rows)";
+		}
+	}
+	
+	/**
+	 * Splits some data between worker processes on this machine and clusters it
+	 */
+	public static void main(String args[]) throws Exception {
+		Random random = new Random(1);
+		int numWorkers = 3;
+		int rowsPerWorker = 200000;
+		int dimensions = 16;
+		float[][] centers = new float[40][dimensions];
+		for ( float[] center : centers ){
+			for ( int d = 0; d < dimensions; d++ ){
+				center[d] = (float)random.nextGaussian()*5;
+			}
+		}
+		ServerSocket server = new ServerSocket(0);
+		List<Process> processes = new ArrayList<Process>();
+		for ( int w = 0; w < numWorkers; w++ ){
+			FloatDataset partition = new FloatDataset(rowsPerWorker,dimensions);
+			for ( int i = 0; i < rowsPerWorker; i++ ){
+				float[] center = centers[random.nextInt(centers.length)];
+				for ( int d = 0; d < dimensions; d++ ){
+					partition.getData()[i*dimensions + d] = center[d] + (float)random.nextGaussian();
+				}
+			}
+			File file = File.createTempFile("partition",".f32");
+			file.deleteOnExit();
+			RawFloatChunkSource.write(partition,file);
+			ProcessBuilder builder = new ProcessBuilder(new File(System.getProperty("java.home"),"bin/java").getPath(),
+				"-cp",System.getProperty("java.class.path"),PartitionWorker.class.getName(),
+				"localhost",String.valueOf(server.getLocalPort()),"raw",file.getPath(),String.valueOf(dimensions));
+			builder.redirectErrorStream(true);
+			builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+			processes.add(builder.start());
+		}
+		PartitionCoordinator coordinator = new PartitionCoordinator(new DriftClusterChecker(0.01),50);
+		long start = System.currentTimeMillis();
+		Cluster[] clusters = coordinator.cluster(server,numWorkers,centers.length);
+		long time = System.currentTimeMillis() - start;
+		server.close();
+		for ( Process process : processes ){
+			process.waitFor();
+		}
+		long total = 0;
+		for ( Cluster cluster : clusters ){
+			total += cluster.getItemCount();
+		}
+		System.out.println(coordinator.getNumPasses() + " passes over " + total + " rows in " + numWorkers + " workers, " + time + "ms");
+	}
+}
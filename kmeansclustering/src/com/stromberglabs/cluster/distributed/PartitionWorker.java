@@ -0,0 +1,197 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Random;
+
+import com.stromberglabs.cluster.PartialSums;
+import com.stromberglabs.data.ChunkSource;
+import com.stromberglabs.data.RawFloatChunkSource;
+import com.stromberglabs.io.VecsChunkSource;
+import com.stromberglabs.io.VecsFile;
+
+/**
+ * <pre>
+ * One partition of the data for a {@link PartitionCoordinator}. It connects to
+ * the coordinator, and every time it gets centers it makes a pass over its
+ * partition, assigning a chunk at a time, and sends back the sums and counts of
+ * the rows that went to each center, see {@link PartialSums}. The rows never
+ * leave the worker, only k*d sums per iteration.
+ * 
+ * Run it in its own process with:
+ * 
+ * java com.stromberglabs.cluster.distributed.PartitionWorker host port fvecs|bvecs|raw file [dimension]
+ * 
+ * where raw files are rows of little endian floats and need the dimension, or
+ * make one and call {@link #run()} on a thread.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class PartitionWorker implements Runnable {
+	public static int DEFAULT_CHUNK_ROWS = 65536;
+	
+	private ChunkSource mPartition;
+	private String mHost;
+	private int mPort;
+	private int mChunkRows;
+	
+	public PartitionWorker(ChunkSource partition, String host, int port){
+		this(partition,host,port,DEFAULT_CHUNK_ROWS);
+	}
+	
+	/**
+	 * @param partition - this worker's rows
+	 * @param host - where the coordinator is
+	 * @param port
+	 * @param chunkRows - how many rows to assign at a time
+	 */
+	public PartitionWorker(ChunkSource partition, String host, int port, int chunkRows){
+		mPartition = partition;
+		mHost = host;
+		mPort = port;
+		mChunkRows = chunkRows;
+	}
+	
+	public void run(){
+		try {
+			serve();
+		} catch ( IOException e ){
+			throw new RuntimeException("Lost the coordinator at " + mHost + ":" + mPort,e);
+		}
+	}
+	
+	/**
+	 * Answers the coordinator until it says to stop
+	 */
+	public void serve() throws IOException {
+		int dimension = mPartition.getDimension();
+		float[] chunk = new float[mChunkRows*dimension];
+		Socket socket = new Socket(mHost,mPort);
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(),1 << 16));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),1 << 16));
+			out.writeInt(Protocol.MAGIC);
+			out.writeInt(Protocol.VERSION);
+			out.writeInt(dimension);
+			out.writeLong(mPartition.getNumRows());
+			out.flush();
+			while ( true ){
+				int command = in.readInt();
+				if ( command == Protocol.STOP ) return;
+				try {
+					if ( command == Protocol.ASSIGN ){
+						float[][] centers = Protocol.readRows(in);
+						PartialSums sums = assign(centers,chunk);
+						out.writeInt(Protocol.OK);
+						sums.write(out);
+					} else if ( command == Protocol.SAMPLE ){
+						float[][] rows = sample(in.readInt(),chunk);
+						out.writeInt(Protocol.OK);
+						Protocol.writeRows(out,rows,dimension);
+					} else {
+						throw new RuntimeException("Unknown command " + command);
+					}
+				} catch ( RuntimeException e ){
+					out.writeInt(Protocol.FAILED);
+					out.writeUTF(String.valueOf(e.getMessage()));
+				}
+				out.flush();
+			}
+		} finally {
+			socket.close();
+		}
+	}
+	
+	private PartialSums assign(float[][] centers, float[] chunk) throws IOException {
+		int dimension = mPartition.getDimension();
+		if ( centers.length > 0 && centers[0].length != dimension ){
+			throw new RuntimeException("Got centers of " + centers[0].length + " dimensions for rows of " + dimension);
+		}
+		PartialSums sums = new PartialSums(centers.length,dimension);
+		mPartition.reset();
+		int rows;
+		while ( (rows = mPartition.read(chunk)) > 0 ){
+			sums.add(chunk,rows,centers);
+		}
+		return sums;
+	}
+	
+	/**
+	 * Up to count different rows picked at random out of the first chunk
+	 */
+	private float[][] sample(int count, float[] chunk) throws IOException {
+		int dimension = mPartition.getDimension();
+		mPartition.reset();
+		int rows = mPartition.read(chunk);
+		count = Math.min(count,rows);
+		//a partial shuffle of the row numbers
+		int[] order = new int[rows];
+		for ( int i = 0; i < rows; i++ ){
+			order[i] = i;
+		}
+		Random random = new Random(1);
+		float[][] sample = new float[count][dimension];
+		for ( int i = 0; i < count; i++ ){
+			int j = i + random.nextInt(rows - i);
+			int row = order[j];
+			order[j] = order[i];
+			order[i] = row;
+			System.arraycopy(chunk,row*dimension,sample[i],0,dimension);
+		}
+		return sample;
+	}
+	
+	public static void main(String args[]) throws IOException {
+		if ( args.length < 4 ){
+			System.err.println("Usage: PartitionWorker host port fvecs|bvecs|raw file [dimension]");
+			System.exit(1);
+		}
+		File file = new File(args[3]);
+		ChunkSource partition;
+		if ( args[2].equals("raw") ){
+			partition = new RawFloatChunkSource(file,Integer.parseInt(args[4]));
+		} else {
+			partition = new VecsChunkSource(file,VecsFile.Type.valueOf(args[2].toUpperCase()));
+		}
+		try {
+			new PartitionWorker(partition,args[0],Integer.parseInt(args[1])).serve();
+		} finally {
+			partition.close();
+		}
+	}
+}
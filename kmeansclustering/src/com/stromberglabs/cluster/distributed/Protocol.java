@@ -0,0 +1,98 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster.distributed;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * <pre>
+ * What the coordinator and the workers say to each other over their socket,
+ * all of it through DataInput and DataOutput so it's big endian:
+ * 
+ * worker:      MAGIC, VERSION, dimension, rows (long)    once, on connecting, -1 rows if it doesn't know
+ * coordinator: ASSIGN, then the centers                   every iteration
+ * worker:      OK and its {@link com.stromberglabs.cluster.PartialSums}
+ * coordinator: SAMPLE, how many rows                      to pick starting centers
+ * worker:      OK, how many rows, then the rows
+ * coordinator: STOP                                       the worker hangs up
+ * 
+ * A worker that fails answers FAILED and a message instead of OK.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+class Protocol {
+	static final int MAGIC = 0x4B4D5057;
+	static final int VERSION = 1;
+	
+	static final int ASSIGN = 1;
+	static final int SAMPLE = 2;
+	static final int STOP = 3;
+	
+	static final int OK = 0;
+	static final int FAILED = 1;
+	
+	/**
+	 * Writes the number of rows and dimensions and then the rows
+	 */
+	static void writeRows(DataOutput out, float[][] rows, int dimension) throws IOException {
+		out.writeInt(rows.length);
+		out.writeInt(dimension);
+		for ( float[] row : rows ){
+			for ( float value : row ){
+				out.writeFloat(value);
+			}
+		}
+	}
+	
+	static float[][] readRows(DataInput in) throws IOException {
+		float[][] rows = new float[in.readInt()][in.readInt()];
+		for ( float[] row : rows ){
+			for ( int d = 0; d < row.length; d++ ){
+				row[d] = in.readFloat();
+			}
+		}
+		return rows;
+	}
+	
+	/**
+	 * Reads the OK or FAILED that starts a worker's answer
+	 */
+	static void readStatus(DataInput in, String worker) throws IOException {
+		int status = in.readInt();
+		if ( status == FAILED ){
+			throw new RuntimeException("Worker " + worker + " failed: " + in.readUTF());
+		}
+		if ( status != OK ){
+			throw new RuntimeException("Worker " + worker + " sent " + status + " instead of a status");
+		}
+	}
+}
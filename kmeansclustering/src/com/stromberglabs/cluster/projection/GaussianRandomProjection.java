@@ -0,0 +1,88 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster.projection;
+
+import java.util.List;
+import java.util.Random;
+
+import com.stromberglabs.cluster.Clusterable;
+
+/**
+ * Projects points by multiplying them with a matrix of gaussian random values.
+ * By Johnson-Lindenstrauss this roughly keeps the distances between points, and
+ * it doesn't have to look at the data at all to set itself up, so it's about as
+ * cheap as a reduction can get.
+ * 
+ * @author Andrew
+ *
+ */
+public class GaussianRandomProjection implements Projection {
+	private int mDimension;
+	private long mSeed;
+	private float[][] mMatrix;
+	
+	/**
+	 * @param dimension - number of dimensions to project down to
+	 * @param seed - seed for the random matrix, the same seed gives the same projection
+	 */
+	public GaussianRandomProjection(int dimension, long seed){
+		mDimension = dimension;
+		mSeed = seed;
+	}
+	
+	public void fit(List<? extends Clusterable> values){
+		int inputDimension = values.get(0).getLocation().length;
+		Random random = new Random(mSeed);
+		//scaled so the expected squared length of a projected vector matches the original
+		double scale = 1.0/Math.sqrt(mDimension);
+		mMatrix = new float[mDimension][inputDimension];
+		for ( int i = 0; i < mDimension; i++ ){
+			for ( int j = 0; j < inputDimension; j++ ){
+				mMatrix[i][j] = (float)(random.nextGaussian()*scale);
+			}
+		}
+	}
+	
+	public int getDimension(){
+		return mDimension;
+	}
+	
+	public float[] project(float[] location){
+		if ( mMatrix == null ) throw new RuntimeException("Projection has to be fit before it can project anything");
+		float[] projected = new float[mDimension];
+		for ( int i = 0; i < mDimension; i++ ){
+			float[] row = mMatrix[i];
+			double sum = 0;
+			for ( int j = 0; j < row.length; j++ ){
+				sum += row[j]*location[j];
+			}
+			projected[i] = (float)sum;
+		}
+		return projected;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster.projection;
+
+import java.util.List;
+
+import com.stromberglabs.cluster.Clusterable;
+
+/**
+ * Maps points into a space with fewer dimensions so the expensive part of the
+ * clustering can happen there. Implementations get to look at the data once
+ * through {@link #fit(List)} before any points are projected.
+ * 
+ * @author Andrew
+ *
+ */
+public interface Projection {
+	
+	/**
+	 * Sets up the projection for the given values, at the very least this tells
+	 * it how many dimensions the input has
+	 * 
+	 * @param values
+	 */
+	public void fit(List<? extends Clusterable> values);
+	
+	/**
+	 * @return The number of dimensions in the projected space
+	 */
+	public int getDimension();
+	
+	/**
+	 * Projects a location from the original space into the reduced space
+	 * 
+	 * @param location
+	 * @return
+	 */
+	public float[] project(float[] location);
+}
@@ -0,0 +1,174 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.cluster.projection;
+
+import java.util.List;
+import java.util.Random;
+
+import com.stromberglabs.cluster.Clusterable;
+
+/**
+ * Projects points onto the top principal components of the data. The components
+ * are found with block power iteration: each pass streams over the values once
+ * and only keeps a dimensions x components block around, so it never builds the
+ * full covariance matrix, which matters when there are 960 dimensions.
+ * 
+ * @author Andrew
+ *
+ */
+public class StreamingPCAProjection implements Projection {
+	public static int DEFAULT_PASSES = 4;
+	
+	private int mDimension;
+	private int mNumPasses;
+	private long mSeed;
+	private double[] mMean;
+	private double[][] mComponents;
+	
+	public StreamingPCAProjection(int dimension){
+		this(dimension,DEFAULT_PASSES,1);
+	}
+	
+	/**
+	 * @param dimension - number of components to keep
+	 * @param numPasses - number of power iterations, each one is a pass over the data
+	 * @param seed - seed for the random starting block
+	 */
+	public StreamingPCAProjection(int dimension, int numPasses, long seed){
+		mDimension = dimension;
+		mNumPasses = numPasses;
+		mSeed = seed;
+	}
+	
+	public void fit(List<? extends Clusterable> values){
+		int inputDimension = values.get(0).getLocation().length;
+		if ( mDimension > inputDimension ){
+			throw new RuntimeException("Can't keep " + mDimension + " components of " + inputDimension + " dimensional data");
+		}
+		
+		mMean = new double[inputDimension];
+		for ( Clusterable value : values ){
+			float[] location = value.getLocation();
+			for ( int i = 0; i < inputDimension; i++ ){
+				mMean[i] += location[i];
+			}
+		}
+		for ( int i = 0; i < inputDimension; i++ ){
+			mMean[i] /= values.size();
+		}
+		
+		Random random = new Random(mSeed);
+		double[][] components = new double[mDimension][inputDimension];
+		for ( int i = 0; i < mDimension; i++ ){
+			for ( int j = 0; j < inputDimension; j++ ){
+				components[i][j] = random.nextGaussian();
+			}
+		}
+		orthonormalize(components);
+		
+		double[] centered = new double[inputDimension];
+		double[] coefficients = new double[mDimension];
+		for ( int pass = 0; pass < mNumPasses; pass++ ){
+			//accumulates C * Q where C is the covariance, without ever forming C
+			double[][] next = new double[mDimension][inputDimension];
+			for ( Clusterable value : values ){
+				float[] location = value.getLocation();
+				for ( int j = 0; j < inputDimension; j++ ){
+					centered[j] = location[j] - mMean[j];
+				}
+				for ( int i = 0; i < mDimension; i++ ){
+					double dot = 0;
+					double[] component = components[i];
+					for ( int j = 0; j < inputDimension; j++ ){
+						dot += centered[j]*component[j];
+					}
+					coefficients[i] = dot;
+				}
+				for ( int i = 0; i < mDimension; i++ ){
+					double coefficient = coefficients[i];
+					double[] row = next[i];
+					for ( int j = 0; j < inputDimension; j++ ){
+						row[j] += coefficient*centered[j];
+					}
+				}
+			}
+			orthonormalize(next);
+			components = next;
+		}
+		mComponents = components;
+	}
+	
+	/**
+	 * Modified Gram-Schmidt over the rows, a row that collapses to nothing gets
+	 * left as zeros and simply projects everything to 0
+	 * @param rows
+	 */
+	private static void orthonormalize(double[][] rows){
+		for ( int i = 0; i < rows.length; i++ ){
+			double[] row = rows[i];
+			for ( int k = 0; k < i; k++ ){
+				double[] previous = rows[k];
+				double dot = 0;
+				for ( int j = 0; j < row.length; j++ ){
+					dot += row[j]*previous[j];
+				}
+				for ( int j = 0; j < row.length; j++ ){
+					row[j] -= dot*previous[j];
+				}
+			}
+			double norm = 0;
+			for ( int j = 0; j < row.length; j++ ){
+				norm += row[j]*row[j];
+			}
+			norm = Math.sqrt(norm);
+			if ( norm > 0 ){
+				for ( int j = 0; j < row.length; j++ ){
+					row[j] /= norm;
+				}
+			}
+		}
+	}
+	
+	public int getDimension(){
+		return mDimension;
+	}
+	
+	public float[] project(float[] location){
+		if ( mComponents == null ) throw new RuntimeException("Projection has to be fit before it can project anything");
+		float[] projected = new float[mDimension];
+		for ( int i = 0; i < mDimension; i++ ){
+			double[] component = mComponents[i];
+			double sum = 0;
+			for ( int j = 0; j < component.length; j++ ){
+				sum += component[j]*(location[j] - mMean[j]);
+			}
+			projected[i] = (float)sum;
+		}
+		return projected;
+	}
+}
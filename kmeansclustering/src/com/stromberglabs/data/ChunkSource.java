@@ -0,0 +1,63 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.data;
+
+import java.io.IOException;
+
+/**
+ * A set of rows that gets read a chunk at a time, over and over, for data too
+ * big to fit in memory. Every pass starts with a reset and reads chunks until
+ * read says there's nothing left.
+ * 
+ * @author Andrew
+ *
+ */
+public interface ChunkSource {
+	public int getDimension();
+	
+	/**
+	 * @return How many rows there are, or -1 if that isn't known without reading
+	 * them all
+	 */
+	public long getNumRows() throws IOException;
+	
+	/**
+	 * Goes back to the first row, for the next pass over the data
+	 */
+	public void reset() throws IOException;
+	
+	/**
+	 * Reads the next rows into the buffer, as many as fit
+	 * 
+	 * @param buffer - gets the rows one after another, a multiple of getDimension() long
+	 * @return The number of rows read, 0 once the pass is over
+	 */
+	public int read(float[] buffer) throws IOException;
+	
+	public void close() throws IOException;
+}
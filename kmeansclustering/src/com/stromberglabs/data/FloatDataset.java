@@ -0,0 +1,119 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.data;
+
+import java.util.List;
+
+import com.stromberglabs.cluster.Clusterable;
+
+/**
+ * A set of points stored as one flat row major float array. Compared to a list
+ * of {@link Clusterable}s there's no object per point and the rows sit next to
+ * each other in memory, which is what the tight distance loops want.
+ * 
+ * @author Andrew
+ *
+ */
+public class FloatDataset {
+	private float[] mData;
+	private int mDimension;
+	private int mSize;
+	
+	public FloatDataset(int size, int dimension){
+		this(new float[size*dimension],dimension);
+	}
+	
+	/**
+	 * Wraps an existing array, it isn't copied
+	 * 
+	 * @param data - size*dimension values, row after row
+	 * @param dimension
+	 */
+	public FloatDataset(float[] data, int dimension){
+		if ( data.length % dimension != 0 ){
+			throw new RuntimeException("Data length " + data.length + " isn't a multiple of the dimension " + dimension);
+		}
+		mData = data;
+		mDimension = dimension;
+		mSize = data.length/dimension;
+	}
+	
+	/**
+	 * Copies the locations of the values into a new dataset
+	 * 
+	 * @param values
+	 * @return
+	 */
+	public static FloatDataset fromClusterables(List<? extends Clusterable> values){
+		int dimension = values.get(0).getLocation().length;
+		FloatDataset dataset = new FloatDataset(values.size(),dimension);
+		for ( int i = 0; i < values.size(); i++ ){
+			dataset.setRow(i,values.get(i).getLocation());
+		}
+		return dataset;
+	}
+	
+	public int size(){
+		return mSize;
+	}
+	
+	public int getDimension(){
+		return mDimension;
+	}
+	
+	/**
+	 * @return The backing array, row i starts at i*getDimension()
+	 */
+	public float[] getData(){
+		return mData;
+	}
+	
+	public float get(int row, int dimension){
+		return mData[row*mDimension + dimension];
+	}
+	
+	/**
+	 * Copies a row into the given array, or a new one if it's null
+	 * 
+	 * @param row
+	 * @param location
+	 * @return
+	 */
+	public float[] getRow(int row, float[] location){
+		if ( location == null ) location = new float[mDimension];
+		System.arraycopy(mData,row*mDimension,location,0,mDimension);
+		return location;
+	}
+	
+	public void setRow(int row, float[] location){
+		if ( location.length != mDimension ){
+			throw new RuntimeException("Attempting to store a location of dimension " + location.length + " in a dataset of dimension " + mDimension);
+		}
+		System.arraycopy(location,0,mData,row*mDimension,mDimension);
+	}
+}
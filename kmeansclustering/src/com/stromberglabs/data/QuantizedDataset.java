@@ -0,0 +1,389 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.data;
+
+import java.util.List;
+
+import com.stromberglabs.cluster.ClusterUtils;
+import com.stromberglabs.cluster.Clusterable;
+
+/**
+ * <pre>
+ * A compressed copy of a set of points, either:
+ *  - INT8: every dimension scaled into a byte between that dimension's min and max
+ *  - FLOAT16: every value stored as a half precision float in a short
+ * 
+ * That's a quarter or half of the memory of the floats, so a lot more of the
+ * points fit in cache while assigning. The distances over the codes are only
+ * approximate, but the error is measured for every point when it's encoded, so
+ * {@link #approximateNearest(int, Centers)} can tell when the approximation
+ * can't be trusted and the point has to be checked against the exact values.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class QuantizedDataset {
+	public enum Encoding { INT8, FLOAT16 }
+	
+	//largest value that still rounds to a finite half precision float
+	private static final float MAX_HALF = 65520F;
+	
+	private Encoding mEncoding;
+	private int mDimension;
+	private int mSize;
+	private byte[] mBytes;
+	private short[] mShorts;
+	private float[] mMins;
+	private float[] mScales;
+	//squares of the scales, what a difference between two codes gets weighted by
+	private double[] mWeights;
+	//distance from every point to its decoded version
+	private float[] mErrors;
+	
+	private QuantizedDataset(Encoding encoding, int size, int dimension){
+		mEncoding = encoding;
+		mSize = size;
+		mDimension = dimension;
+		if ( encoding == Encoding.INT8 ){
+			mBytes = new byte[size*dimension];
+		} else {
+			mShorts = new short[size*dimension];
+		}
+		mErrors = new float[size];
+	}
+	
+	public static QuantizedDataset encode(final FloatDataset dataset, Encoding encoding){
+		return encode(new Rows(){
+			public float[] get(int row, float[] location){ return dataset.getRow(row,location); }
+		},dataset.size(),dataset.getDimension(),encoding);
+	}
+	
+	public static QuantizedDataset encode(final List<? extends Clusterable> values, Encoding encoding){
+		return encode(new Rows(){
+			public float[] get(int row, float[] location){ return values.get(row).getLocation(); }
+		},values.size(),values.get(0).getLocation().length,encoding);
+	}
+	
+	private static QuantizedDataset encode(Rows rows, int size, int dimension, Encoding encoding){
+		QuantizedDataset quantized = new QuantizedDataset(encoding,size,dimension);
+		float[] buffer = new float[dimension];
+		if ( encoding == Encoding.INT8 ){
+			float[] mins = new float[dimension];
+			float[] maxes = new float[dimension];
+			for ( int j = 0; j < dimension; j++ ){
+				mins[j] = Float.MAX_VALUE;
+				maxes[j] = -Float.MAX_VALUE;
+			}
+			for ( int i = 0; i < size; i++ ){
+				float[] location = rows.get(i,buffer);
+				for ( int j = 0; j < dimension; j++ ){
+					mins[j] = Math.min(mins[j],location[j]);
+					maxes[j] = Math.max(maxes[j],location[j]);
+				}
+			}
+			float[] scales = new float[dimension];
+			double[] weights = new double[dimension];
+			for ( int j = 0; j < dimension; j++ ){
+				scales[j] = (maxes[j] - mins[j])/255F;
+				weights[j] = (double)scales[j]*scales[j];
+			}
+			quantized.mMins = mins;
+			quantized.mScales = scales;
+			quantized.mWeights = weights;
+		}
+		
+		for ( int i = 0; i < size; i++ ){
+			float[] location = rows.get(i,buffer);
+			int offset = i*dimension;
+			double error = 0;
+			for ( int j = 0; j < dimension; j++ ){
+				float decoded;
+				if ( encoding == Encoding.INT8 ){
+					float scale = quantized.mScales[j];
+					int code = scale > 0 ? Math.round((location[j] - quantized.mMins[j])/scale) : 0;
+					quantized.mBytes[offset + j] = (byte)(Math.min(255,Math.max(0,code)) - 128);
+				} else {
+					if ( Math.abs(location[j]) >= MAX_HALF ){
+						throw new RuntimeException("Value " + location[j] + " is too large to be stored as a half precision float");
+					}
+					quantized.mShorts[offset + j] = toHalf(location[j]);
+				}
+				decoded = quantized.decode(offset + j,j);
+				double diff = location[j] - decoded;
+				error += diff*diff;
+			}
+			//rounded up a touch so the float rounding of the distances themselves is covered too
+			quantized.mErrors[i] = (float)(Math.sqrt(error)*(1 + 1e-5) + 1e-6);
+		}
+		return quantized;
+	}
+	
+	private float decode(int index, int dimension){
+		if ( mEncoding == Encoding.INT8 ){
+			return mMins[dimension] + (mBytes[index] + 128)*mScales[dimension];
+		} else {
+			return fromHalf(mShorts[index]);
+		}
+	}
+	
+	public int size(){
+		return mSize;
+	}
+	
+	public int getDimension(){
+		return mDimension;
+	}
+	
+	public Encoding getEncoding(){
+		return mEncoding;
+	}
+	
+	/**
+	 * @param row
+	 * @return How far the decoded point can be from the original one
+	 */
+	public float getError(int row){
+		return mErrors[row];
+	}
+	
+	/**
+	 * Decodes a row into the given array, or a new one if it's null
+	 * 
+	 * @param row
+	 * @param location
+	 * @return
+	 */
+	public float[] getRow(int row, float[] location){
+		if ( location == null ) location = new float[mDimension];
+		int offset = row*mDimension;
+		for ( int j = 0; j < mDimension; j++ ){
+			location[j] = decode(offset + j,j);
+		}
+		return location;
+	}
+	
+	/**
+	 * <pre>
+	 * Moves the centers into the same space as the codes, so the distances to
+	 * them can be worked out straight from the codes without decoding the rows.
+	 * 
+	 * For INT8 a decoded value is min + (code + 128)*scale, so the difference
+	 * to a center is scale*(code - (center - min)/scale + 128). The center's
+	 * part of that is the same for every row, so it's only worked out here once.
+	 * Dimensions with no spread decode to the same value for every row, their
+	 * part of the distance is added up front.
+	 * </pre>
+	 * 
+	 * @param centers
+	 * @return
+	 */
+	public Centers prepare(float[][] centers){
+		double[][] codes = new double[centers.length][mDimension];
+		double[] bases = new double[centers.length];
+		for ( int i = 0; i < centers.length; i++ ){
+			for ( int j = 0; j < mDimension; j++ ){
+				if ( mEncoding == Encoding.FLOAT16 ){
+					codes[i][j] = centers[i][j];
+				} else if ( mScales[j] > 0 ){
+					codes[i][j] = (centers[i][j] - mMins[j])/mScales[j] - 128;
+				} else {
+					double diff = mMins[j] - centers[i][j];
+					bases[i] += diff*diff;
+				}
+			}
+		}
+		return new Centers(codes,bases);
+	}
+	
+	/**
+	 * Squared distance between the decoded row and one of the prepared centers,
+	 * giving up once it passes the bound like
+	 * {@link ClusterUtils#getSquaredDistance(float[], float[], double)}
+	 * 
+	 * @param row
+	 * @param centers
+	 * @param center - which of the centers
+	 * @param bound
+	 * @return
+	 */
+	public double getSquaredDistance(int row, Centers centers, int center, double bound){
+		double[] code = centers.mCodes[center];
+		int offset = row*mDimension;
+		double sum = centers.mBases[center];
+		int j = 0;
+		while ( j < mDimension ){
+			int blockEnd = Math.min(j + ClusterUtils.DISTANCE_BLOCK_SIZE,mDimension);
+			if ( mEncoding == Encoding.INT8 ){
+				for ( ; j < blockEnd; j++ ){
+					double diff = mBytes[offset + j] - code[j];
+					sum += diff*diff*mWeights[j];
+				}
+			} else {
+				for ( ; j < blockEnd; j++ ){
+					double diff = fromHalf(mShorts[offset + j]) - code[j];
+					sum += diff*diff;
+				}
+			}
+			if ( sum > bound ) return sum;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Finds the closest center to a row using only the codes. The true distance to
+	 * each center is within {@link #getError(int)} of the approximate one, so if the
+	 * best and second best approximate distances are further apart than twice the
+	 * error the best one is certainly right. Otherwise it's too close to call and
+	 * this returns -1, meaning the caller has to check the exact values.
+	 * 
+	 * @param row
+	 * @param centers - from {@link #prepare(float[][])}
+	 * @return The index of the closest center, or -1 if it isn't certain
+	 */
+	public int approximateNearest(int row, Centers centers){
+		int best = -1;
+		double bestDistance = Double.MAX_VALUE;
+		double secondDistance = Double.MAX_VALUE;
+		for ( int i = 0; i < centers.size(); i++ ){
+			double distance = getSquaredDistance(row,centers,i,secondDistance);
+			if ( distance < bestDistance ){
+				secondDistance = bestDistance;
+				bestDistance = distance;
+				best = i;
+			} else if ( distance < secondDistance ){
+				secondDistance = distance;
+			}
+		}
+		if ( centers.size() == 1 ) return best;
+		double margin = Math.sqrt(secondDistance) - Math.sqrt(bestDistance);
+		return margin > 2*mErrors[row] ? best : -1;
+	}
+	
+	/**
+	 * <pre>
+	 * Assigns every row to its closest center and adds it to that center's sum,
+	 * the sums are doubles so nothing is lost accumulating lots of points.
+	 * 
+	 * Rows that {@link #approximateNearest(int, Centers)} can't decide get
+	 * checked against the exact dataset, and the exact values are what get
+	 * summed.
+	 * </pre>
+	 * 
+	 * @param centers
+	 * @param exact - the original values, the decoded ones can't settle the rows
+	 * the codes couldn't
+	 * @param labels - filled with the closest center of each row
+	 * @param sums - centers.length x dimension, added to
+	 * @param counts - centers.length, added to
+	 * @return The number of rows that had to be checked exactly
+	 */
+	public int assign(float[][] centers, FloatDataset exact, int[] labels, double[][] sums, int[] counts){
+		if ( exact == null ){
+			throw new RuntimeException("Need the exact values to check the rows the codes can't decide");
+		}
+		int exactChecks = 0;
+		float[] location = new float[mDimension];
+		Centers prepared = prepare(centers);
+		for ( int row = 0; row < mSize; row++ ){
+			exact.getRow(row,location);
+			int nearest = approximateNearest(row,prepared);
+			if ( nearest == -1 ){
+				exactChecks++;
+				nearest = ClusterUtils.getNearestIndex(location,centers);
+			}
+			double[] sum = sums[nearest];
+			for ( int j = 0; j < mDimension; j++ ){
+				sum[j] += location[j];
+			}
+			counts[nearest]++;
+			labels[row] = nearest;
+		}
+		return exactChecks;
+	}
+	
+	/**
+	 * Rounds a float to the nearest half precision float, ties go to even
+	 * @param value
+	 * @return
+	 */
+	static short toHalf(float value){
+		int bits = Float.floatToIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		float abs = Math.abs(value);
+		if ( abs < 6.1035156E-5F ){
+			//subnormal half, steps of 2^-24
+			return (short)(sign | Math.round(abs*16777216F));
+		}
+		int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+		int mantissa = bits & 0x7fffff;
+		int half = sign | (exponent << 10) | (mantissa >>> 13);
+		int rest = mantissa & 0x1fff;
+		if ( rest > 0x1000 || (rest == 0x1000 && (half & 1) == 1) ){
+			//a carry out of the mantissa bumps the exponent, which is what we want
+			half++;
+		}
+		return (short)half;
+	}
+	
+	static float fromHalf(short half){
+		int bits = half & 0xffff;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+		if ( exponent == 0 ){
+			float value = mantissa*5.9604645E-8F;
+			return sign == 0 ? value : -value;
+		}
+		if ( exponent == 31 ){
+			return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+		}
+		return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+	}
+	
+	/**
+	 * Centers in the space of one dataset's codes, see {@link QuantizedDataset#prepare(float[][])}
+	 */
+	public static class Centers {
+		private double[][] mCodes;
+		private double[] mBases;
+		
+		private Centers(double[][] codes, double[] bases){
+			mCodes = codes;
+			mBases = bases;
+		}
+		
+		public int size(){
+			return mCodes.length;
+		}
+	}
+	
+	private interface Rows {
+		public float[] get(int row, float[] location);
+	}
+}
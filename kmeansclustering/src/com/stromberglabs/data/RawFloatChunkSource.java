@@ -0,0 +1,114 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link ChunkSource} over a file of raw little endian floats, the rows one
+ * after another with nothing else in the file. Reads go through one direct
+ * buffer that gets reused for every chunk.
+ * 
+ * @author Andrew
+ *
+ */
+public class RawFloatChunkSource implements ChunkSource {
+	public static int READ_BUFFER_SIZE = 1 << 20;
+	
+	private RandomAccessFile mFile;
+	private FileChannel mChannel;
+	private int mDimension;
+	private ByteBuffer mBuffer;
+	
+	public RawFloatChunkSource(File file, int dimension) throws IOException {
+		mFile = new RandomAccessFile(file,"r");
+		mChannel = mFile.getChannel();
+		mDimension = dimension;
+		if ( mChannel.size() % (4L*dimension) != 0 ){
+			mFile.close();
+			throw new RuntimeException(file + " isn't a whole number of " + dimension + " float rows");
+		}
+		//a whole number of rows, so a row never gets split between two reads
+		int rowBytes = 4*dimension;
+		mBuffer = ByteBuffer.allocateDirect(Math.max(1,READ_BUFFER_SIZE/rowBytes)*rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	public int getDimension(){
+		return mDimension;
+	}
+	
+	public long getNumRows() throws IOException {
+		return mChannel.size()/(4L*mDimension);
+	}
+	
+	public void reset() throws IOException {
+		mChannel.position(0);
+	}
+	
+	public int read(float[] buffer) throws IOException {
+		int maxValues = buffer.length - buffer.length % mDimension;
+		int numValues = 0;
+		while ( numValues < maxValues ){
+			mBuffer.clear();
+			mBuffer.limit(Math.min(mBuffer.capacity(),4*(maxValues - numValues)));
+			while ( mBuffer.hasRemaining() && mChannel.read(mBuffer) > 0 );
+			mBuffer.flip();
+			int read = mBuffer.remaining()/4;
+			if ( read == 0 ) break;
+			mBuffer.asFloatBuffer().get(buffer,numValues,read);
+			numValues += read;
+		}
+		return numValues/mDimension;
+	}
+	
+	public void close() throws IOException {
+		mFile.close();
+	}
+	
+	/**
+	 * Writes a dataset out in the format this reads
+	 */
+	public static void write(FloatDataset data, File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),1 << 16));
+		try {
+			for ( float value : data.getData() ){
+				out.writeInt(Integer.reverseBytes(Float.floatToRawIntBits(value)));
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
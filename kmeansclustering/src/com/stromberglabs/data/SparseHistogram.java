@@ -0,0 +1,113 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.data;
+
+import java.util.Arrays;
+
+/**
+ * A sparse vector of weights indexed by word, like the visual word histogram of
+ * an image where most of a big vocabulary never shows up. The words are kept
+ * sorted so two histograms can be compared by walking them side by side.
+ * 
+ * @author Andrew
+ *
+ */
+public class SparseHistogram {
+	private int[] mWords;
+	private float[] mWeights;
+	
+	/**
+	 * The arrays aren't copied
+	 * 
+	 * @param words - in increasing order, no repeats
+	 * @param weights - the weight of each word
+	 */
+	public SparseHistogram(int[] words, float[] weights){
+		if ( words.length != weights.length ){
+			throw new RuntimeException(words.length + " words but " + weights.length + " weights");
+		}
+		mWords = words;
+		mWeights = weights;
+	}
+	
+	/**
+	 * @return The number of words with a weight
+	 */
+	public int size(){
+		return mWords.length;
+	}
+	
+	public int getWord(int i){
+		return mWords[i];
+	}
+	
+	public float getWeight(int i){
+		return mWeights[i];
+	}
+	
+	/**
+	 * @return The word's weight, 0 if it isn't in the histogram
+	 */
+	public float get(int word){
+		int i = Arrays.binarySearch(mWords,word);
+		return i >= 0 ? mWeights[i] : 0;
+	}
+	
+	public double dot(SparseHistogram other){
+		double dot = 0;
+		int i = 0;
+		int j = 0;
+		while ( i < mWords.length && j < other.mWords.length ){
+			if ( mWords[i] < other.mWords[j] ){
+				i++;
+			} else if ( mWords[i] > other.mWords[j] ){
+				j++;
+			} else {
+				dot += mWeights[i++]*other.mWeights[j++];
+			}
+		}
+		return dot;
+	}
+	
+	public float[] toDense(int numWords){
+		float[] dense = new float[numWords];
+		for ( int i = 0; i < mWords.length; i++ ){
+			dense[mWords[i]] = mWeights[i];
+		}
+		return dense;
+	}
+	
+	public String toString(){
+		StringBuilder builder = new StringBuilder("{");
+		for ( int i = 0; i < mWords.length; i++ ){
+			if ( i > 0 ) builder.append(", ");
+			builder.append(mWords[i]).append('=').append(mWeights[i]);
+		}
+		return builder.append('}').toString();
+	}
+}
@@ -0,0 +1,648 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.graph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.stromberglabs.cluster.ClusterUtils;
+import com.stromberglabs.cluster.Clusterable;
+import com.stromberglabs.tree.ClusterIndex;
+import com.stromberglabs.tree.Neighbors;
+import com.stromberglabs.util.IntMinHeap;
+import com.stromberglabs.util.IntTopN;
+
+/**
+ * <pre>
+ * A hierarchical navigable small world graph (Malkov and Yashunin) over a set of
+ * Clusterable points, for when there are far too many cluster centers for the
+ * trees, like a visual vocabulary of a million words.
+ * 
+ * Every point gets a random level, with exponentially fewer points on each level
+ * up, and is linked to about M of its closest points on every level up to its
+ * own (2M on the bottom level). A search starts at the single point on the top
+ * level, walks greedily toward the query on each level, and on the bottom level
+ * keeps the ef closest points it has seen, following their links until none of
+ * them lead anywhere closer. Bigger ef means better recall and slower searches.
+ * 
+ * The points are inserted in batches. The searches for the links of a batch
+ * run on the fork/join pool against the graph as it was before the batch, then
+ * the links go in one point at a time, so nothing has to be locked and the same
+ * points and seed always give the same graph. The points of a batch can't link
+ * to each other, so a batch is kept to a small part of the points already in.
+ * 
+ * When the points move, see {@link #update(Clusterable[])}, the ones that moved
+ * far compared to their closest neighbor get relinked and the rest keep their
+ * links, or the whole graph gets rebuilt if most of them moved.
+ * 
+ * The searches through the graph are approximate, the exact and radius queries
+ * of {@link ClusterIndex} just check every point.
+ * 
+ * Once it's built any number of threads can search the graph at the same time,
+ * the searches don't take any locks and keep their scratch space in thread
+ * locals. Updating it while it's being searched isn't safe, build a new one
+ * and swap it in instead, see {@link com.stromberglabs.cluster.KMeansModelHolder}.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class HNSWIndex implements ClusterIndex {
+	public static int DEFAULT_M = 16;
+	public static int DEFAULT_EF_CONSTRUCTION = 100;
+	public static int DEFAULT_EF = 50;
+	public static long DEFAULT_SEED = 1;
+	public static int PARALLEL_INSERT_CHUNK = 256;
+	public static int INSERT_BATCH_DIVISOR = 8;
+	public static double PATCH_TOLERANCE = 0.25;
+	public static double REBUILD_FRACTION = 0.5;
+	
+	private int mM;
+	private int mEfConstruction;
+	private volatile int mEf;
+	
+	private Clusterable[] mPoints;
+	private float[][] mLocations;
+	private int[] mLevels;
+	//mLinks[point][level] is the count of links followed by the linked points
+	private int[][][] mLinks;
+	
+	//the entry point in the low 32 bits and the top level in the high ones, so the
+	//searches can read both at once without a lock
+	private volatile long mEntry;
+	
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>(){
+		protected Scratch initialValue(){
+			return new Scratch();
+		}
+	};
+	
+	public HNSWIndex(Clusterable[] points){
+		this(points,DEFAULT_M,DEFAULT_EF_CONSTRUCTION,DEFAULT_EF,DEFAULT_SEED);
+	}
+	
+	/**
+	 * @param points
+	 * @param m - how many links each point gets per level, twice that on the bottom level
+	 * @param efConstruction - how many candidates to consider when linking a point
+	 * @param ef - how many candidates the searches keep, can be changed later
+	 * @param seed - picks the levels of the points
+	 */
+	public HNSWIndex(Clusterable[] points, int m, int efConstruction, int ef, long seed){
+		if ( points.length == 0 ) throw new RuntimeException("Can't build a graph over no points");
+		mM = m;
+		mEfConstruction = efConstruction;
+		mEf = ef;
+		int numPoints = points.length;
+		mPoints = points;
+		mLocations = new float[numPoints][];
+		mLevels = new int[numPoints];
+		mLinks = new int[numPoints][][];
+		Random random = new Random(seed);
+		double levelFactor = 1/Math.log(Math.max(2,m));
+		for ( int i = 0; i < numPoints; i++ ){
+			mLocations[i] = points[i].getLocation();
+			mLevels[i] = (int)(-Math.log(1 - random.nextDouble())*levelFactor);
+			mLinks[i] = new int[mLevels[i] + 1][];
+			for ( int level = 0; level <= mLevels[i]; level++ ){
+				mLinks[i][level] = new int[maxLinks(level) + 1];
+			}
+		}
+		build();
+	}
+	
+	private int maxLinks(int level){
+		return level == 0 ? 2*mM : mM;
+	}
+	
+	private void build(){
+		for ( int[][] links : mLinks ){
+			for ( int[] level : links ){
+				level[0] = 0;
+			}
+		}
+		mEntry = entry(0,mLevels[0]);
+		int[] order = new int[mPoints.length - 1];
+		for ( int i = 0; i < order.length; i++ ){
+			order[i] = i + 1;
+		}
+		insertAll(order,order.length,1);
+	}
+	
+	/**
+	 * Inserts the points in batches, each no bigger than 1/INSERT_BATCH_DIVISOR of
+	 * the points already linked. The links for a batch get picked in parallel
+	 * against the graph as it was before the batch, then they go in one point at a
+	 * time in order. Nothing gets written while the searches run so they don't
+	 * need locks, and the graph comes out the same however the threads run.
+	 * 
+	 * @param points
+	 * @param count
+	 * @param linked - how many points are already in the graph
+	 */
+	private void insertAll(int[] points, int count, int linked){
+		int[][][] selected = new int[count][][];
+		int done = 0;
+		while ( done < count ){
+			int batch = Math.min(count - done,Math.max(1,linked/INSERT_BATCH_DIVISOR));
+			if ( batch == 1 ){
+				selected[done] = selectLinks(points[done],SCRATCH.get());
+			} else {
+				ForkJoinPool.commonPool().invoke(new SelectTask(points,selected,done,done + batch));
+			}
+			Scratch scratch = SCRATCH.get();
+			for ( int i = done; i < done + batch; i++ ){
+				link(points[i],selected[i],scratch);
+				selected[i] = null;
+			}
+			done += batch;
+			linked += batch;
+		}
+	}
+	
+	private class SelectTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int[] mSelectPoints;
+		private int[][][] mSelected;
+		private int mStart;
+		private int mEnd;
+		
+		public SelectTask(int[] points, int[][][] selected, int start, int end){
+			mSelectPoints = points;
+			mSelected = selected;
+			mStart = start;
+			mEnd = end;
+		}
+		
+		protected void compute(){
+			if ( mEnd - mStart <= PARALLEL_INSERT_CHUNK ){
+				Scratch scratch = SCRATCH.get();
+				for ( int i = mStart; i < mEnd; i++ ){
+					mSelected[i] = selectLinks(mSelectPoints[i],scratch);
+				}
+				return;
+			}
+			int middle = (mStart + mEnd) >>> 1;
+			invokeAll(new SelectTask(mSelectPoints,mSelected,mStart,middle),new SelectTask(mSelectPoints,mSelected,middle,mEnd));
+		}
+	}
+	
+	/**
+	 * Picks the point's links on every level up to its own, or up to the top of the
+	 * graph if it's higher
+	 * @return The links for each level, the count first
+	 */
+	private int[][] selectLinks(int point, Scratch scratch){
+		long entry = mEntry;
+		int entryPoint = (int)entry;
+		int topLevel = (int)(entry >>> 32);
+		float[] location = mLocations[point];
+		int level = mLevels[point];
+		for ( int l = topLevel; l > level; l-- ){
+			searchLevel(location,entryPoint,1,l,scratch);
+			entryPoint = scratch.mIds[0];
+		}
+		int[][] selected = new int[Math.min(level,topLevel) + 1][];
+		for ( int l = selected.length - 1; l >= 0; l-- ){
+			int found = searchLevel(location,entryPoint,mEfConstruction,l,scratch);
+			entryPoint = scratch.mIds[0];
+			int numLinks = selectNeighbors(point,scratch.mIds,scratch.mDistances,found,maxLinks(l),scratch);
+			selected[l] = new int[numLinks + 1];
+			selected[l][0] = numLinks;
+			System.arraycopy(scratch.mSelected,0,selected[l],1,numLinks);
+		}
+		return selected;
+	}
+	
+	/**
+	 * Replaces whatever links the point had with the ones picked for it and links
+	 * back to it from each of them, so this also relinks a point that moved
+	 */
+	private void link(int point, int[][] selected, Scratch scratch){
+		scratch.startLinking(mM);
+		for ( int l = 0; l < selected.length; l++ ){
+			System.arraycopy(selected[l],0,mLinks[point][l],0,selected[l].length);
+			for ( int i = 1; i < selected[l].length; i++ ){
+				addLink(selected[l][i],point,l,scratch);
+			}
+		}
+		int level = mLevels[point];
+		if ( level > (int)(mEntry >>> 32) ){
+			mEntry = entry(point,level);
+		}
+	}
+	
+	private static long entry(int point, int level){
+		return ((long)level << 32) | point;
+	}
+	
+	/**
+	 * The neighbor selection heuristic from the paper, out of the candidates sorted
+	 * closest first it takes the ones that are closer to the point than to any
+	 * neighbor already taken, which keeps links going in different directions
+	 * instead of all into the same clump. That often leaves room, which the links
+	 * back from points inserted later fill in.
+	 * 
+	 * @return The number of neighbors put in scratch.mSelected
+	 */
+	private int selectNeighbors(int point, int[] ids, double[] distances, int count, int max, Scratch scratch){
+		int[] selected = scratch.mSelected;
+		int numSelected = 0;
+		for ( int i = 0; i < count && numSelected < max; i++ ){
+			if ( ids[i] == point ) continue;
+			boolean keep = true;
+			for ( int j = 0; j < numSelected && keep; j++ ){
+				keep = ClusterUtils.getSquaredDistance(mLocations[ids[i]],mLocations[selected[j]],distances[i]) >= distances[i];
+			}
+			if ( keep ){
+				selected[numSelected++] = ids[i];
+			}
+		}
+		return numSelected;
+	}
+	
+	/**
+	 * Adds a link from the neighbor back to the point, if the neighbor already
+	 * has as many links as it can hold it picks the best of them and the new one
+	 */
+	private void addLink(int neighbor, int point, int level, Scratch scratch){
+		int[] links = mLinks[neighbor][level];
+		int count = links[0];
+		for ( int i = 1; i <= count; i++ ){
+			if ( links[i] == point ) return;
+		}
+		if ( count < links.length - 1 ){
+			links[count+1] = point;
+			links[0] = count + 1;
+			return;
+		}
+		//sort the current links and the new one closest first, there's only 2M+1 of them
+		int[] ids = scratch.mShrinkIds;
+		double[] distances = scratch.mShrinkDistances;
+		float[] location = mLocations[neighbor];
+		for ( int i = 0; i <= count; i++ ){
+			int id = i < count ? links[i+1] : point;
+			double distance = ClusterUtils.getSquaredDistance(location,mLocations[id],Double.MAX_VALUE);
+			int j = i;
+			while ( j > 0 && distances[j-1] > distance ){
+				ids[j] = ids[j-1];
+				distances[j] = distances[j-1];
+				j--;
+			}
+			ids[j] = id;
+			distances[j] = distance;
+		}
+		int kept = selectNeighbors(neighbor,ids,distances,count + 1,count,scratch);
+		System.arraycopy(scratch.mSelected,0,links,1,kept);
+		links[0] = kept;
+	}
+	
+	/**
+	 * Searches one level starting from the entry point, keeping the ef closest
+	 * points found. They end up in scratch.mIds and mDistances closest first, with
+	 * squared distances. The links never change while a search is running, the
+	 * inserts only write them between their searches, so nothing gets locked.
+	 * 
+	 * @return The number found
+	 */
+	private int searchLevel(float[] location, int entryPoint, int ef, int level, Scratch scratch){
+		scratch.startSearch(mPoints.length,ef,mM);
+		IntMinHeap candidates = scratch.mCandidates;
+		IntTopN best = scratch.mBest;
+		double distance = ClusterUtils.getSquaredDistance(location,mLocations[entryPoint],Double.MAX_VALUE);
+		scratch.visit(entryPoint);
+		candidates.add(entryPoint,distance);
+		best.add(entryPoint,distance);
+		while ( candidates.size() > 0 ){
+			if ( candidates.peekPriority() > best.worstPriority() ) break;
+			int current = candidates.pop();
+			int[] links = mLinks[current][level];
+			int count = links[0];
+			for ( int i = 1; i <= count; i++ ){
+				int next = links[i];
+				if ( !scratch.visit(next) ) continue;
+				double worst = best.worstPriority();
+				double nextDistance = ClusterUtils.getSquaredDistance(location,mLocations[next],worst);
+				if ( nextDistance < worst ){
+					candidates.add(next,nextDistance);
+					best.add(next,nextDistance);
+				}
+			}
+		}
+		return best.drainSorted(scratch.mIds,scratch.mDistances);
+	}
+	
+	/**
+	 * Goes down the levels to the bottom one and searches it with the given ef
+	 * @return The number found, in scratch.mIds and mDistances
+	 */
+	private int search(float[] location, int ef, Scratch scratch){
+		long entry = mEntry;
+		int entryPoint = (int)entry;
+		for ( int l = (int)(entry >>> 32); l > 0; l-- ){
+			searchLevel(location,entryPoint,1,l,scratch);
+			entryPoint = scratch.mIds[0];
+		}
+		return searchLevel(location,entryPoint,ef,0,scratch);
+	}
+	
+	/**
+	 * @param location
+	 * @return The index of the closest point the search finds with the graph's ef
+	 */
+	public int findClosestIndex(float[] location){
+		return findClosestIndex(location,mEf);
+	}
+	
+	public int findClosestIndex(float[] location, int ef){
+		Scratch scratch = SCRATCH.get();
+		search(location,Math.max(1,ef),scratch);
+		return scratch.mIds[0];
+	}
+	
+	/**
+	 * Uses the graph as a vector quantizer, mapping every value to its closest point
+	 * 
+	 * @param values
+	 * @return The index of each value's closest point
+	 */
+	public int[] quantize(final List<? extends Clusterable> values){
+		final int[] codes = new int[values.size()];
+		ForkJoinPool.commonPool().invoke(new QuantizeTask(values,codes,0,codes.length));
+		return codes;
+	}
+	
+	private class QuantizeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private List<? extends Clusterable> mValues;
+		private int[] mCodes;
+		private int mStart;
+		private int mEnd;
+		
+		public QuantizeTask(List<? extends Clusterable> values, int[] codes, int start, int end){
+			mValues = values;
+			mCodes = codes;
+			mStart = start;
+			mEnd = end;
+		}
+		
+		protected void compute(){
+			if ( mEnd - mStart <= PARALLEL_INSERT_CHUNK ){
+				for ( int i = mStart; i < mEnd; i++ ){
+					mCodes[i] = findClosestIndex(mValues.get(i).getLocation());
+				}
+				return;
+			}
+			int middle = (mStart + mEnd) >>> 1;
+			invokeAll(new QuantizeTask(mValues,mCodes,mStart,middle),new QuantizeTask(mValues,mCodes,middle,mEnd));
+		}
+	}
+	
+	public int getEf(){
+		return mEf;
+	}
+	
+	public void setEf(int ef){
+		mEf = ef;
+	}
+	
+	/**
+	 * <pre>
+	 * Moves the points to new locations, point i of the new array replacing point i
+	 * of the old one. A point that moved less than PATCH_TOLERANCE of the distance to
+	 * its closest linked neighbor keeps its links, the graph still gets searches to
+	 * it fine. The others get relinked concurrently the same way they were inserted.
+	 * If more than REBUILD_FRACTION of them need it, the graph gets built over again.
+	 * </pre>
+	 * 
+	 * @return The number of points that were relinked
+	 */
+	public int update(Clusterable[] points){
+		if ( points.length != mPoints.length ){
+			throw new RuntimeException("Can't update a graph of " + mPoints.length + " points with " + points.length + " points");
+		}
+		float[][] oldLocations = mLocations.clone();
+		mPoints = points;
+		for ( int i = 0; i < points.length; i++ ){
+			mLocations[i] = points[i].getLocation();
+		}
+		int[] moved = new int[points.length];
+		int numMoved = 0;
+		for ( int i = 0; i < points.length; i++ ){
+			double shift = ClusterUtils.getSquaredDistance(oldLocations[i],mLocations[i],Double.MAX_VALUE);
+			if ( shift == 0 ) continue;
+			int[] links = mLinks[i][0];
+			double closest = Double.MAX_VALUE;
+			for ( int j = 1; j <= links[0]; j++ ){
+				closest = ClusterUtils.getSquaredDistance(mLocations[i],mLocations[links[j]],closest);
+			}
+			if ( shift > PATCH_TOLERANCE*PATCH_TOLERANCE*closest ){
+				moved[numMoved++] = i;
+			}
+		}
+		if ( numMoved > REBUILD_FRACTION*points.length ){
+			build();
+			return points.length;
+		}
+		if ( numMoved > 0 ) insertAll(moved,numMoved,points.length - numMoved);
+		return numMoved;
+	}
+	
+	public Clusterable exactNearestNeighbor(Clusterable point){
+		return mPoints[exactNearestIndex(point.getLocation())];
+	}
+	
+	public int exactNearestIndex(float[] location){
+		return ClusterUtils.getNearestIndex(location,mLocations);
+	}
+	
+	/**
+	 * A graph search with numMaxBinsChecked as its ef
+	 */
+	public Clusterable restrictedNearestNeighbor(Clusterable point, int numMaxBinsChecked){
+		return mPoints[restrictedNearestIndex(point.getLocation(),numMaxBinsChecked)];
+	}
+	
+	public int restrictedNearestIndex(float[] location, int numMaxBinsChecked){
+		if ( numMaxBinsChecked >= mPoints.length ) return exactNearestIndex(location);
+		return findClosestIndex(location,numMaxBinsChecked);
+	}
+	
+	public Neighbors kNearest(Clusterable point, int k, int maxChecks){
+		Neighbors result = new Neighbors(k);
+		kNearest(point.getLocation(),k,maxChecks,result);
+		return result;
+	}
+	
+	/**
+	 * A graph search with the bigger of k and maxChecks as its ef, once that
+	 * reaches the number of points every point gets checked
+	 */
+	public int kNearest(float[] location, int k, int maxChecks, Neighbors result){
+		Scratch scratch = SCRATCH.get();
+		int ef = Math.max(k,maxChecks);
+		IntTopN top = scratch.mTop;
+		top.clear(k);
+		if ( ef >= mPoints.length ){
+			for ( int i = 0; i < mPoints.length; i++ ){
+				double worst = top.worstPriority();
+				double distance = ClusterUtils.getSquaredDistance(location,mLocations[i],worst);
+				if ( distance < worst ) top.add(i,distance);
+			}
+		} else {
+			int found = search(location,ef,scratch);
+			for ( int i = 0; i < found && i < k; i++ ){
+				top.add(scratch.mIds[i],scratch.mDistances[i]);
+			}
+		}
+		result.fill(top);
+		return result.size();
+	}
+	
+	public Neighbors withinRadius(Clusterable point, double radius){
+		Neighbors result = new Neighbors();
+		withinRadius(point.getLocation(),radius,result);
+		return result;
+	}
+	
+	public int withinRadius(float[] location, double radius, Neighbors result){
+		result.clear(0);
+		double radiusSquared = radius*radius;
+		for ( int i = 0; i < mLocations.length; i++ ){
+			double distance = ClusterUtils.getSquaredDistance(location,mLocations[i],radiusSquared);
+			if ( distance <= radiusSquared ) result.add(i,Math.sqrt(distance));
+		}
+		return result.size();
+	}
+	
+	public Clusterable getPoint(int index){
+		return mPoints[index];
+	}
+	
+	public int size(){
+		return mPoints.length;
+	}
+	
+	public String toString(){
+		return "Points = " + mPoints.length + ", levels = " + ((int)(mEntry >>> 32) + 1) + ", M = " + mM + ", ef = " + mEf;
+	}
+	
+	/**
+	 * The per thread scratch space of the searches and insertions
+	 */
+	private static class Scratch {
+		IntMinHeap mCandidates = new IntMinHeap(64);
+		IntTopN mBest = new IntTopN(1);
+		IntTopN mTop = new IntTopN(1);
+		int[] mIds = new int[0];
+		double[] mDistances = new double[0];
+		int[] mSelected = new int[0];
+		int[] mShrinkIds = new int[0];
+		double[] mShrinkDistances = new double[0];
+		
+		private int[] mVisited = new int[0];
+		private int mStamp;
+		
+		void startSearch(int numPoints, int ef, int m){
+			if ( mVisited.length < numPoints ){
+				mVisited = new int[numPoints];
+				mStamp = 0;
+			}
+			mStamp++;
+			if ( mStamp == 0 ){
+				Arrays.fill(mVisited,0);
+				mStamp = 1;
+			}
+			mCandidates.clear();
+			mBest.clear(ef);
+			if ( mIds.length < ef ){
+				mIds = new int[ef];
+				mDistances = new double[ef];
+			}
+			startLinking(m);
+		}
+		
+		void startLinking(int m){
+			int maxLinks = 2*m + 1;
+			if ( mSelected.length < maxLinks ){
+				mSelected = new int[maxLinks];
+				mShrinkIds = new int[maxLinks];
+				mShrinkDistances = new double[maxLinks];
+			}
+		}
+		
+		boolean visit(int point){
+			if ( mVisited[point] == mStamp ) return false;
+			mVisited[point] = mStamp;
+			return true;
+		}
+	}
+	
+	public static void main(String args[]){
+		Random random = new Random(1);
+		int numPoints = 20000;
+		int numQueries = 1000;
+		int dimensions = 32;
+		Clusterable[] points = new Clusterable[numPoints];
+		for ( int i = 0; i < numPoints; i++ ){
+			final float[] location = new float[dimensions];
+			for ( int d = 0; d < dimensions; d++ ){
+				location[d] = (float)random.nextGaussian();
+			}
+			points[i] = new Clusterable(){
+				public float[] getLocation(){ return location; }
+			};
+		}
+		long start = System.currentTimeMillis();
+		HNSWIndex index = new HNSWIndex(points);
+		System.out.println(index + ", built in " + (System.currentTimeMillis() - start) + "ms");
+		float[][] queries = new float[numQueries][dimensions];
+		for ( float[] query : queries ){
+			for ( int d = 0; d < dimensions; d++ ){
+				query[d] = (float)random.nextGaussian();
+			}
+		}
+		int[] truth = new int[numQueries];
+		start = System.currentTimeMillis();
+		for ( int i = 0; i < numQueries; i++ ){
+			truth[i] = index.exactNearestIndex(queries[i]);
+		}
+		System.out.println("brute force: " + (System.currentTimeMillis() - start) + "ms");
+		for ( int ef : new int[]{10,50,200} ){
+			int correct = 0;
+			start = System.currentTimeMillis();
+			for ( int i = 0; i < numQueries; i++ ){
+				if ( index.findClosestIndex(queries[i],ef) == truth[i] ) correct++;
+			}
+			System.out.println("ef = " + ef + ": " + (System.currentTimeMillis() - start) + "ms, recall = " + (double)correct/numQueries);
+		}
+	}
+}
@@ -0,0 +1,359 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.stromberglabs.data.FloatDataset;
+
+/**
+ * <pre>
+ * Reads a delimited text file of numbers, one row per line, like a CSV of
+ * descriptors, into a {@link FloatDataset}.
+ * 
+ * The file gets cut into pieces of about PARSE_CHUNK_SIZE bytes, each ending at
+ * the end of a line, and the pieces get read and parsed in parallel on the
+ * fork/join pool, then copied into the dataset in order. The numbers are parsed
+ * straight out of the bytes without making a String for each one. The ones with
+ * too many digits to round exactly that way go through Float.parseFloat, so the
+ * values always come out exactly as Float.parseFloat would give them.
+ * 
+ * Empty lines are skipped, every other line has to have the same number of
+ * values. Spaces and tabs around the values are ignored, and if the delimiter
+ * is a space or a tab any run of them counts as one. Quoted fields aren't
+ * supported, it's meant for numbers.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class DelimitedFile {
+	public static int PARSE_CHUNK_SIZE = 1 << 22;
+	
+	private static final float[] POWERS_OF_TEN = { 1e0F, 1e1F, 1e2F, 1e3F, 1e4F, 1e5F, 1e6F, 1e7F, 1e8F, 1e9F, 1e10F };
+	
+	public static FloatDataset read(File file) throws IOException {
+		return read(file,',',false);
+	}
+	
+	/**
+	 * @param file
+	 * @param delimiter - what's between the values on a line
+	 * @param skipHeader - whether the first line is column names
+	 */
+	public static FloatDataset read(File file, char delimiter, boolean skipHeader) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file,"r");
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			long start = skipHeader ? lineEnd(channel,0,size) : 0;
+			List<Long> bounds = new ArrayList<Long>();
+			bounds.add(start);
+			while ( start < size ){
+				start = lineEnd(channel,Math.min(size,start + PARSE_CHUNK_SIZE),size);
+				bounds.add(start);
+			}
+			Piece[] pieces = new Piece[bounds.size() - 1];
+			for ( int i = 0; i < pieces.length; i++ ){
+				pieces[i] = new Piece(channel,bounds.get(i),bounds.get(i+1),delimiter);
+			}
+			ForkJoinPool.commonPool().invoke(new ParseAll(pieces));
+			
+			int dimension = -1;
+			long numValues = 0;
+			for ( Piece piece : pieces ){
+				if ( piece.mError instanceof IOException ) throw (IOException)piece.mError;
+				if ( piece.mError != null ) throw (RuntimeException)piece.mError;
+				if ( piece.mDimension < 0 ) continue;
+				if ( dimension >= 0 && piece.mDimension != dimension ){
+					throw new RuntimeException("Line with " + piece.mDimension + " values after lines with " + dimension + ", around byte " + piece.mStart);
+				}
+				dimension = piece.mDimension;
+				numValues += piece.mCount;
+			}
+			if ( numValues > Integer.MAX_VALUE ){
+				throw new RuntimeException(numValues + " values don't fit in one dataset");
+			}
+			float[] data = new float[(int)numValues];
+			int offset = 0;
+			for ( Piece piece : pieces ){
+				System.arraycopy(piece.mValues,0,data,offset,piece.mCount);
+				offset += piece.mCount;
+				piece.mValues = null;
+			}
+			return new FloatDataset(data,Math.max(1,dimension));
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * @return The position just past the end of the line the position is in, or
+	 * the end of the file
+	 */
+	private static long lineEnd(FileChannel channel, long position, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		while ( position < size ){
+			buffer.clear();
+			int read = channel.read(buffer,position);
+			if ( read <= 0 ) break;
+			for ( int i = 0; i < read; i++ ){
+				if ( buffer.get(i) == '\n' ) return position + i + 1;
+			}
+			position += read;
+		}
+		return size;
+	}
+	
+	private static class ParseAll extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private Piece[] mPieces;
+		
+		public ParseAll(Piece[] pieces){
+			mPieces = pieces;
+		}
+		
+		protected void compute(){
+			invokeAll(Arrays.asList(mPieces));
+		}
+	}
+	
+	/**
+	 * One range of lines of the file, read and parsed on its own
+	 */
+	private static class Piece extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private FileChannel mChannel;
+		private long mStart;
+		private long mEnd;
+		private char mDelimiter;
+		
+		private float[] mValues;
+		private int mCount;
+		//the values on a line, -1 if the piece had no lines
+		private int mDimension = -1;
+		//whether the last thing on the line was a value rather than a delimiter
+		private boolean mAfterValue;
+		private Exception mError;
+		
+		public Piece(FileChannel channel, long start, long end, char delimiter){
+			mChannel = channel;
+			mStart = start;
+			mEnd = end;
+			mDelimiter = delimiter;
+		}
+		
+		protected void compute(){
+			try {
+				byte[] bytes = new byte[(int)(mEnd - mStart)];
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				while ( buffer.hasRemaining() ){
+					if ( mChannel.read(buffer,mStart + buffer.position()) < 0 ) break;
+				}
+				parse(bytes);
+			} catch ( IOException e ){
+				mError = e;
+			} catch ( RuntimeException e ){
+				mError = e;
+			}
+		}
+		
+		private void parse(byte[] bytes){
+			boolean whitespace = mDelimiter == ' ' || mDelimiter == '\t';
+			mValues = new float[Math.max(16,bytes.length/4)];
+			int lineValues = 0;
+			int i = 0;
+			while ( i < bytes.length ){
+				byte b = bytes[i];
+				if ( b == '\n' ){
+					endLine(lineValues,i);
+					lineValues = 0;
+					i++;
+				} else if ( b == ' ' || b == '\t' || b == '\r' ){
+					i++;
+				} else if ( b == mDelimiter && !whitespace ){
+					//an empty field, there has to be a value before every delimiter
+					if ( lineValues == 0 || !mAfterValue ){
+						throw new RuntimeException("Empty value around byte " + (mStart + i));
+					}
+					mAfterValue = false;
+					i++;
+				} else {
+					if ( lineValues > 0 && mAfterValue && !whitespace ){
+						throw new RuntimeException("Missing delimiter around byte " + (mStart + i));
+					}
+					int end = i;
+					while ( end < bytes.length && bytes[end] != mDelimiter && bytes[end] != '\n' && bytes[end] != '\r' && bytes[end] != ' ' && bytes[end] != '\t' ){
+						end++;
+					}
+					if ( mCount == mValues.length ){
+						mValues = Arrays.copyOf(mValues,mValues.length*2);
+					}
+					mValues[mCount++] = parseFloat(bytes,i,end,mStart);
+					lineValues++;
+					mAfterValue = true;
+					i = end;
+				}
+			}
+			endLine(lineValues,bytes.length);
+		}
+		
+		private void endLine(int lineValues, int position){
+			if ( lineValues > 0 && !mAfterValue ){
+				throw new RuntimeException("Line ends with a delimiter around byte " + (mStart + position));
+			}
+			mAfterValue = false;
+			if ( lineValues == 0 ) return;
+			if ( mDimension < 0 ){
+				mDimension = lineValues;
+			} else if ( lineValues != mDimension ){
+				throw new RuntimeException("Line with " + lineValues + " values after lines with " + mDimension + ", around byte " + (mStart + position));
+			}
+		}
+	}
+	
+	/**
+	 * Parses a decimal number out of bytes[start,end). Up to 7 significant digits
+	 * and a power of ten up to 10 either way, both the digits and the power are
+	 * exact floats so one multiply or divide rounds the same way parseFloat does,
+	 * anything else goes to parseFloat.
+	 */
+	static float parseFloat(byte[] bytes, int start, int end, long fileOffset){
+		int i = start;
+		boolean negative = false;
+		if ( i < end && (bytes[i] == '-' || bytes[i] == '+') ){
+			negative = bytes[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		while ( i < end && bytes[i] >= '0' && bytes[i] <= '9' ){
+			if ( mantissa > 0 || bytes[i] != '0' ) digits++;
+			if ( digits <= 18 ) mantissa = mantissa*10 + (bytes[i] - '0'); else exponent++;
+			any = true;
+			i++;
+		}
+		if ( i < end && bytes[i] == '.' ){
+			i++;
+			while ( i < end && bytes[i] >= '0' && bytes[i] <= '9' ){
+				if ( mantissa > 0 || bytes[i] != '0' ) digits++;
+				if ( digits <= 18 ){
+					mantissa = mantissa*10 + (bytes[i] - '0');
+					exponent--;
+				}
+				any = true;
+				i++;
+			}
+		}
+		if ( any && i < end && (bytes[i] == 'e' || bytes[i] == 'E') ){
+			i++;
+			boolean negativeExponent = false;
+			if ( i < end && (bytes[i] == '-' || bytes[i] == '+') ){
+				negativeExponent = bytes[i] == '-';
+				i++;
+			}
+			int power = 0;
+			boolean anyPower = false;
+			while ( i < end && bytes[i] >= '0' && bytes[i] <= '9' ){
+				if ( power < 100000 ) power = power*10 + (bytes[i] - '0');
+				anyPower = true;
+				i++;
+			}
+			if ( !anyPower ) any = false;
+			exponent += negativeExponent ? -power : power;
+		}
+		if ( any && i == end ){
+			if ( mantissa == 0 ) return negative ? -0F : 0F;
+			if ( mantissa < (1 << 24) && exponent >= -10 && exponent <= 10 ){
+				float value = exponent >= 0 ? mantissa*POWERS_OF_TEN[exponent] : mantissa/POWERS_OF_TEN[-exponent];
+				return negative ? -value : value;
+			}
+		}
+		String text = new String(bytes,start,end - start);
+		try {
+			return Float.parseFloat(text);
+		} catch ( NumberFormatException e ){
+			throw new RuntimeException("Not a number: \"" + text + "\" at byte " + (fileOffset + start));
+		}
+	}
+	
+	public static void main(String args[]) throws IOException {
+		Random random = new Random(1);
+		int numRows = 200000;
+		int dimensions = 32;
+		File file = File.createTempFile("data",".csv");
+		file.deleteOnExit();
+		Writer out = new BufferedWriter(new FileWriter(file));
+		for ( int i = 0; i < numRows; i++ ){
+			for ( int d = 0; d < dimensions; d++ ){
+				if ( d > 0 ) out.write(',');
+				out.write(Float.toString((float)random.nextGaussian()));
+			}
+			out.write('\n');
+		}
+		out.close();
+		System.out.println("Wrote " + file.length()/(1024*1024) + "MB");
+		
+		//the usual way, a line and a String per value at a time
+		long start = System.currentTimeMillis();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		List<float[]> rows = new ArrayList<float[]>();
+		String line;
+		while ( (line = in.readLine()) != null ){
+			String[] fields = line.split(",");
+			float[] row = new float[fields.length];
+			for ( int d = 0; d < fields.length; d++ ){
+				row[d] = Float.parseFloat(fields[d]);
+			}
+			rows.add(row);
+		}
+		in.close();
+		System.out.println("BufferedReader and split: " + (System.currentTimeMillis() - start) + "ms");
+		
+		start = System.currentTimeMillis();
+		FloatDataset data = read(file);
+		System.out.println("DelimitedFile: " + (System.currentTimeMillis() - start) + "ms, " + data.size() + " rows of " + data.getDimension());
+	}
+}
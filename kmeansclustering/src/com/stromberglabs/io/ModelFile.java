@@ -0,0 +1,161 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import com.stromberglabs.cluster.Cluster;
+import com.stromberglabs.cluster.KMeansModel;
+import com.stromberglabs.data.FloatDataset;
+
+/**
+ * <pre>
+ * Reads and writes {@link KMeansModel}s as binary files, so a model trained
+ * offline can be loaded by the serving processes without rebuilding its index.
+ * 
+ * The file is a header and then the model, see {@link KMeansModel#write(ByteBuffer)}:
+ * 
+ * int - MAGIC
+ * int - the format VERSION
+ * the index type, centroid count and dimension, the centroids row after row,
+ * then the flattened KD tree or forest if the model has one
+ * 
+ * Everything's little endian. Reading maps the file instead of streaming it, so
+ * the centroids and the tree arrays come out of the page cache in bulk copies,
+ * and processes loading the same file share the pages. A mapped buffer can't be
+ * bigger than 2GB, which is a million 128 dimension centroids with a forest of
+ * about 8 trees.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class ModelFile {
+	//"KMNS"
+	public static final int MAGIC = 0x4B4D4E53;
+	public static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	
+	public static void write(KMeansModel model, File file) throws IOException {
+		long size = HEADER_SIZE + model.getSerializedSize();
+		if ( size > Integer.MAX_VALUE ){
+			throw new RuntimeException("The model takes " + size + " bytes, more than can be mapped at once");
+		}
+		RandomAccessFile out = new RandomAccessFile(file,"rw");
+		try {
+			out.setLength(size);
+			MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE,0,size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			write(model,buffer);
+			buffer.force();
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Writes the header and the model at the buffer's position, the buffer has
+	 * to be little endian
+	 */
+	public static void write(KMeansModel model, ByteBuffer buffer){
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		model.write(buffer);
+	}
+	
+	public static KMeansModel read(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file,"r");
+		try {
+			//the mapping stays valid after the file's closed
+			MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY,0,in.length());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			return read(buffer);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Reads the header and the model from the buffer's position, the buffer has
+	 * to be little endian
+	 */
+	public static KMeansModel read(ByteBuffer buffer){
+		if ( buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC ){
+			throw new RuntimeException("Not a model file");
+		}
+		int version = buffer.getInt();
+		if ( version != VERSION ){
+			throw new RuntimeException("Can't read version " + version + " model files, only version " + VERSION);
+		}
+		return KMeansModel.read(buffer);
+	}
+	
+	public static void main(String args[]) throws IOException {
+		Random random = new Random(1);
+		int numClusters = 200000;
+		int dimensions = 64;
+		Cluster[] clusters = new Cluster[numClusters];
+		for ( int i = 0; i < numClusters; i++ ){
+			float[] location = new float[dimensions];
+			for ( int d = 0; d < dimensions; d++ ){
+				location[d] = (float)random.nextGaussian();
+			}
+			clusters[i] = new Cluster(location,i);
+		}
+		long start = System.currentTimeMillis();
+		KMeansModel model = new KMeansModel(clusters,KMeansModel.IndexType.KD_FOREST);
+		System.out.println("Built the forest in " + (System.currentTimeMillis() - start) + "ms");
+		File file = File.createTempFile("model",".kmns");
+		file.deleteOnExit();
+		start = System.currentTimeMillis();
+		write(model,file);
+		System.out.println("Wrote " + file.length()/(1024*1024) + "MB in " + (System.currentTimeMillis() - start) + "ms");
+		start = System.currentTimeMillis();
+		KMeansModel loaded = read(file);
+		System.out.println("Loaded it in " + (System.currentTimeMillis() - start) + "ms");
+		
+		FloatDataset queries = new FloatDataset(10000,dimensions);
+		for ( int i = 0; i < queries.getData().length; i++ ){
+			queries.getData()[i] = (float)random.nextGaussian();
+		}
+		int[] built = model.predictBatch(queries);
+		int[] read = loaded.predictBatch(queries);
+		int same = 0;
+		for ( int i = 0; i < built.length; i++ ){
+			if ( built[i] == read[i] ) same++;
+		}
+		System.out.println(same + " of " + built.length + " predictions are the same");
+	}
+}
@@ -0,0 +1,164 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import com.stromberglabs.data.ChunkSource;
+
+/**
+ * <pre>
+ * Reads the rows of an fvecs, bvecs or ivecs file, see {@link VecsFile}, a chunk
+ * at a time. Each read fills a direct buffer with as many whole rows as fit and
+ * then copies the values out in bulk through the buffer's float or int view,
+ * except for bvecs where every byte has to be widened to a float anyway.
+ * 
+ * As a {@link ChunkSource} it can feed the out of core clusterer, for the files
+ * that are too big to load at once.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class VecsChunkSource implements ChunkSource {
+	public static int READ_BUFFER_SIZE = 1 << 22;
+	
+	private VecsFile.Type mType;
+	private RandomAccessFile mFile;
+	private FileChannel mChannel;
+	private int mDimension;
+	private int mRecordSize;
+	private long mNumRows;
+	private ByteBuffer mBuffer;
+	
+	public VecsChunkSource(File file, VecsFile.Type type) throws IOException {
+		mType = type;
+		mFile = new RandomAccessFile(file,"r");
+		mChannel = mFile.getChannel();
+		long size = mChannel.size();
+		if ( size == 0 ){
+			mDimension = 0;
+			mRecordSize = 4;
+		} else {
+			ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			mChannel.read(header,0);
+			mDimension = header.getInt(0);
+			mRecordSize = 4 + mDimension*type.getValueSize();
+			if ( mDimension <= 0 || size % mRecordSize != 0 ){
+				mFile.close();
+				throw new RuntimeException(file + " isn't a " + type.toString().toLowerCase() + " file");
+			}
+		}
+		mNumRows = size/mRecordSize;
+		mBuffer = ByteBuffer.allocateDirect(Math.max(1,READ_BUFFER_SIZE/mRecordSize)*mRecordSize).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	public int getDimension(){
+		return mDimension;
+	}
+	
+	public long getNumRows(){
+		return mNumRows;
+	}
+	
+	public void reset() throws IOException {
+		seek(0);
+	}
+	
+	/**
+	 * Moves to a row, the next read starts there
+	 */
+	public void seek(long row) throws IOException {
+		mChannel.position(row*mRecordSize);
+	}
+	
+	public int read(float[] buffer) throws IOException {
+		if ( mType == VecsFile.Type.IVECS ) throw new RuntimeException("An ivecs file holds ints, read it with readInts");
+		return read(buffer,null,buffer.length);
+	}
+	
+	public int readInts(int[] buffer) throws IOException {
+		if ( mType != VecsFile.Type.IVECS ) throw new RuntimeException("Only an ivecs file holds ints");
+		return read(null,buffer,buffer.length);
+	}
+	
+	private int read(float[] floats, int[] ints, int length) throws IOException {
+		if ( mDimension == 0 ) return 0;
+		int maxRows = length/mDimension;
+		int rows = 0;
+		while ( rows < maxRows ){
+			mBuffer.clear();
+			mBuffer.limit((int)Math.min(mBuffer.capacity(),(long)(maxRows - rows)*mRecordSize));
+			while ( mBuffer.hasRemaining() && mChannel.read(mBuffer) > 0 );
+			mBuffer.flip();
+			int records = mBuffer.remaining()/mRecordSize;
+			if ( records == 0 ) break;
+			copy(records,floats,ints,rows*mDimension);
+			rows += records;
+		}
+		return rows;
+	}
+	
+	private void copy(int records, float[] floats, int[] ints, int offset){
+		int valuesPerRecord = mRecordSize/4;
+		FloatBuffer floatView = mType == VecsFile.Type.FVECS ? mBuffer.asFloatBuffer() : null;
+		IntBuffer intView = mType == VecsFile.Type.IVECS ? mBuffer.asIntBuffer() : null;
+		for ( int r = 0; r < records; r++ ){
+			int start = r*mRecordSize;
+			if ( mBuffer.getInt(start) != mDimension ){
+				throw new RuntimeException("Row with " + mBuffer.getInt(start) + " values in a file of " + mDimension + " dimensions");
+			}
+			switch ( mType ){
+				case FVECS:
+					floatView.position(r*valuesPerRecord + 1);
+					floatView.get(floats,offset,mDimension);
+					break;
+				case IVECS:
+					intView.position(r*valuesPerRecord + 1);
+					intView.get(ints,offset,mDimension);
+					break;
+				default:
+					for ( int d = 0; d < mDimension; d++ ){
+						floats[offset + d] = mBuffer.get(start + 4 + d) & 0xFF;
+					}
+			}
+			offset += mDimension;
+		}
+	}
+	
+	public void close() throws IOException {
+		mFile.close();
+	}
+}
@@ -0,0 +1,171 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.stromberglabs.data.FloatDataset;
+
+/**
+ * <pre>
+ * Reads and writes the fvecs, bvecs and ivecs files the public nearest neighbor
+ * benchmarks (SIFT1M, GIST1M, SIFT1B) come in. Every row is stored as:
+ * 
+ * int - the dimension d, little endian
+ * d values - floats for fvecs, unsigned bytes for bvecs, ints for ivecs
+ * 
+ * The readers go straight into a {@link FloatDataset} through
+ * {@link VecsChunkSource}, there's no object per row. bvecs values get widened
+ * to floats. ivecs files are usually the true neighbors of the queries, so
+ * they come back as an int array per row.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class VecsFile {
+	public enum Type {
+		FVECS(4), BVECS(1), IVECS(4);
+		
+		private int mValueSize;
+		
+		private Type(int valueSize){
+			mValueSize = valueSize;
+		}
+		
+		/**
+		 * @return The number of bytes one value takes
+		 */
+		public int getValueSize(){
+			return mValueSize;
+		}
+	}
+	
+	public static FloatDataset readFvecs(File file) throws IOException {
+		return read(file,Type.FVECS,0,Integer.MAX_VALUE);
+	}
+	
+	public static FloatDataset readBvecs(File file) throws IOException {
+		return read(file,Type.BVECS,0,Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Reads part of an fvecs or bvecs file, like a training sample off the front
+	 * of a file too big to load
+	 * 
+	 * @param start - the first row to read
+	 * @param count - the most rows to read
+	 */
+	public static FloatDataset read(File file, Type type, long start, int count) throws IOException {
+		VecsChunkSource source = new VecsChunkSource(file,type);
+		try {
+			long rows = Math.max(0,Math.min(count,source.getNumRows() - start));
+			if ( rows*source.getDimension() > Integer.MAX_VALUE ){
+				throw new RuntimeException(rows + " rows of " + source.getDimension() + " values don't fit in one dataset, read part of the file or stream it");
+			}
+			FloatDataset data = new FloatDataset((int)rows,Math.max(1,source.getDimension()));
+			source.seek(start);
+			source.read(data.getData());
+			return data;
+		} finally {
+			source.close();
+		}
+	}
+	
+	public static int[][] readIvecs(File file) throws IOException {
+		VecsChunkSource source = new VecsChunkSource(file,Type.IVECS);
+		try {
+			int dimension = source.getDimension();
+			int[][] rows = new int[(int)source.getNumRows()][dimension];
+			int[] buffer = new int[Math.max(1,(1 << 20)/Math.max(1,dimension))*Math.max(1,dimension)];
+			int row = 0;
+			int read;
+			while ( (read = source.readInts(buffer)) > 0 ){
+				for ( int i = 0; i < read; i++ ){
+					System.arraycopy(buffer,i*dimension,rows[row++],0,dimension);
+				}
+			}
+			return rows;
+		} finally {
+			source.close();
+		}
+	}
+	
+	public static void writeFvecs(FloatDataset data, File file) throws IOException {
+		write(data,null,Type.FVECS,file);
+	}
+	
+	/**
+	 * The values get rounded and clamped to 0-255
+	 */
+	public static void writeBvecs(FloatDataset data, File file) throws IOException {
+		write(data,null,Type.BVECS,file);
+	}
+	
+	public static void writeIvecs(int[][] rows, File file) throws IOException {
+		write(null,rows,Type.IVECS,file);
+	}
+	
+	private static void write(FloatDataset data, int[][] ints, Type type, File file) throws IOException {
+		int numRows = data != null ? data.size() : ints.length;
+		int dimension = data != null ? data.getDimension() : numRows > 0 ? ints[0].length : 0;
+		ByteBuffer record = ByteBuffer.allocate(4 + dimension*type.getValueSize()).order(ByteOrder.LITTLE_ENDIAN);
+		float[] row = new float[dimension];
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file),1 << 16);
+		try {
+			for ( int i = 0; i < numRows; i++ ){
+				record.clear();
+				record.putInt(dimension);
+				if ( type == Type.IVECS ){
+					if ( ints[i].length != dimension ) throw new RuntimeException("Row " + i + " has " + ints[i].length + " values, not " + dimension);
+					for ( int value : ints[i] ){
+						record.putInt(value);
+					}
+				} else {
+					data.getRow(i,row);
+					for ( float value : row ){
+						if ( type == Type.FVECS ){
+							record.putFloat(value);
+						} else {
+							record.put((byte)Math.max(0,Math.min(255,Math.round(value))));
+						}
+					}
+				}
+				out.write(record.array(),0,record.position());
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,452 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.tree;
+
+import java.util.Random;
+
+import com.stromberglabs.cluster.ClusterUtils;
+import com.stromberglabs.cluster.Clusterable;
+import com.stromberglabs.util.IntMinHeap;
+import com.stromberglabs.util.IntTopN;
+
+/**
+ * <pre>
+ * A ball tree over a set of Clusterable points. Every node is a ball, a center
+ * and a radius that holds all the points under it, and the points get split
+ * between the two children along the line between two far apart points:
+ * 
+ * 1) Find the point farthest from the node's center, then the point farthest from that one
+ * 2) Split the node's points at the median of their projections onto the line between the two
+ * 
+ * The searches prune a node when the distance to its center minus its radius is
+ * already worse than what they have, by the triangle inequality nothing inside
+ * can be any closer. Unlike the axis aligned splits of {@link ClusterKDTree} that
+ * keeps working in a few hundred dimensions, where a KD tree ends up looking at
+ * most of its points.
+ * 
+ * The tree is stored flat like {@link ClusterKDTree}, the points are permuted so
+ * every node covers a contiguous range of them, and leaves hold up to LEAF_SIZE
+ * points. The approximate searches count leaves as their bins. The searches use
+ * the same thread local scratch space as the KD trees, so they're safe to run
+ * from several threads at once, updates aren't.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class ClusterBallTree implements ClusterIndex {
+	public static int LEAF_SIZE = 16;
+	//the radii get stretched this much so rounding can't make a search prune a node it shouldn't
+	private static final double RADIUS_SLACK = 1 + 1e-9;
+	
+	private Clusterable[] mPoints;
+	private float[][] mLocations;
+	private int[] mIndexes;
+	
+	private int[] mStart;
+	private int[] mEnd;
+	private int[] mLeft;
+	private int[] mRight;
+	private float[][] mCenters;
+	private double[] mRadii;
+	private int mNumNodes;
+	
+	public ClusterBallTree(Clusterable[] points){
+		int numPoints = points.length;
+		mPoints = points;
+		mLocations = new float[numPoints][];
+		mIndexes = new int[numPoints];
+		for ( int i = 0; i < numPoints; i++ ){
+			mLocations[i] = points[i].getLocation();
+			mIndexes[i] = i;
+		}
+		int numNodes = countNodes(numPoints);
+		mStart = new int[numNodes];
+		mEnd = new int[numNodes];
+		mLeft = new int[numNodes];
+		mRight = new int[numNodes];
+		mCenters = new float[numNodes][];
+		mRadii = new double[numNodes];
+		build(0,numPoints,new double[numPoints]);
+	}
+	
+	private static int countNodes(int numPoints){
+		if ( numPoints <= LEAF_SIZE ) return 1;
+		int half = numPoints >>> 1;
+		return 1 + countNodes(half) + countNodes(numPoints - half);
+	}
+	
+	/**
+	 * Builds the subtree over mIndexes[start,end) and returns its root's id, the
+	 * projections are scratch space indexed by point
+	 */
+	private int build(int start, int end, double[] projections){
+		int node = mNumNodes++;
+		mStart[node] = start;
+		mEnd[node] = end;
+		fitLeaf(node);
+		if ( end - start <= LEAF_SIZE ){
+			mLeft[node] = -1;
+			mRight[node] = -1;
+			return node;
+		}
+		
+		float[] center = mCenters[node];
+		float[] first = farthest(center,start,end);
+		float[] second = farthest(first,start,end);
+		for ( int i = start; i < end; i++ ){
+			int index = mIndexes[i];
+			double projection = 0;
+			for ( int d = 0; d < first.length; d++ ){
+				projection += (second[d] - first[d])*mLocations[index][d];
+			}
+			projections[index] = projection;
+		}
+		int middle = (start + end) >>> 1;
+		select(start,end,middle,projections);
+		mLeft[node] = build(start,middle,projections);
+		mRight[node] = build(middle,end,projections);
+		return node;
+	}
+	
+	/**
+	 * Sets the node's center to the mean of its points and its radius to the
+	 * farthest of them
+	 */
+	private void fitLeaf(int node){
+		int dimensions = mLocations[0].length;
+		double[] sum = new double[dimensions];
+		for ( int i = mStart[node]; i < mEnd[node]; i++ ){
+			float[] location = mLocations[mIndexes[i]];
+			for ( int d = 0; d < dimensions; d++ ){
+				sum[d] += location[d];
+			}
+		}
+		float[] center = mCenters[node] != null ? mCenters[node] : new float[dimensions];
+		int count = mEnd[node] - mStart[node];
+		for ( int d = 0; d < dimensions; d++ ){
+			center[d] = (float)(sum[d]/count);
+		}
+		mCenters[node] = center;
+		double radius = 0;
+		for ( int i = mStart[node]; i < mEnd[node]; i++ ){
+			radius = Math.max(radius,ClusterUtils.getSquaredDistance(center,mLocations[mIndexes[i]],Double.MAX_VALUE));
+		}
+		mRadii[node] = Math.sqrt(radius)*RADIUS_SLACK;
+	}
+	
+	private float[] farthest(float[] from, int start, int end){
+		float[] farthest = mLocations[mIndexes[start]];
+		double farthestDistance = -1;
+		for ( int i = start; i < end; i++ ){
+			float[] location = mLocations[mIndexes[i]];
+			double distance = ClusterUtils.getSquaredDistance(from,location,Double.MAX_VALUE);
+			if ( distance > farthestDistance ){
+				farthestDistance = distance;
+				farthest = location;
+			}
+		}
+		return farthest;
+	}
+	
+	/**
+	 * Quickselect over mIndexes[start,end) by the points' projections
+	 */
+	private void select(int start, int end, int k, double[] projections){
+		int lo = start;
+		int hi = end - 1;
+		while ( hi > lo ){
+			double pivot = projections[mIndexes[(lo + hi) >>> 1]];
+			int i = lo;
+			int j = hi;
+			while ( i <= j ){
+				while ( projections[mIndexes[i]] < pivot ) i++;
+				while ( projections[mIndexes[j]] > pivot ) j--;
+				if ( i <= j ){
+					int temp = mIndexes[i];
+					mIndexes[i] = mIndexes[j];
+					mIndexes[j] = temp;
+					i++;
+					j--;
+				}
+			}
+			if ( k <= j ){
+				hi = j;
+			} else if ( k >= i ){
+				lo = i;
+			} else {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Moves the points to new locations without changing which leaf each one is
+	 * in. The leaves get refit exactly and every other ball gets grown to hold its
+	 * children's, so the searches stay exact, but if the points move far the balls
+	 * overlap more and the searches slow down. Nothing gets rebuilt, so this
+	 * always returns 0.
+	 */
+	public int update(Clusterable[] points){
+		if ( points.length != mPoints.length ){
+			throw new RuntimeException("Can't update a tree of " + mPoints.length + " points with " + points.length + " points");
+		}
+		mPoints = points;
+		for ( int i = 0; i < points.length; i++ ){
+			mLocations[i] = points[i].getLocation();
+		}
+		refit(0);
+		return 0;
+	}
+	
+	private void refit(int node){
+		if ( mLeft[node] == -1 ){
+			fitLeaf(node);
+			return;
+		}
+		int left = mLeft[node];
+		int right = mRight[node];
+		refit(left);
+		refit(right);
+		double leftCount = mEnd[left] - mStart[left];
+		double rightCount = mEnd[right] - mStart[right];
+		float[] center = mCenters[node];
+		for ( int d = 0; d < center.length; d++ ){
+			center[d] = (float)((mCenters[left][d]*leftCount + mCenters[right][d]*rightCount)/(leftCount + rightCount));
+		}
+		double leftReach = Math.sqrt(ClusterUtils.getSquaredDistance(center,mCenters[left],Double.MAX_VALUE)) + mRadii[left];
+		double rightReach = Math.sqrt(ClusterUtils.getSquaredDistance(center,mCenters[right],Double.MAX_VALUE)) + mRadii[right];
+		mRadii[node] = Math.max(leftReach,rightReach)*RADIUS_SLACK;
+	}
+	
+	private double centerDistance(float[] location, int node){
+		return Math.sqrt(ClusterUtils.getSquaredDistance(location,mCenters[node],Double.MAX_VALUE));
+	}
+	
+	/**
+	 * @return The distance to the node's center, or infinity once it's far enough
+	 * that nothing in the node could be within best
+	 */
+	private double centerDistance(float[] location, int node, double best){
+		double reach = best + mRadii[node];
+		double distance = ClusterUtils.getSquaredDistance(location,mCenters[node],reach*reach);
+		return distance > reach*reach ? Double.POSITIVE_INFINITY : Math.sqrt(distance);
+	}
+	
+	/**
+	 * @return The closest any point in the node could be to the location
+	 */
+	private double lowerBound(float[] location, int node){
+		double distance = centerDistance(location,node) - mRadii[node];
+		return distance > 0 ? distance : 0;
+	}
+	
+	public Clusterable exactNearestNeighbor(Clusterable point){
+		return mPoints[exactNearestIndex(point.getLocation())];
+	}
+	
+	/**
+	 * Depth first, going into the child with the closer ball first. Points at
+	 * exactly the same distance are broken by lowest index, the same as
+	 * {@link ClusterKDTree#exactNearestIndex(float[])}.
+	 */
+	public int exactNearestIndex(float[] location){
+		SearchScratch search = SearchScratch.get();
+		search.reset();
+		exactDescend(location,0,search);
+		return search.mClosest;
+	}
+	
+	private void exactDescend(float[] location, int node, SearchScratch search){
+		if ( mLeft[node] == -1 ){
+			for ( int i = mStart[node]; i < mEnd[node]; i++ ){
+				int index = mIndexes[i];
+				double dist = ClusterUtils.getSquaredDistance(location,mLocations[index],search.mClosestDist);
+				if ( dist < search.mClosestDist || (dist == search.mClosestDist && index < search.mClosest) ){
+					search.mClosest = index;
+					search.mClosestDist = dist;
+				}
+			}
+			return;
+		}
+		//go into the child whose center is closer first, the lower bounds are often both 0 near the top
+		double best = Math.sqrt(search.mClosestDist);
+		double leftDistance = centerDistance(location,mLeft[node],best);
+		double rightDistance = centerDistance(location,mRight[node],best);
+		boolean leftFirst = leftDistance <= rightDistance;
+		int near = leftFirst ? mLeft[node] : mRight[node];
+		int far = leftFirst ? mRight[node] : mLeft[node];
+		//ties have to be looked at too for the lowest index to win
+		if ( (leftFirst ? leftDistance : rightDistance) - mRadii[near] > best ) return;
+		exactDescend(location,near,search);
+		if ( (leftFirst ? rightDistance : leftDistance) - mRadii[far] > Math.sqrt(search.mClosestDist) ) return;
+		exactDescend(location,far,search);
+	}
+	
+	public Clusterable restrictedNearestNeighbor(Clusterable point, int numMaxBinsChecked){
+		return mPoints[restrictedNearestIndex(point.getLocation(),numMaxBinsChecked)];
+	}
+	
+	public int restrictedNearestIndex(float[] location, int numMaxBinsChecked){
+		SearchScratch search = SearchScratch.get();
+		search.reset();
+		search.mTop.clear(1);
+		searchTopN(location,numMaxBinsChecked,search);
+		search.mTop.drainSorted(search.mClosestOut,null);
+		return search.mClosestOut[0];
+	}
+	
+	public Neighbors kNearest(Clusterable point, int k, int maxChecks){
+		Neighbors result = new Neighbors(k);
+		kNearest(point.getLocation(),k,maxChecks,result);
+		return result;
+	}
+	
+	public int kNearest(float[] location, int k, int maxChecks, Neighbors result){
+		SearchScratch search = SearchScratch.get();
+		search.reset();
+		search.mTop.clear(k);
+		searchTopN(location,maxChecks,search);
+		result.fill(search.mTop);
+		return result.size();
+	}
+	
+	/**
+	 * Best bin first over the balls, closest lower bound first, checking up to
+	 * maxChecks leaves after the first one
+	 */
+	private void searchTopN(float[] location, int maxChecks, SearchScratch search){
+		IntMinHeap bins = search.mBins;
+		IntTopN top = search.mTop;
+		bins.add(0,0);
+		int count = 0;
+		while ( bins.size() > 0 ){
+			double bound = bins.peekPriority();
+			if ( bound*bound > top.worstPriority() ) break;
+			int node = bins.pop();
+			if ( mLeft[node] != -1 ){
+				bins.add(mLeft[node],lowerBound(location,mLeft[node]));
+				bins.add(mRight[node],lowerBound(location,mRight[node]));
+				continue;
+			}
+			if ( count > maxChecks ) break;
+			for ( int i = mStart[node]; i < mEnd[node]; i++ ){
+				int index = mIndexes[i];
+				double worst = top.worstPriority();
+				double dist = ClusterUtils.getSquaredDistance(location,mLocations[index],worst);
+				if ( dist < worst ){
+					top.add(index,dist);
+				}
+			}
+			count++;
+		}
+	}
+	
+	public Neighbors withinRadius(Clusterable point, double radius){
+		Neighbors result = new Neighbors();
+		withinRadius(point.getLocation(),radius,result);
+		return result;
+	}
+	
+	public int withinRadius(float[] location, double radius, Neighbors result){
+		result.clear(0);
+		radiusDescend(location,0,radius,result);
+		return result.size();
+	}
+	
+	private void radiusDescend(float[] location, int node, double radius, Neighbors result){
+		if ( lowerBound(location,node) > radius ) return;
+		if ( mLeft[node] != -1 ){
+			radiusDescend(location,mLeft[node],radius,result);
+			radiusDescend(location,mRight[node],radius,result);
+			return;
+		}
+		double radiusSquared = radius*radius;
+		for ( int i = mStart[node]; i < mEnd[node]; i++ ){
+			int index = mIndexes[i];
+			double dist = ClusterUtils.getSquaredDistance(location,mLocations[index],radiusSquared);
+			if ( dist <= radiusSquared ){
+				result.add(index,Math.sqrt(dist));
+			}
+		}
+	}
+	
+	public Clusterable getPoint(int index){
+		return mPoints[index];
+	}
+	
+	public int size(){
+		return mPoints.length;
+	}
+	
+	public String toString(){
+		return "Points = " + mPoints.length + ", nodes = " + mNumNodes + ", root radius = " + mRadii[0];
+	}
+	
+	public static void main(String args[]){
+		Random random = new Random(1);
+		int numPoints = 10000;
+		int numQueries = 1000;
+		int dimensions = 128;
+		//points on a random 4 dimensional plane through 128 dimensions, real data sits on
+		//something a lot flatter than the space it's in and that's where ball trees shine
+		float[][] basis = new float[4][dimensions];
+		for ( float[] direction : basis ){
+			for ( int d = 0; d < dimensions; d++ ){
+				direction[d] = (float)random.nextGaussian();
+			}
+		}
+		float[][] locations = new float[numPoints + numQueries][dimensions];
+		for ( float[] location : locations ){
+			for ( float[] direction : basis ){
+				double weight = random.nextGaussian()*10;
+				for ( int d = 0; d < dimensions; d++ ){
+					location[d] += weight*direction[d];
+				}
+			}
+			for ( int d = 0; d < dimensions; d++ ){
+				location[d] += random.nextGaussian()*0.1;
+			}
+		}
+		Clusterable[] points = new Clusterable[numPoints];
+		for ( int i = 0; i < numPoints; i++ ){
+			final float[] location = locations[i];
+			points[i] = new Clusterable(){
+				public float[] getLocation(){ return location; }
+			};
+		}
+		ClusterIndex[] indexes = { new ClusterKDTree(points,true), new ClusterBallTree(points) };
+		for ( ClusterIndex index : indexes ){
+			long start = System.currentTimeMillis();
+			for ( int i = 0; i < numQueries; i++ ){
+				index.exactNearestIndex(locations[numPoints + i]);
+			}
+			System.out.println(index.getClass().getSimpleName() + ": " + (System.currentTimeMillis() - start) + "ms for " + numQueries + " exact queries");
+		}
+	}
+}
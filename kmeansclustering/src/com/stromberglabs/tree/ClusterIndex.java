@@ -0,0 +1,84 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.tree;
+
+import com.stromberglabs.cluster.Clusterable;
+
+/**
+ * A searchable index over a fixed array of Clusterable points, like the cluster
+ * centers of a clusterer. The indexes taken and returned are positions in the
+ * array the index was built from.
+ * 
+ * @author Andrew
+ *
+ */
+public interface ClusterIndex {
+	
+	/**
+	 * @return The point closest to the given one, ties going to the lowest index
+	 */
+	public Clusterable exactNearestNeighbor(Clusterable point);
+	
+	public int exactNearestIndex(float[] location);
+	
+	/**
+	 * An approximate nearest neighbor search that gives up after checking the given
+	 * number of bins past the first one, what a bin is depends on the index
+	 */
+	public Clusterable restrictedNearestNeighbor(Clusterable point, int numMaxBinsChecked);
+	
+	public int restrictedNearestIndex(float[] location, int numMaxBinsChecked);
+	
+	/**
+	 * @return The k points closest to the given one, closest first. With
+	 * Integer.MAX_VALUE checks it's exact, even on indexes that search a
+	 * rotation of the points.
+	 */
+	public Neighbors kNearest(Clusterable point, int k, int maxChecks);
+	
+	public int kNearest(float[] location, int k, int maxChecks, Neighbors result);
+	
+	/**
+	 * @return Every point within the radius of the given one, in no particular order
+	 */
+	public Neighbors withinRadius(Clusterable point, double radius);
+	
+	public int withinRadius(float[] location, double radius, Neighbors result);
+	
+	/**
+	 * Moves the points of the index to new locations, point i of the new array
+	 * replacing point i of the old one
+	 * 
+	 * @return The number of points that had to be reindexed from scratch
+	 */
+	public int update(Clusterable[] points);
+	
+	public Clusterable getPoint(int index);
+	
+	public int size();
+}
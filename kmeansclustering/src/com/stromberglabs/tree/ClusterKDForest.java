@@ -27,20 +27,39 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.stromberglabs.tree;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.stromberglabs.cluster.Clusterable;
+import com.stromberglabs.tree.ClusterKDTree.SplitRule;
+import com.stromberglabs.util.IntMinHeap;
 
 /**
  * A class that will create a forest of KDTrees based on a set of Clusterable points
- * passed in at creation time. It will do an approximate nearest neighbor search on
- * each of the tree and take the mode of the tree's guessed for the best branch. 
+ * passed in at creation time. It does an approximate nearest neighbor search over
+ * all of the trees at once: every tree gets walked down once, then the unexplored
+ * branches of all the trees go into one priority queue and get checked closest
+ * first until the budget of checks runs out, the same way FLANN searches its
+ * randomized trees. Points reachable through more than one tree only get their
+ * distance computed once.
+ * 
+ * The trees are built at the same time on the fork/join pool, each one with its
+ * own seed derived from the forest's seed, so a forest built twice from the same
+ * clusters and seed comes out the same. By default they split on a random
+ * dimension at every node, in high dimensions splitting on one of the few
+ * highest variance ones instead usually does better, see {@link ClusterKDTree.SplitRule}.
+ * 
+ * Like the trees themselves the forest can be searched from as many threads as
+ * you like, but not while {@link #update(Clusterable[])} is running.
+ * 
+ * As a {@link ClusterIndex} the restricted searches are the shared queue search
+ * and the exact ones go to the first tree, every tree holds all the points.
  * 
  * @author Andrew
  *
  */
-public class ClusterKDForest {
+public class ClusterKDForest implements ClusterIndex {
 	private ClusterKDTree trees[];
 	private int mMaxBins;
 	
@@ -51,18 +70,138 @@ public class ClusterKDForest {
 	 * @param maxBinsChecked
 	 */
 	public ClusterKDForest(Clusterable clusters[], int numTrees, int maxBinsChecked){
+		this(clusters,numTrees,maxBinsChecked,ClusterKDTree.DEFAULT_SEED);
+	}
+	
+	/**
+	 * 
+	 * @param clusters
+	 * @param numTrees
+	 * @param maxBinsChecked
+	 * @param seed - the same seed gives the same forest
+	 */
+	public ClusterKDForest(Clusterable clusters[], int numTrees, int maxBinsChecked, long seed){
+		this(clusters,numTrees,maxBinsChecked,SplitRule.RANDOM,false,seed);
+	}
+	
+	/**
+	 * 
+	 * @param clusters
+	 * @param numTrees
+	 * @param maxBinsChecked
+	 * @param splitRule - how the trees choose their split dimensions
+	 * @param rotate - whether each tree gets built over its own random rotation of the clusters
+	 * @param seed - the same seed gives the same forest
+	 */
+	public ClusterKDForest(final Clusterable clusters[], int numTrees, int maxBinsChecked, final SplitRule splitRule, final boolean rotate, long seed){
+		if ( (long)numTrees*clusters.length > Integer.MAX_VALUE ){
+			throw new RuntimeException("Too many trees for " + clusters.length + " clusters, the search queue can't address them");
+		}
 		trees = new ClusterKDTree[numTrees];
+		final RecursiveAction[] builds = new RecursiveAction[numTrees];
 		for ( int i = 0; i < numTrees; i++ ){
-			trees[i] = new ClusterKDTree(clusters,true);
+			final int tree = i;
+			final long treeSeed = ClusterKDTree.mix(seed + i);
+			builds[i] = new RecursiveAction(){
+				private static final long serialVersionUID = 1L;
+				
+				protected void compute(){
+					trees[tree] = new ClusterKDTree(clusters,splitRule,rotate,treeSeed);
+				}
+			};
 		}
+		ForkJoinPool.commonPool().invoke(new RecursiveAction(){
+			private static final long serialVersionUID = 1L;
+			
+			protected void compute(){
+				invokeAll(builds);
+			}
+		});
 		mMaxBins = maxBinsChecked;
 	}
 	
 	/**
-	 * Choses the closest point in the tree through the following method:
-	 * - Create N KD trees which split on random dimensions
-	 * - Poll them for their approximate nearest neighbor checking M max bins
-	 * - Whatever bin gets the most votes "wins"
+	 * Moves the clusters of every tree to new locations, see {@link ClusterKDTree#update(Clusterable[])}
+	 * 
+	 * @param clusters - cluster i replaces the forest's cluster i
+	 * @return The number of points in the subtrees that had to be rebuilt, over all the trees
+	 */
+	public int update(final Clusterable clusters[]){
+		final int[] rebuilt = new int[trees.length];
+		final RecursiveAction[] updates = new RecursiveAction[trees.length];
+		for ( int i = 0; i < trees.length; i++ ){
+			final int tree = i;
+			updates[i] = new RecursiveAction(){
+				private static final long serialVersionUID = 1L;
+				
+				protected void compute(){
+					rebuilt[tree] = trees[tree].update(clusters);
+				}
+			};
+		}
+		ForkJoinPool.commonPool().invoke(new RecursiveAction(){
+			private static final long serialVersionUID = 1L;
+			
+			protected void compute(){
+				invokeAll(updates);
+			}
+		});
+		int total = 0;
+		for ( int count : rebuilt ){
+			total += count;
+		}
+		return total;
+	}
+	
+	private ClusterKDForest(ClusterKDTree[] trees, int maxBinsChecked){
+		this.trees = trees;
+		mMaxBins = maxBinsChecked;
+	}
+	
+	/**
+	 * @return The number of bytes {@link #write(ByteBuffer)} takes
+	 */
+	public long getSerializedSize(){
+		long size = 8;
+		for ( ClusterKDTree tree : trees ){
+			size += tree.getSerializedSize();
+		}
+		return size;
+	}
+	
+	/**
+	 * Writes the number of trees and bins checked, then every tree, see
+	 * {@link ClusterKDTree#write(ByteBuffer)}
+	 */
+	public void write(ByteBuffer out){
+		out.putInt(trees.length);
+		out.putInt(mMaxBins);
+		for ( ClusterKDTree tree : trees ){
+			tree.write(out);
+		}
+	}
+	
+	/**
+	 * Reads a forest written by {@link #write(ByteBuffer)} from the buffer's position
+	 * 
+	 * @param clusters - the same clusters, in the same order, the forest was built over
+	 */
+	public static ClusterKDForest read(Clusterable clusters[], ByteBuffer in){
+		ClusterKDTree[] trees = new ClusterKDTree[in.getInt()];
+		int maxBinsChecked = in.getInt();
+		for ( int i = 0; i < trees.length; i++ ){
+			trees[i] = ClusterKDTree.read(clusters,in);
+		}
+		return new ClusterKDForest(trees,maxBinsChecked);
+	}
+	
+	/**
+	 * Choses the closest point in the forest through the following method:
+	 * - Walk down each tree to the bin the point falls in, queueing the branches
+	 *   not taken along the way
+	 * - Keep taking the closest branch out of the queue, over all the trees, and
+	 *   walking down it, until M bins have been checked
+	 * - Return the closest of all the points that were checked
 	 * 
 	 * This is NOT guaranteed to return the closest, but has a good chance for
 	 * high dimensional data.
@@ -71,23 +210,137 @@ public class ClusterKDForest {
 	 * @return
 	 */
 	public Clusterable findClosest(Clusterable point){
-		Map<Clusterable,Integer> votes = new HashMap<Clusterable,Integer>();
+		return getPoint(findClosestIndex(point.getLocation()));
+	}
+	
+	/**
+	 * Same as {@link #findClosest(Clusterable)}, but takes the location directly and
+	 * returns the index of the closest point in the array the forest was built from
+	 * 
+	 * @param location
+	 * @return
+	 */
+	public int findClosestIndex(float[] location){
+		return findClosestIndex(location,mMaxBins);
+	}
+	
+	/**
+	 * Same as {@link #findClosestIndex(float[])} with a different budget of bins to
+	 * check than the forest was built with
+	 * 
+	 * @param location
+	 * @param maxBinsChecked
+	 * @return
+	 */
+	public int findClosestIndex(float[] location, int maxBinsChecked){
+		SearchScratch search = SearchScratch.get();
+		search(location,1,maxBinsChecked,search);
+		int[] closest = search.mClosestOut;
+		search.mTop.drainSorted(closest,null);
+		return closest[0];
+	}
+	
+	public Clusterable restrictedNearestNeighbor(Clusterable point, int numMaxBinsChecked){
+		return getPoint(findClosestIndex(point.getLocation(),numMaxBinsChecked));
+	}
+	
+	public int restrictedNearestIndex(float[] location, int numMaxBinsChecked){
+		return findClosestIndex(location,numMaxBinsChecked);
+	}
+	
+	public Clusterable exactNearestNeighbor(Clusterable point){
+		return trees[0].exactNearestNeighbor(point);
+	}
+	
+	public int exactNearestIndex(float[] location){
+		return trees[0].exactNearestIndex(location);
+	}
+	
+	/**
+	 * Finds the k points closest to the location with the same shared queue search
+	 * as {@link #findClosest(Clusterable)}. With Integer.MAX_VALUE checks it's the
+	 * exact search of the first tree instead.
+	 * 
+	 * @param point
+	 * @param k
+	 * @param maxChecks - the most bins to check, over all of the trees
+	 * @return The neighbors, closest first
+	 */
+	public Neighbors kNearest(Clusterable point, int k, int maxChecks){
+		Neighbors result = new Neighbors(k);
+		kNearest(point.getLocation(),k,maxChecks,result);
+		return result;
+	}
+	
+	/**
+	 * Same as {@link #kNearest(Clusterable, int, int)} but fills in the given result
+	 * instead of making a new one
+	 * 
+	 * @param location
+	 * @param k
+	 * @param maxChecks
+	 * @param result
+	 * @return The number of neighbors found
+	 */
+	public int kNearest(float[] location, int k, int maxChecks, Neighbors result){
+		if ( maxChecks == Integer.MAX_VALUE ) return trees[0].kNearest(location,k,maxChecks,result);
+		SearchScratch search = SearchScratch.get();
+		search(location,k,maxChecks,search);
+		result.fill(search.mTop);
+		return result.size();
+	}
+	
+	/**
+	 * The shared best bin first search, leaves the best k it found in search.mTop.
+	 * Each queued bin is tree*numPoints + node so one queue can hold all of them.
+	 */
+	private void search(float[] location, int k, int maxChecks, SearchScratch search){
+		int numPoints = trees[0].size();
+		search.reset();
+		search.mTop.clear(k);
+		search.trackVisited(numPoints);
 		for ( int i = 0; i < trees.length; i++ ){
-			Clusterable c = trees[i].restrictedNearestNeighbor(point,mMaxBins);
-			if ( votes.containsKey(c) ){
-				votes.put(c,votes.get(c)+1);
-			} else {
-				votes.put(c,1);
-			}
+			float[] query = trees[i].toSplitSpace(location,search,i);
+			search.setQuery(i,query);
+			trees[i].descendTopN(location,query,trees[i].getRoot(),search,i*numPoints);
 		}
-		int highVoteCount = 0;
-		Clusterable highest = null;
-		for ( Clusterable c : votes.keySet() ){
-			if ( votes.get(c) > highVoteCount ){
-				highVoteCount = votes.get(c);
-				highest = c;
-			}
+		IntMinHeap bins = search.mBins;
+		int count = 0;
+		while ( count < maxChecks && bins.size() > 0 ){
+			double binDist = bins.peekPriority();
+			if ( binDist*binDist > search.mTop.worstPriority() ) break;
+			int bin = bins.pop();
+			int tree = bin/numPoints;
+			trees[tree].descendTopN(location,search.getQuery(tree),bin - tree*numPoints,search,tree*numPoints);
+			count++;
 		}
-		return highest;
+	}
+	
+	/**
+	 * Finds every point within the radius of the location. Every tree holds all the
+	 * points and the radius search is exact, so this only needs one of them.
+	 * 
+	 * @param point
+	 * @param radius
+	 * @return The neighbors, in no particular order
+	 */
+	public Neighbors withinRadius(Clusterable point, double radius){
+		return trees[0].withinRadius(point,radius);
+	}
+	
+	public int withinRadius(float[] location, double radius, Neighbors result){
+		return trees[0].withinRadius(location,radius,result);
+	}
+	
+	/**
+	 * @param index
+	 * @return The point at the index in the array the forest was built from
+	 */
+	public Clusterable getPoint(int index){
+		return trees[0].getPoint(index);
+	}
+	
+	public int size(){
+		return trees[0].size();
 	}
 }
@@ -27,29 +27,96 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.stromberglabs.tree;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.Random;
-import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import com.stromberglabs.cluster.ClusterUtils;
 import com.stromberglabs.cluster.Point;
 import com.stromberglabs.cluster.Clusterable;
-import com.stromberglabs.util.SizedPriorityQueue;
+import com.stromberglabs.util.BufferUtils;
+import com.stromberglabs.util.IntMinHeap;
+import com.stromberglabs.util.IntTopN;
 
 /**
+ * <pre>
+ * A KD tree over a set of Clusterable points. Every node holds exactly one point
+ * (the median along its split dimension), so the tree is stored flat:
+ *  - mIndexes is a permutation of the point indexes, partitioned in place while
+ *    building so every subtree is a contiguous range of it
+ *  - a node's id is the position of its point in mIndexes
+ *  - the split dimension, split value and child ids of the nodes are kept in
+ *    parallel primitive arrays indexed by node id
+ * 
+ * The medians are found with quickselect rather than sorting, which keeps the
+ * build at O(n log n) since the clusterers rebuild the tree every iteration.
+ * Subtrees bigger than PARALLEL_BUILD_THRESHOLD are built on the fork/join pool,
+ * they only ever touch their own range of the arrays so they don't need locking.
+ * 
+ * Searches keep their bins in an {@link IntMinHeap} of node ids that belongs to
+ * the searching thread and gets reused from one query to the next, so any number
+ * of threads can search the same tree at once. Just not while it's being updated.
+ * 
+ * The random split dimensions come from hashing the tree's seed with the node
+ * id instead of from a shared Random, so the same points and seed always make
+ * the same tree no matter how the build got split up between threads.
+ * 
+ * There are three ways of choosing the split dimension, see {@link SplitRule}.
+ * The tree can also be built over a random rotation of the points, so the splits
+ * aren't all lined up with the original axes. The distances are still computed
+ * on the original locations, the rotation only decides which side of a split
+ * things fall on. The rounding of the rotation could put the nearest point on
+ * the wrong side of a split though, so the exact searches on a rotated tree
+ * scan all the original locations instead, rotated trees are for the
+ * approximate searches.
+ * 
+ * When the points move a little, like cluster centers late in a run, the tree
+ * can be updated in place instead of built again, see {@link #update(Clusterable[])}.
+ * </pre>
  * 
  * @author Andrew
  *
  */
-public class ClusterKDTree {
-	private static Random r = new Random(System.currentTimeMillis());
+public class ClusterKDTree implements ClusterIndex {
+	/**
+	 * <pre>
+	 * CYCLIC - split on dimension 0,1,2,... going down the tree
+	 * RANDOM - split on any dimension but the parent's, all equally likely
+	 * VARIANCE - split on one of the VARIANCE_TOP_DIMENSIONS dimensions with the
+	 *  most spread, estimated from up to VARIANCE_SAMPLE_SIZE of the node's points.
+	 *  In high dimensions this keeps the trees from splitting on dimensions that
+	 *  barely separate anything.
+	 * </pre>
+	 */
+	public enum SplitRule { CYCLIC, RANDOM, VARIANCE }
 	
-	Clusterable cluster = null;
-	int splitIndex = -1;
-	double splitValue = -1;
+	public static long DEFAULT_SEED = 1;
+	public static int PARALLEL_BUILD_THRESHOLD = 4096;
+	public static int VARIANCE_SAMPLE_SIZE = 100;
+	public static int VARIANCE_TOP_DIMENSIONS = 5;
+	public static double REBUILD_OVERLAP = 0.1;
 	
-	ClusterKDTree right;
-	ClusterKDTree left;
+	private SplitRule mSplitRule;
+	private long mSeed;
+	
+	private Clusterable[] mPoints;
+	private float[][] mLocations;
+	//the locations the splits are made on, the same as mLocations unless the tree is rotated
+	private float[][] mSplitLocations;
+	private float[][] mRotation;
+	private int[] mIndexes;
+	
+	//node arrays, a node id is a position in mIndexes
+	private int[] mSplitDimensions;
+	//the highest value on the split dimension under the left child and the lowest under
+	//the right, they're both the split value until an update moves the points
+	private float[] mLeftMax;
+	private float[] mRightMin;
+	private int[] mLeft;
+	private int[] mRight;
+	private int mRoot;
 	
 	/**
 	 * Creates a KDTree which takes an array of Clusterable objects. It has the option to either
@@ -61,52 +128,381 @@ public class ClusterKDTree {
 	 * @param randomSplit
 	 */
 	public ClusterKDTree(Clusterable[] points, boolean randomSplit){
-		this(points,randomSplit ? -1 : 0,randomSplit);
+		this(points,randomSplit,DEFAULT_SEED);
+	}
+	
+	/**
+	 * @param points
+	 * @param randomSplit
+	 * @param seed - picks the random split dimensions, the same seed gives the same tree
+	 */
+	public ClusterKDTree(Clusterable[] points, boolean randomSplit, long seed){
+		this(points,randomSplit ? SplitRule.RANDOM : SplitRule.CYCLIC,false,seed);
+	}
+	
+	/**
+	 * @param points
+	 * @param splitRule - how to choose the split dimensions
+	 * @param rotate - whether to build the tree over a random rotation of the points
+	 * @param seed - picks the random split dimensions and rotation, the same seed gives the same tree
+	 */
+	public ClusterKDTree(Clusterable[] points, SplitRule splitRule, boolean rotate, long seed){
+		mSplitRule = splitRule;
+		mSeed = seed;
+		int numPoints = points.length;
+		mPoints = points;
+		mLocations = new float[numPoints][];
+		mIndexes = new int[numPoints];
+		for ( int i = 0; i < numPoints; i++ ){
+			mLocations[i] = points[i].getLocation();
+			mIndexes[i] = i;
+		}
+		mSplitLocations = mLocations;
+		if ( rotate ){
+			mRotation = randomRotation(mLocations[0].length,seed);
+			mSplitLocations = new float[numPoints][];
+			for ( int i = 0; i < numPoints; i++ ){
+				mSplitLocations[i] = rotate(mLocations[i],new float[mRotation.length]);
+			}
+		}
+		mSplitDimensions = new int[numPoints];
+		mLeftMax = new float[numPoints];
+		mRightMin = new float[numPoints];
+		mLeft = new int[numPoints];
+		mRight = new int[numPoints];
+		mRoot = buildRange(0,numPoints,splitRule == SplitRule.CYCLIC ? 0 : -1);
+	}
+	
+	/**
+	 * Puts back a tree written by {@link #write(ByteBuffer)} instead of building it
+	 */
+	private ClusterKDTree(Clusterable[] points, ByteBuffer in){
+		int splitRule = in.getInt();
+		if ( splitRule < 0 || splitRule >= SplitRule.values().length ){
+			throw new RuntimeException("Unknown split rule " + splitRule + ", not a written tree");
+		}
+		mSplitRule = SplitRule.values()[splitRule];
+		mSeed = in.getLong();
+		boolean rotated = in.getInt() != 0;
+		int numPoints = in.getInt();
+		if ( numPoints != points.length ){
+			throw new RuntimeException("The tree was written over " + numPoints + " points, not " + points.length);
+		}
+		mRoot = in.getInt();
+		mPoints = points;
+		mLocations = new float[numPoints][];
+		for ( int i = 0; i < numPoints; i++ ){
+			mLocations[i] = points[i].getLocation();
+		}
+		mSplitLocations = mLocations;
+		if ( rotated ){
+			int dimensionality = in.getInt();
+			mRotation = BufferUtils.getMatrix(in,dimensionality,dimensionality);
+			mSplitLocations = BufferUtils.getMatrix(in,numPoints,dimensionality);
+		}
+		mIndexes = BufferUtils.getInts(in,numPoints);
+		mSplitDimensions = BufferUtils.getInts(in,numPoints);
+		mLeftMax = BufferUtils.getFloats(in,numPoints);
+		mRightMin = BufferUtils.getFloats(in,numPoints);
+		mLeft = BufferUtils.getInts(in,numPoints);
+		mRight = BufferUtils.getInts(in,numPoints);
 	}
 	
-	private ClusterKDTree(Clusterable[] points, int height, boolean randomSplit){
-		if ( points.length == 1 ){
-			cluster = points[0];
+	/**
+	 * Builds the subtree over mIndexes[start,end), on the fork/join pool if it's big enough
+	 */
+	private int buildRange(int start, int end, int height){
+		if ( end - start > PARALLEL_BUILD_THRESHOLD && !ForkJoinTask.inForkJoinPool() ){
+			return ForkJoinPool.commonPool().invoke(new BuildTask(start,end,height));
+		}
+		return build(start,end,height);
+	}
+	
+	/**
+	 * Builds the subtree over mIndexes[start,end) and returns its root's id
+	 */
+	private int build(int start, int end, int height){
+		if ( end - start == 1 ){
+			mSplitDimensions[start] = -1;
+			mLeft[start] = -1;
+			mRight[start] = -1;
+			return start;
+		}
+		
+		int node = (start + end) >>> 1;
+		int splitIndex = chooseSplitDimension(mLocations[0].length,height,node,start,end);
+		select(start,end,node,splitIndex);
+		mSplitDimensions[node] = splitIndex;
+		mLeftMax[node] = mSplitLocations[mIndexes[node]][splitIndex];
+		mRightMin[node] = mLeftMax[node];
+		
+		int next = mSplitRule == SplitRule.CYCLIC ? height+1 : splitIndex;
+		if ( end - start > PARALLEL_BUILD_THRESHOLD && ForkJoinTask.inForkJoinPool() ){
+			BuildTask left = null;
+			if ( node > start ){
+				left = new BuildTask(start,node,next);
+				left.fork();
+			}
+			mRight[node] = node + 1 < end ? build(node+1,end,next) : -1;
+			mLeft[node] = left != null ? left.join() : -1;
 		} else {
-			splitIndex = chooseSplitDimension(points[0].getLocation().length,height,randomSplit);
-			splitValue = chooseSplit(points,splitIndex);
-			
-			Vector<Clusterable> left = new Vector<Clusterable>();
-			Vector<Clusterable> right = new Vector<Clusterable>();
-			for ( int i = 0; i < points.length; i++ ){
-				double val = points[i].getLocation()[splitIndex];
-				if ( val == splitValue && cluster == null ){
-					cluster = points[i];
-				} else if ( val >= splitValue ){
-					right.add(points[i]);
-				} else {
-					left.add(points[i]);
+			mLeft[node] = node > start ? build(start,node,next) : -1;
+			mRight[node] = node + 1 < end ? build(node+1,end,next) : -1;
+		}
+		return node;
+	}
+	
+	private class BuildTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		private int mStart;
+		private int mEnd;
+		private int mHeight;
+		
+		public BuildTask(int start, int end, int height){
+			mStart = start;
+			mEnd = end;
+			mHeight = height;
+		}
+		
+		protected Integer compute(){
+			return build(mStart,mEnd,mHeight);
+		}
+	}
+	
+	/**
+	 * <pre>
+	 * Moves the points of the tree to new locations without building it over again,
+	 * for when the points are cluster centers that only moved a little since the
+	 * last iteration. Point i of the new array replaces point i of the old one.
+	 * 
+	 * Every node keeps its split dimension, but its left max and right min get
+	 * refit to wherever its points ended up, which keeps the searches exact even
+	 * when the two sides overlap. The more they overlap the more of the tree the
+	 * searches have to look at though, so a subtree whose sides overlap by more
+	 * than REBUILD_OVERLAP of its width on the split dimension gets rebuilt in
+	 * place over the same range.
+	 * </pre>
+	 * 
+	 * @param points
+	 * @return The number of points in the subtrees that had to be rebuilt
+	 */
+	public int update(Clusterable[] points){
+		if ( points.length != mPoints.length ){
+			throw new RuntimeException("Can't update a tree of " + mPoints.length + " points with " + points.length + " points");
+		}
+		mPoints = points;
+		for ( int i = 0; i < points.length; i++ ){
+			mLocations[i] = points[i].getLocation();
+			if ( mRotation != null ){
+				rotate(mLocations[i],mSplitLocations[i]);
+			}
+		}
+		//the tree is balanced, so this is as deep as it goes
+		int depth = 33 - Integer.numberOfLeadingZeros(points.length);
+		int dimensionality = mSplitLocations[0].length;
+		float[][] mins = new float[depth][dimensionality];
+		float[][] maxes = new float[depth][dimensionality];
+		return refit(mRoot,0,points.length,mSplitRule == SplitRule.CYCLIC ? 0 : -1,0,mins,maxes);
+	}
+	
+	/**
+	 * Refits the subtree over mIndexes[start,end) bottom up, leaving the box around
+	 * its points in mins[depth] and maxes[depth]
+	 */
+	private int refit(int node, int start, int end, int height, int depth, float[][] mins, float[][] maxes){
+		float[] min = mins[depth];
+		float[] max = maxes[depth];
+		float[] location = mSplitLocations[mIndexes[node]];
+		System.arraycopy(location,0,min,0,location.length);
+		System.arraycopy(location,0,max,0,location.length);
+		int splitIndex = mSplitDimensions[node];
+		if ( splitIndex == -1 ) return 0;
+		
+		int rebuilt = 0;
+		int next = mSplitRule == SplitRule.CYCLIC ? height+1 : splitIndex;
+		float leftMax = location[splitIndex];
+		float rightMin = location[splitIndex];
+		if ( mLeft[node] != -1 ){
+			rebuilt += refit(mLeft[node],start,node,next,depth+1,mins,maxes);
+			leftMax = maxes[depth+1][splitIndex];
+			grow(min,max,mins[depth+1],maxes[depth+1]);
+		}
+		if ( mRight[node] != -1 ){
+			rebuilt += refit(mRight[node],node+1,end,next,depth+1,mins,maxes);
+			rightMin = mins[depth+1][splitIndex];
+			grow(min,max,mins[depth+1],maxes[depth+1]);
+		}
+		if ( mLeft[node] == -1 ) leftMax = rightMin;
+		if ( mRight[node] == -1 ) rightMin = leftMax;
+		
+		if ( leftMax - rightMin > REBUILD_OVERLAP*(max[splitIndex] - min[splitIndex]) ){
+			//the root of a range is always its middle, so the parent's child id stays the same
+			buildRange(start,end,height);
+			return end - start;
+		}
+		mLeftMax[node] = leftMax;
+		mRightMin[node] = rightMin;
+		return rebuilt;
+	}
+	
+	private static void grow(float[] min, float[] max, float[] childMin, float[] childMax){
+		for ( int i = 0; i < min.length; i++ ){
+			if ( childMin[i] < min[i] ) min[i] = childMin[i];
+			if ( childMax[i] > max[i] ) max[i] = childMax[i];
+		}
+	}
+	
+	/**
+	 * Picks the dimension to split the node over mIndexes[start,end) on, for random
+	 * splits any dimension but the parent's split dimension (passed in as height)
+	 * is equally likely.
+	 */
+	private int chooseSplitDimension(int dimensionality,int height,int node,int start,int end){
+		if ( mSplitRule == SplitRule.CYCLIC ) return height % dimensionality;
+		if ( dimensionality == 1 ) return 0;
+		long hash = mix(mSeed + node * 0x9E3779B97F4A7C15L);
+		double rand = (hash >>> 11) * 0x1.0p-53;
+		if ( mSplitRule == SplitRule.VARIANCE ){
+			int[] top = highestVarianceDimensions(start,end);
+			return top[(int)(rand * top.length)];
+		}
+		int choices = height == -1 ? dimensionality : dimensionality - 1;
+		int dimension = (int)(rand * choices);
+		if ( height != -1 && dimension >= height ) dimension++;
+		return dimension;
+	}
+	
+	/**
+	 * Estimates the variance of every dimension from an evenly spaced sample of the
+	 * points in mIndexes[start,end) and returns the dimensions with the most
+	 */
+	private int[] highestVarianceDimensions(int start, int end){
+		int dimensionality = mSplitLocations[0].length;
+		int count = end - start;
+		int samples = Math.min(count,VARIANCE_SAMPLE_SIZE);
+		double[] sums = new double[dimensionality];
+		double[] squares = new double[dimensionality];
+		for ( int i = 0; i < samples; i++ ){
+			float[] location = mSplitLocations[mIndexes[start + (int)((long)i*count/samples)]];
+			for ( int j = 0; j < dimensionality; j++ ){
+				sums[j] += location[j];
+				squares[j] += (double)location[j]*location[j];
+			}
+		}
+		IntTopN top = new IntTopN(Math.min(VARIANCE_TOP_DIMENSIONS,dimensionality));
+		for ( int j = 0; j < dimensionality; j++ ){
+			double mean = sums[j]/samples;
+			//negated so the top N with the lowest priorities are the ones with the most variance
+			top.add(j,-(squares[j]/samples - mean*mean));
+		}
+		int[] dimensions = new int[top.size()];
+		top.drainSorted(dimensions,null);
+		return dimensions;
+	}
+	
+	/**
+	 * Makes a random orthonormal matrix by Gram-Schmidt on gaussian rows
+	 */
+	private static float[][] randomRotation(int dimensionality, long seed){
+		Random random = new Random(seed);
+		double[][] rows = new double[dimensionality][dimensionality];
+		for ( int i = 0; i < dimensionality; i++ ){
+			double[] row = rows[i];
+			double norm = 0;
+			while ( norm < 1e-6 ){
+				for ( int j = 0; j < dimensionality; j++ ){
+					row[j] = random.nextGaussian();
+				}
+				for ( int k = 0; k < i; k++ ){
+					double dot = 0;
+					for ( int j = 0; j < dimensionality; j++ ){
+						dot += row[j]*rows[k][j];
+					}
+					for ( int j = 0; j < dimensionality; j++ ){
+						row[j] -= dot*rows[k][j];
+					}
+				}
+				norm = 0;
+				for ( int j = 0; j < dimensionality; j++ ){
+					norm += row[j]*row[j];
 				}
+				norm = Math.sqrt(norm);
+			}
+			for ( int j = 0; j < dimensionality; j++ ){
+				row[j] /= norm;
+			}
+		}
+		float[][] rotation = new float[dimensionality][dimensionality];
+		for ( int i = 0; i < dimensionality; i++ ){
+			for ( int j = 0; j < dimensionality; j++ ){
+				rotation[i][j] = (float)rows[i][j];
 			}
-			
-			if ( right.size() > 0 )
-				this.right = new ClusterKDTree(right.toArray(new Clusterable[right.size()]),randomSplit ? splitIndex : height+1, randomSplit);
-			if ( left.size() > 0 )
-				this.left = new ClusterKDTree(left.toArray(new Clusterable[left.size()]),randomSplit ? splitIndex : height+1, randomSplit);
 		}
+		return rotation;
 	}
 	
-	private int chooseSplitDimension(int dimensionality,int height,boolean random){
-		if ( !random ) return height % dimensionality;
-		int rand = r.nextInt(dimensionality);
-		while ( rand == height ){
-			rand = r.nextInt(dimensionality);
+	private float[] rotate(float[] location, float[] rotated){
+		for ( int i = 0; i < mRotation.length; i++ ){
+			float[] row = mRotation[i];
+			double sum = 0;
+			for ( int j = 0; j < row.length; j++ ){
+				sum += row[j]*location[j];
+			}
+			rotated[i] = (float)sum;
 		}
-		return rand;
+		return rotated;
 	}
 	
-	private double chooseSplit(Clusterable points[],int splitIdx){
-		double[] values = new double[points.length];
-		for ( int i = 0; i < points.length; i++ ){
-			values[i] = points[i].getLocation()[splitIdx];
+	/**
+	 * @return The location in the space the splits were made in, which is just the
+	 * location unless the tree is rotated, in which case it's rotated into one of
+	 * search's buffers
+	 */
+	float[] toSplitSpace(float[] location, SearchScratch search, int buffer){
+		if ( mRotation == null ) return location;
+		return rotate(location,search.getBuffer(buffer,mRotation.length));
+	}
+	
+	/**
+	 * The splitmix64 finalizer, turns a seed and a node id into well spread bits
+	 */
+	static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+	
+	/**
+	 * Quickselect over mIndexes[start,end), afterwards position k holds the point
+	 * that would be there if the range were sorted along the dimension, everything
+	 * before it is less or equal and everything after it is greater or equal.
+	 */
+	private void select(int start, int end, int k, int dimension){
+		int lo = start;
+		int hi = end - 1;
+		while ( hi > lo ){
+			float pivot = mSplitLocations[mIndexes[(lo + hi) >>> 1]][dimension];
+			int i = lo;
+			int j = hi;
+			while ( i <= j ){
+				while ( mSplitLocations[mIndexes[i]][dimension] < pivot ) i++;
+				while ( mSplitLocations[mIndexes[j]][dimension] > pivot ) j--;
+				if ( i <= j ){
+					int temp = mIndexes[i];
+					mIndexes[i] = mIndexes[j];
+					mIndexes[j] = temp;
+					i++;
+					j--;
+				}
+			}
+			if ( k <= j ){
+				hi = j;
+			} else if ( k >= i ){
+				lo = i;
+			} else {
+				break;
+			}
 		}
-		Arrays.sort(values);
-		return values[values.length/2];
 	}
 	
 	/**
@@ -118,100 +514,379 @@ public class ClusterKDTree {
 	 * @return
 	 */
 	public Clusterable restrictedNearestNeighbor(Clusterable point, int numMaxBinsChecked){
+		return mPoints[restrictedNearestIndex(point.getLocation(),numMaxBinsChecked)];
+	}
+	
+	/**
+	 * Same search as {@link #restrictedNearestNeighbor(Clusterable, int)}, but takes
+	 * the location directly and returns the index of the closest point in the array
+	 * the tree was built from
+	 * 
+	 * @param location
+	 * @param numMaxBinsChecked
+	 * @return
+	 */
+	public int restrictedNearestIndex(float[] location, int numMaxBinsChecked){
+		SearchScratch search = SearchScratch.get();
+		search.reset();
+		float[] splitLocation = toSplitSpace(location,search,0);
 		//Do the first run down the tree, this gives us the initial closest point and the initial set of bins to search
-		SizedPriorityQueue<ClusterKDTree> bins = new SizedPriorityQueue<ClusterKDTree>(50,true);
-		Clusterable closest = restrictedNearestNeighbor(point,bins);
-		double closestDist = ClusterUtils.getEuclideanDistance(point,closest);
-		//System.out.println("retrieved point: " + closest + ", dist: " + closestDist);
+		descend(location,splitLocation,mRoot,search);
 		int count = 0;
+		IntMinHeap bins = search.mBins;
 		while ( count < numMaxBinsChecked && bins.size() > 0 ){
-			ClusterKDTree nextBin = bins.pop();
-			//System.out.println("Popping of next bin: " + nextBin);
-			Clusterable possibleClosest = nextBin.restrictedNearestNeighbor(point,bins);
-			double dist = ClusterUtils.getEuclideanDistance(point,possibleClosest);
-			if ( dist < closestDist ){
-				closest = possibleClosest;
-				closestDist = dist;
+			//the bins come out closest first, once the nearest one is beyond the best so far the rest are too
+			double binDist = bins.peekPriority();
+			if ( binDist*binDist > search.mClosestDist ) break;
+			descend(location,splitLocation,bins.pop(),search);
+			count++;
+		}
+		return search.mClosest;
+	}
+	
+	/**
+	 * Walks from the node down to a leaf on the side of each split the point falls
+	 * on, queueing up the other sides as bins to check later and checking the
+	 * point held by every node along the way.
+	 */
+	private void descend(float[] location, float[] splitLocation, int node, SearchScratch search){
+		while ( node != -1 ){
+			int index = mIndexes[node];
+			double dist = ClusterUtils.getSquaredDistance(location,mLocations[index],search.mClosestDist);
+			if ( dist < search.mClosestDist ){
+				search.mClosest = index;
+				search.mClosestDist = dist;
+			}
+			
+			int splitIndex = mSplitDimensions[node];
+			if ( splitIndex == -1 ) break;
+			double toLeft = splitLocation[splitIndex] - mLeftMax[node];
+			double toRight = mRightMin[node] - splitLocation[splitIndex];
+			int near = toLeft >= toRight ? mRight[node] : mLeft[node];
+			int far = toLeft >= toRight ? mLeft[node] : mRight[node];
+			if ( near == -1 ){
+				near = far;
+				far = -1;
+			}
+			if ( far != -1 ){
+				search.mBins.add(far,Math.max(0,Math.max(toLeft,toRight)));
+			}
+			node = near;
+		}
+	}
+	
+	/**
+	 * Finds the k points closest to the location. It's the same best bin first search
+	 * as {@link #restrictedNearestNeighbor(Clusterable, int)}, just keeping the best k
+	 * instead of the best one, so with Integer.MAX_VALUE checks it's exact. On a
+	 * rotated tree the exact one is a scan over all the points, like the other
+	 * exact searches.
+	 * 
+	 * @param point
+	 * @param k
+	 * @param maxChecks - the most bins to check after the first trip down the tree
+	 * @return The neighbors, closest first
+	 */
+	public Neighbors kNearest(Clusterable point, int k, int maxChecks){
+		Neighbors result = new Neighbors(k);
+		kNearest(point.getLocation(),k,maxChecks,result);
+		return result;
+	}
+	
+	/**
+	 * Same as {@link #kNearest(Clusterable, int, int)} but fills in the given result
+	 * instead of making a new one
+	 * 
+	 * @param location
+	 * @param k
+	 * @param maxChecks
+	 * @param result
+	 * @return The number of neighbors found, which is k unless the tree is smaller
+	 */
+	public int kNearest(float[] location, int k, int maxChecks, Neighbors result){
+		SearchScratch search = SearchScratch.get();
+		search.reset();
+		search.mTop.clear(k);
+		if ( mRotation != null && maxChecks == Integer.MAX_VALUE ){
+			IntTopN top = search.mTop;
+			for ( int i = 0; i < mLocations.length; i++ ){
+				double worst = top.worstPriority();
+				double dist = ClusterUtils.getSquaredDistance(location,mLocations[i],worst);
+				if ( dist < worst ){
+					top.add(i,dist);
+				}
 			}
+		} else {
+			searchTopN(location,maxChecks,search);
+		}
+		result.fill(search.mTop);
+		return result.size();
+	}
+	
+	/**
+	 * Runs a best bin first search from the root feeding every point it checks into
+	 * search.mTop, which a forest can share between its trees
+	 */
+	void searchTopN(float[] location, int maxChecks, SearchScratch search){
+		float[] splitLocation = toSplitSpace(location,search,0);
+		descendTopN(location,splitLocation,mRoot,search,0);
+		int count = 0;
+		IntMinHeap bins = search.mBins;
+		while ( count < maxChecks && bins.size() > 0 ){
+			double binDist = bins.peekPriority();
+			if ( binDist*binDist > search.mTop.worstPriority() ) break;
+			descendTopN(location,splitLocation,bins.pop(),search,0);
 			count++;
 		}
-		return closest;
 	}
 	
-	private Clusterable restrictedNearestNeighbor(Clusterable point, SizedPriorityQueue<ClusterKDTree> values){
-		if ( splitIndex == -1 ) { /* System.out.println("woo hit the bottom node returning " + cluster); */return cluster; }
-		
-		double val = point.getLocation()[splitIndex];
-		Clusterable closest = null;
-		if ( val >= splitValue && right != null || left == null ){
-			//put the left branch into the priority queue
-			if ( left != null ){
-				double dist = val - splitValue;
-				values.add(left,dist);
+	/**
+	 * Same walk as {@link #descend(float[], float[], int, SearchScratch)} but offering every point
+	 * to the top N and skipping points search has already seen, if it's tracking them.
+	 * The bins get binOffset added to their node ids so that a forest can tell which
+	 * tree they belong to when all its trees share one queue.
+	 */
+	void descendTopN(float[] location, float[] splitLocation, int node, SearchScratch search, int binOffset){
+		IntTopN top = search.mTop;
+		while ( node != -1 ){
+			int index = mIndexes[node];
+			if ( search.visit(index) ){
+				double worst = top.worstPriority();
+				double dist = ClusterUtils.getSquaredDistance(location,mLocations[index],worst);
+				if ( dist < worst ){
+					top.add(index,dist);
+				}
+			}
+			
+			int splitIndex = mSplitDimensions[node];
+			if ( splitIndex == -1 ) break;
+			double toLeft = splitLocation[splitIndex] - mLeftMax[node];
+			double toRight = mRightMin[node] - splitLocation[splitIndex];
+			int near = toLeft >= toRight ? mRight[node] : mLeft[node];
+			int far = toLeft >= toRight ? mLeft[node] : mRight[node];
+			if ( near == -1 ){
+				near = far;
+				far = -1;
 			}
-			closest = right.restrictedNearestNeighbor(point,values);
-		} else if ( val < splitValue && left != null || right == null ) {
-			//put the right branch into the priority queue
-			if ( right != null ){
-				double dist = splitValue - val;
-				values.add(right,dist);
+			if ( far != -1 ){
+				search.mBins.add(far + binOffset,Math.max(0,Math.max(toLeft,toRight)));
+			}
+			node = near;
+		}
+	}
+	
+	int getRoot(){
+		return mRoot;
+	}
+	
+	/**
+	 * Finds every point within the radius of the location, this is always exact.
+	 * On a rotated tree it's a scan over all the points, like the exact searches.
+	 * 
+	 * @param point
+	 * @param radius
+	 * @return The neighbors, in no particular order
+	 */
+	public Neighbors withinRadius(Clusterable point, double radius){
+		Neighbors result = new Neighbors();
+		withinRadius(point.getLocation(),radius,result);
+		return result;
+	}
+	
+	/**
+	 * Same as {@link #withinRadius(Clusterable, double)} but fills in the given result
+	 * instead of making a new one
+	 * 
+	 * @param location
+	 * @param radius
+	 * @param result
+	 * @return The number of neighbors found
+	 */
+	public int withinRadius(float[] location, double radius, Neighbors result){
+		result.clear(0);
+		if ( mRotation != null ){
+			double radiusSquared = radius*radius;
+			for ( int i = 0; i < mLocations.length; i++ ){
+				double dist = ClusterUtils.getSquaredDistance(location,mLocations[i],radiusSquared);
+				if ( dist <= radiusSquared ){
+					result.add(i,Math.sqrt(dist));
+				}
 			}
-			closest = left.restrictedNearestNeighbor(point,values);
+			return result.size();
 		}
-		//current distance of the 'ideal' node
-		double currMinDistance = ClusterUtils.getEuclideanDistance(closest,point);
-		//check to see if the current node we've backtracked to is closer
-		double currClusterDistance = ClusterUtils.getEuclideanDistance(cluster,point);
-		if ( closest == null || currMinDistance > currClusterDistance ){
-			closest = cluster;
-			currMinDistance = currClusterDistance;
+		radiusDescend(location,toSplitSpace(location,SearchScratch.get(),0),mRoot,radius*radius,result);
+		return result.size();
+	}
+	
+	private void radiusDescend(float[] location, float[] splitLocation, int node, double radiusSquared, Neighbors result){
+		while ( node != -1 ){
+			int index = mIndexes[node];
+			double dist = ClusterUtils.getSquaredDistance(location,mLocations[index],radiusSquared);
+			if ( dist <= radiusSquared ){
+				result.add(index,Math.sqrt(dist));
+			}
+			
+			int splitIndex = mSplitDimensions[node];
+			if ( splitIndex == -1 ) return;
+			double toLeft = splitLocation[splitIndex] - mLeftMax[node];
+			double toRight = mRightMin[node] - splitLocation[splitIndex];
+			int near = toLeft >= toRight ? mRight[node] : mLeft[node];
+			int far = toLeft >= toRight ? mLeft[node] : mRight[node];
+			radiusDescend(location,splitLocation,near,radiusSquared,result);
+			double diff = Math.max(0,Math.max(toLeft,toRight));
+			if ( far == -1 || diff*diff > radiusSquared ) return;
+			node = far;
 		}
-		return closest;
 	}
 	
 	/**
-	 * Returns the exact nearest neighbor by checking all of the possible bins
-	 * that might contain the closest neighbor. I guess there could potentially
-	 * be a situation where you have more than Integer.MAX_VALUE bins, so be wary. 
+	 * @param index
+	 * @return The point at the index in the array the tree was built from
+	 */
+	public Clusterable getPoint(int index){
+		return mPoints[index];
+	}
+	
+	/**
+	 * Returns the exact nearest neighbor. It's a depth first search that goes down
+	 * the side of each split the point is on first, and only looks at the other
+	 * side if the split plane is closer than the best point found so far. Points
+	 * at exactly the same distance are broken by lowest index, so it picks the
+	 * same point as a brute force scan over the array in order would. On a
+	 * rotated tree it is that scan.
 	 * 
 	 * @param point
 	 * @return
 	 */
 	public Clusterable exactNearestNeighbor(Clusterable point){
-		return restrictedNearestNeighbor(point,Integer.MAX_VALUE);
+		return mPoints[exactNearestIndex(point.getLocation())];
+	}
+	
+	/**
+	 * Same as {@link #exactNearestNeighbor(Clusterable)} but takes the location
+	 * directly and returns the index of the closest point in the array the tree
+	 * was built from
+	 * 
+	 * @param location
+	 * @return
+	 */
+	public int exactNearestIndex(float[] location){
+		if ( mRotation != null ) return ClusterUtils.getNearestIndex(location,mLocations);
+		SearchScratch search = SearchScratch.get();
+		search.reset();
+		exactDescend(location,toSplitSpace(location,search,0),mRoot,search);
+		return search.mClosest;
+	}
+	
+	private void exactDescend(float[] location, float[] splitLocation, int node, SearchScratch search){
+		while ( node != -1 ){
+			int index = mIndexes[node];
+			double dist = ClusterUtils.getSquaredDistance(location,mLocations[index],search.mClosestDist);
+			if ( dist < search.mClosestDist || (dist == search.mClosestDist && index < search.mClosest) ){
+				search.mClosest = index;
+				search.mClosestDist = dist;
+			}
+			
+			int splitIndex = mSplitDimensions[node];
+			if ( splitIndex == -1 ) return;
+			//same float subtraction as the distance functions, so diff*diff never overshoots a distance
+			double toLeft = splitLocation[splitIndex] - mLeftMax[node];
+			double toRight = mRightMin[node] - splitLocation[splitIndex];
+			int near = toLeft >= toRight ? mRight[node] : mLeft[node];
+			int far = toLeft >= toRight ? mLeft[node] : mRight[node];
+			exactDescend(location,splitLocation,near,search);
+			double diff = Math.max(0,Math.max(toLeft,toRight));
+			//ties have to be looked at too for the lowest index to win
+			if ( far == -1 || diff*diff > search.mClosestDist ) return;
+			node = far;
+		}
+	}
+	
+	/**
+	 * @return The number of points in the tree
+	 */
+	public int size(){
+		return mPoints.length;
+	}
+	
+	/**
+	 * @return The number of bytes {@link #write(ByteBuffer)} takes
+	 */
+	public long getSerializedSize(){
+		long size = 24 + 24L*mIndexes.length;
+		if ( mRotation != null ){
+			size += 4 + 4L*mRotation.length*mRotation.length + 4L*mIndexes.length*mRotation.length;
+		}
+		return size;
+	}
+	
+	/**
+	 * Writes the flattened tree at the buffer's position. The points themselves
+	 * aren't written, whoever writes the tree writes them too and hands them back
+	 * to {@link #read(Clusterable[], ByteBuffer)}. A rotated tree also writes its
+	 * rotated copy of the points, rotating them again would take longer than the
+	 * build it's there to save.
+	 */
+	public void write(ByteBuffer out){
+		out.putInt(mSplitRule.ordinal());
+		out.putLong(mSeed);
+		out.putInt(mRotation != null ? 1 : 0);
+		out.putInt(mIndexes.length);
+		out.putInt(mRoot);
+		if ( mRotation != null ){
+			out.putInt(mRotation.length);
+			BufferUtils.putMatrix(out,mRotation);
+			BufferUtils.putMatrix(out,mSplitLocations);
+		}
+		BufferUtils.putInts(out,mIndexes);
+		BufferUtils.putInts(out,mSplitDimensions);
+		BufferUtils.putFloats(out,mLeftMax);
+		BufferUtils.putFloats(out,mRightMin);
+		BufferUtils.putInts(out,mLeft);
+		BufferUtils.putInts(out,mRight);
+	}
+	
+	/**
+	 * Reads a tree written by {@link #write(ByteBuffer)} from the buffer's position,
+	 * the arrays get copied out in bulk and nothing gets rebuilt
+	 * 
+	 * @param points - the same points, in the same order, the tree was built over
+	 */
+	public static ClusterKDTree read(Clusterable[] points, ByteBuffer in){
+		return new ClusterKDTree(points,in);
 	}
 	
 	/**
 	 * Kind of pretty prints the current tree. Not terrible useful, but I was loathe
 	 * to get rid of it.
 	 */
-	public void print(){ print(0); }
+	public void print(){ print(mRoot,0); }
 	
-	private void print(int height){
+	private void print(int node, int height){
 		String s = "";
 		for ( int i = 0; i < height; i++ ){
-			if ( cluster == null )
+			if ( mSplitDimensions[node] != -1 )
 				s += "x";
 			else
 				s += "-";
 		}
 		s += ">";
-		if ( cluster == null ) {
-			s += splitIndex + "," + splitValue;
-		} else {
-			s += "(" + cluster.getLocation()[0] + "," + cluster.getLocation()[1] + ")";
+		float[] location = mLocations[mIndexes[node]];
+		if ( mSplitDimensions[node] != -1 ) {
+			s += mSplitDimensions[node] + "," + mLeftMax[node] + (mLeftMax[node] != mRightMin[node] ? "/" + mRightMin[node] : "") + " ";
 		}
+		s += "(" + location[0] + (location.length > 1 ? "," + location[1] : "") + ")";
 		System.out.println(s);
-		if ( right != null ){
-			right.print(height+1);
+		if ( mRight[node] != -1 ){
+			print(mRight[node],height+1);
 		}
-		if ( left != null ){
-			left.print(height+1);
+		if ( mLeft[node] != -1 ){
+			print(mLeft[node],height+1);
 		}
 	}
 	
 	public String toString(){
-		return "Cluster = " + cluster + ", splitVal = " + splitValue + ", splitIndex = " + splitIndex;
+		return "Points = " + mPoints.length + ", root splitVal = " + mLeftMax[mRoot] + ", root splitIndex = " + mSplitDimensions[mRoot];
 	}
 	
 	public static void main(String args[]){
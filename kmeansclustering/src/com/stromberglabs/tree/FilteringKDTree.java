@@ -0,0 +1,343 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.tree;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.stromberglabs.cluster.Cluster;
+import com.stromberglabs.cluster.Clusterable;
+
+/**
+ * <pre>
+ * A KD tree over the data points (rather than the cluster centers) for the
+ * filtering algorithm of Kanungo et al. Every node caches the bounding box, the
+ * sum of the locations and the number of the points under it. Assigning the
+ * points to a set of centers walks down the tree with a list of candidate
+ * centers:
+ * 
+ * 1) Find the candidate closest to the middle of the node's box
+ * 2) Drop every other candidate that is farther from the box's corner in its
+ *    direction than that one is, since then it's farther from every point in the box
+ * 3) If only one candidate is left, the whole node goes to it using the cached
+ *    sum, otherwise go down to the children with the candidates that are left
+ * 
+ * Leaves hold up to LEAF_SIZE points, which get compared with whatever candidates
+ * made it down to them. The result is the same assignment Lloyd's algorithm
+ * gives, ties going to the lowest index, but since the tree doesn't depend on
+ * the centers it only has to be built once and then gets reused every iteration.
+ * 
+ * Like any KD tree it does best in low to moderate dimensions, in high dimensions
+ * the boxes are too big to filter out many candidates.
+ * 
+ * The nodes are stored flat the same way as {@link ClusterKDTree}, with the points
+ * permuted so each node covers a contiguous range of them.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class FilteringKDTree {
+	public static int LEAF_SIZE = 8;
+	
+	private Clusterable[] mPoints;
+	private float[][] mLocations;
+	private List<Clusterable> mPointList;
+	
+	private int[] mStart;
+	private int[] mEnd;
+	private int[] mLeft;
+	private int[] mRight;
+	private float[][] mBoxMin;
+	private float[][] mBoxMax;
+	private float[][] mSums;
+	private int mNumNodes;
+	private int mDepth;
+	
+	private int[][] mCandidates;
+	private float[] mMiddle;
+	private long mDistanceCount;
+	
+	public FilteringKDTree(List<? extends Clusterable> points){
+		int numPoints = points.size();
+		mPoints = points.toArray(new Clusterable[numPoints]);
+		mLocations = new float[numPoints][];
+		for ( int i = 0; i < numPoints; i++ ){
+			mLocations[i] = mPoints[i].getLocation();
+		}
+		mPointList = Arrays.asList(mPoints);
+		
+		int numNodes = countNodes(numPoints);
+		mStart = new int[numNodes];
+		mEnd = new int[numNodes];
+		mLeft = new int[numNodes];
+		mRight = new int[numNodes];
+		mBoxMin = new float[numNodes][];
+		mBoxMax = new float[numNodes][];
+		mSums = new float[numNodes][];
+		build(0,numPoints,0);
+		mMiddle = new float[mLocations[0].length];
+	}
+	
+	private static int countNodes(int numPoints){
+		if ( numPoints <= LEAF_SIZE ) return 1;
+		int half = numPoints >>> 1;
+		return 1 + countNodes(half) + countNodes(numPoints - half);
+	}
+	
+	/**
+	 * Builds the subtree over mPoints[start,end), splitting at the median of
+	 * the box's widest dimension, and returns its root's id
+	 */
+	private int build(int start, int end, int depth){
+		int node = mNumNodes++;
+		mDepth = Math.max(mDepth,depth);
+		mStart[node] = start;
+		mEnd[node] = end;
+		if ( end - start <= LEAF_SIZE ){
+			mLeft[node] = -1;
+			mRight[node] = -1;
+			int dimensions = mLocations[start].length;
+			float[] min = mLocations[start].clone();
+			float[] max = mLocations[start].clone();
+			double[] sum = new double[dimensions];
+			for ( int i = start; i < end; i++ ){
+				float[] location = mLocations[i];
+				for ( int d = 0; d < dimensions; d++ ){
+					if ( location[d] < min[d] ) min[d] = location[d];
+					if ( location[d] > max[d] ) max[d] = location[d];
+					sum[d] += location[d];
+				}
+			}
+			mBoxMin[node] = min;
+			mBoxMax[node] = max;
+			mSums[node] = toFloats(sum);
+			return node;
+		}
+		
+		//the box isn't known until the children are built, so the widest dimension comes from the points
+		int dimensions = mLocations[start].length;
+		int splitDimension = 0;
+		float widest = -1;
+		for ( int d = 0; d < dimensions; d++ ){
+			float min = Float.MAX_VALUE;
+			float max = -Float.MAX_VALUE;
+			for ( int i = start; i < end; i++ ){
+				float value = mLocations[i][d];
+				if ( value < min ) min = value;
+				if ( value > max ) max = value;
+			}
+			if ( max - min > widest ){
+				widest = max - min;
+				splitDimension = d;
+			}
+		}
+		int middle = (start + end) >>> 1;
+		select(start,end,middle,splitDimension);
+		
+		int left = build(start,middle,depth+1);
+		int right = build(middle,end,depth+1);
+		mLeft[node] = left;
+		mRight[node] = right;
+		float[] min = new float[dimensions];
+		float[] max = new float[dimensions];
+		double[] sum = new double[dimensions];
+		for ( int d = 0; d < dimensions; d++ ){
+			min[d] = Math.min(mBoxMin[left][d],mBoxMin[right][d]);
+			max[d] = Math.max(mBoxMax[left][d],mBoxMax[right][d]);
+			sum[d] = (double)mSums[left][d] + mSums[right][d];
+		}
+		mBoxMin[node] = min;
+		mBoxMax[node] = max;
+		mSums[node] = toFloats(sum);
+		return node;
+	}
+	
+	private static float[] toFloats(double[] values){
+		float[] floats = new float[values.length];
+		for ( int i = 0; i < values.length; i++ ){
+			floats[i] = (float)values[i];
+		}
+		return floats;
+	}
+	
+	/**
+	 * Quickselect over mPoints[start,end) along the dimension, moving the points and
+	 * their locations together
+	 */
+	private void select(int start, int end, int k, int dimension){
+		int lo = start;
+		int hi = end - 1;
+		while ( hi > lo ){
+			float pivot = mLocations[(lo + hi) >>> 1][dimension];
+			int i = lo;
+			int j = hi;
+			while ( i <= j ){
+				while ( mLocations[i][dimension] < pivot ) i++;
+				while ( mLocations[j][dimension] > pivot ) j--;
+				if ( i <= j ){
+					swap(i,j);
+					i++;
+					j--;
+				}
+			}
+			if ( k <= j ){
+				hi = j;
+			} else if ( k >= i ){
+				lo = i;
+			} else {
+				break;
+			}
+		}
+	}
+	
+	private void swap(int i, int j){
+		Clusterable point = mPoints[i];
+		mPoints[i] = mPoints[j];
+		mPoints[j] = point;
+		float[] location = mLocations[i];
+		mLocations[i] = mLocations[j];
+		mLocations[j] = location;
+	}
+	
+	/**
+	 * Adds every point to the cluster with the closest location. Not thread safe,
+	 * the candidate lists are kept on the tree between calls.
+	 * 
+	 * @param clusters
+	 * @return The number of distances computed between a center and a point or box corner
+	 */
+	public long assign(Cluster[] clusters){
+		float[][] centers = new float[clusters.length][];
+		for ( int i = 0; i < clusters.length; i++ ){
+			centers[i] = clusters[i].getLocation();
+		}
+		if ( mCandidates == null || mCandidates[0].length < centers.length ){
+			mCandidates = new int[mDepth+1][centers.length];
+		}
+		int[] candidates = mCandidates[0];
+		for ( int i = 0; i < centers.length; i++ ){
+			candidates[i] = i;
+		}
+		mDistanceCount = 0;
+		filter(0,centers.length,0,centers,clusters);
+		return mDistanceCount;
+	}
+	
+	private void filter(int node, int numCandidates, int depth, float[][] centers, Cluster[] clusters){
+		int[] candidates = mCandidates[depth];
+		if ( numCandidates == 1 ){
+			clusters[candidates[0]].addItems(mPointList.subList(mStart[node],mEnd[node]),mSums[node]);
+			return;
+		}
+		
+		if ( mLeft[node] == -1 ){
+			for ( int i = mStart[node]; i < mEnd[node]; i++ ){
+				int best = candidates[0];
+				double bestDistance = squaredDistance(centers[best],mLocations[i]);
+				for ( int c = 1; c < numCandidates; c++ ){
+					double distance = squaredDistance(centers[candidates[c]],mLocations[i]);
+					//candidates stay in increasing order, so strictly closer keeps the lowest index on ties
+					if ( distance < bestDistance ){
+						bestDistance = distance;
+						best = candidates[c];
+					}
+				}
+				mDistanceCount += numCandidates;
+				clusters[best].addItem(mPoints[i]);
+			}
+			return;
+		}
+		
+		float[] min = mBoxMin[node];
+		float[] max = mBoxMax[node];
+		for ( int d = 0; d < mMiddle.length; d++ ){
+			mMiddle[d] = (min[d] + max[d])/2;
+		}
+		int closest = candidates[0];
+		double closestDistance = squaredDistance(centers[closest],mMiddle);
+		for ( int c = 1; c < numCandidates; c++ ){
+			double distance = squaredDistance(centers[candidates[c]],mMiddle);
+			if ( distance < closestDistance ){
+				closestDistance = distance;
+				closest = candidates[c];
+			}
+		}
+		mDistanceCount += numCandidates;
+		
+		int[] kept = mCandidates[depth+1];
+		int numKept = 0;
+		for ( int c = 0; c < numCandidates; c++ ){
+			int candidate = candidates[c];
+			if ( candidate == closest || !isFarther(centers[candidate],candidate,centers[closest],closest,min,max) ){
+				kept[numKept++] = candidate;
+			}
+		}
+		mDistanceCount += 2*(numCandidates-1);
+		
+		if ( numKept == 1 ){
+			clusters[closest].addItems(mPointList.subList(mStart[node],mEnd[node]),mSums[node]);
+		} else {
+			//the children only write to the lists below theirs, so both can share this one
+			filter(mLeft[node],numKept,depth+1,centers,clusters);
+			filter(mRight[node],numKept,depth+1,centers,clusters);
+		}
+	}
+	
+	/**
+	 * Whether the candidate is farther than the closest center from every point in the
+	 * box, checked at the box's corner that is farthest in the candidate's direction.
+	 * Ties count as farther when the candidate has the higher index, which is who
+	 * would lose them.
+	 */
+	private static boolean isFarther(float[] candidate, int candidateIndex, float[] closest, int closestIndex, float[] min, float[] max){
+		double candidateDistance = 0;
+		double closestDistance = 0;
+		for ( int d = 0; d < candidate.length; d++ ){
+			float corner = candidate[d] > closest[d] ? max[d] : min[d];
+			double diff = candidate[d] - corner;
+			candidateDistance += diff*diff;
+			diff = closest[d] - corner;
+			closestDistance += diff*diff;
+		}
+		return candidateDistance > closestDistance || (candidateDistance == closestDistance && candidateIndex > closestIndex);
+	}
+	
+	private static double squaredDistance(float[] a, float[] b){
+		double sum = 0;
+		for ( int d = 0; d < a.length; d++ ){
+			double diff = a[d] - b[d];
+			sum += diff*diff;
+		}
+		return sum;
+	}
+	
+	public int size(){
+		return mPoints.length;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.tree;
+
+import java.util.Arrays;
+
+import com.stromberglabs.util.IntTopN;
+
+/**
+ * The result of a k nearest or radius query: the indexes of the points that
+ * were found, in the array the index was built from, and their distances to the
+ * query point. They're kept in two primitive arrays with no object per result,
+ * and a Neighbors can be passed back in to the next query to reuse them.
+ * 
+ * @author Andrew
+ *
+ */
+public class Neighbors {
+	private int[] mIndexes;
+	private double[] mDistances;
+	private int mSize;
+	
+	public Neighbors(){
+		this(16);
+	}
+	
+	public Neighbors(int capacity){
+		mIndexes = new int[Math.max(1,capacity)];
+		mDistances = new double[mIndexes.length];
+	}
+	
+	/**
+	 * @return The number of neighbors found
+	 */
+	public int size(){
+		return mSize;
+	}
+	
+	/**
+	 * @param i
+	 * @return The index of the i'th neighbor in the array the index was built from
+	 */
+	public int getIndex(int i){
+		return mIndexes[i];
+	}
+	
+	/**
+	 * @param i
+	 * @return The euclidean distance from the query to the i'th neighbor
+	 */
+	public double getDistance(int i){
+		return mDistances[i];
+	}
+	
+	/**
+	 * @return The backing array of indexes, only the first size() are valid
+	 */
+	public int[] getIndexes(){
+		return mIndexes;
+	}
+	
+	/**
+	 * @return The backing array of distances, only the first size() are valid
+	 */
+	public double[] getDistances(){
+		return mDistances;
+	}
+	
+	/**
+	 * Empties it for the next query, for indexes outside this package filling one in
+	 * @param capacity - how many neighbors are expected
+	 */
+	public void clear(int capacity){
+		if ( capacity > mIndexes.length ){
+			mIndexes = new int[capacity];
+			mDistances = new double[capacity];
+		}
+		mSize = 0;
+	}
+	
+	public void add(int index, double distance){
+		if ( mSize == mIndexes.length ){
+			mIndexes = Arrays.copyOf(mIndexes,mSize*2);
+			mDistances = Arrays.copyOf(mDistances,mSize*2);
+		}
+		mIndexes[mSize] = index;
+		mDistances[mSize] = distance;
+		mSize++;
+	}
+	
+	/**
+	 * Takes everything out of the top N in order and turns the squared distances
+	 * it was keeping into real ones
+	 */
+	public void fill(IntTopN top){
+		clear(top.size());
+		mSize = top.drainSorted(mIndexes,mDistances);
+		for ( int i = 0; i < mSize; i++ ){
+			mDistances[i] = Math.sqrt(mDistances[i]);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.tree;
+
+import java.util.Arrays;
+
+import com.stromberglabs.util.IntMinHeap;
+import com.stromberglabs.util.IntTopN;
+
+/**
+ * The per thread scratch space of the searches of {@link ClusterKDTree},
+ * {@link ClusterKDForest} and {@link ClusterBallTree}, so a search doesn't
+ * allocate anything once its thread has done one like it.
+ * 
+ * @author Andrew
+ *
+ */
+class SearchScratch {
+	private static final ThreadLocal<SearchScratch> SCRATCH = new ThreadLocal<SearchScratch>(){
+		protected SearchScratch initialValue(){
+			return new SearchScratch();
+		}
+	};
+	
+	IntMinHeap mBins = new IntMinHeap(64);
+	IntTopN mTop = new IntTopN(1);
+	int[] mClosestOut = new int[1];
+	
+	//rotated query buffers, one per tree of a forest
+	private float[][] mBuffers = new float[0][];
+	//the query in each tree's split space, for forests
+	private float[][] mQueries = new float[0][];
+	int mClosest;
+	double mClosestDist;
+	
+	//stamps for skipping points that were already checked through another tree
+	private int[] mVisited = new int[0];
+	private int mStamp;
+	private boolean mTrackVisited;
+	
+	/**
+	 * @return This thread's scratch space
+	 */
+	static SearchScratch get(){
+		return SCRATCH.get();
+	}
+	
+	void reset(){
+		mBins.clear();
+		mClosest = -1;
+		mClosestDist = Double.MAX_VALUE;
+		mTrackVisited = false;
+	}
+	
+	/**
+	 * Starts remembering which points have been checked, for when the same points
+	 * can be reached through more than one tree
+	 */
+	void trackVisited(int numPoints){
+		if ( mVisited.length < numPoints ){
+			mVisited = new int[numPoints];
+			mStamp = 0;
+		}
+		mStamp++;
+		if ( mStamp == 0 ){
+			//wrapped around, old stamps could collide so start over
+			Arrays.fill(mVisited,0);
+			mStamp = 1;
+		}
+		mTrackVisited = true;
+	}
+	
+	float[] getBuffer(int buffer, int dimensionality){
+		if ( buffer >= mBuffers.length ) mBuffers = Arrays.copyOf(mBuffers,buffer + 1);
+		if ( mBuffers[buffer] == null || mBuffers[buffer].length != dimensionality ){
+			mBuffers[buffer] = new float[dimensionality];
+		}
+		return mBuffers[buffer];
+	}
+	
+	void setQuery(int tree, float[] query){
+		if ( tree >= mQueries.length ) mQueries = Arrays.copyOf(mQueries,tree + 1);
+		mQueries[tree] = query;
+	}
+	
+	float[] getQuery(int tree){
+		return mQueries[tree];
+	}
+	
+	/**
+	 * @return false if the point was already checked since trackVisited
+	 */
+	boolean visit(int index){
+		if ( !mTrackVisited ) return true;
+		if ( mVisited[index] == mStamp ) return false;
+		mVisited[index] = mStamp;
+		return true;
+	}
+}
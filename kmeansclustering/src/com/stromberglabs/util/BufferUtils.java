@@ -0,0 +1,90 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.util;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * <pre>
+ * Bulk reads and writes of primitive arrays at a ByteBuffer's position, for the
+ * classes that write themselves out to a model file. They go through the
+ * buffer's int and float views, so copying a whole array out of a mapped file is
+ * one bulk copy instead of a call per value, and they move the position past
+ * what they read or wrote like the buffer's own get and put do.
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class BufferUtils {
+	public static void putInts(ByteBuffer buffer, int[] values){
+		buffer.asIntBuffer().put(values);
+		buffer.position(buffer.position() + 4*values.length);
+	}
+	
+	public static int[] getInts(ByteBuffer buffer, int count){
+		int[] values = new int[count];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + 4*count);
+		return values;
+	}
+	
+	public static void putFloats(ByteBuffer buffer, float[] values){
+		buffer.asFloatBuffer().put(values);
+		buffer.position(buffer.position() + 4*values.length);
+	}
+	
+	public static float[] getFloats(ByteBuffer buffer, int count){
+		float[] values = new float[count];
+		buffer.asFloatBuffer().get(values);
+		buffer.position(buffer.position() + 4*count);
+		return values;
+	}
+	
+	/**
+	 * Writes the rows one after another, they all have to be the same length
+	 */
+	public static void putMatrix(ByteBuffer buffer, float[][] rows){
+		FloatBuffer view = buffer.asFloatBuffer();
+		for ( float[] row : rows ){
+			view.put(row);
+		}
+		buffer.position(buffer.position() + 4*view.position());
+	}
+	
+	public static float[][] getMatrix(ByteBuffer buffer, int numRows, int numColumns){
+		FloatBuffer view = buffer.asFloatBuffer();
+		float[][] rows = new float[numRows][numColumns];
+		for ( float[] row : rows ){
+			view.get(row);
+		}
+		buffer.position(buffer.position() + 4*view.position());
+		return rows;
+	}
+}
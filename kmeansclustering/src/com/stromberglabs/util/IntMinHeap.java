@@ -0,0 +1,133 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.util;
+
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * A binary min heap of int values keyed by double priorities, kept in two
+ * parallel primitive arrays. Adding and popping are O(log n) and nothing gets
+ * boxed or allocated unless the heap has to grow, so one heap can be cleared
+ * and reused for query after query.
+ * 
+ * <code>
+ * IntMinHeap heap = new IntMinHeap(16);
+ * heap.add(nodeId,distance);
+ * while ( heap.size() > 0 ){
+ * 		int closest = heap.pop();
+ * }
+ * </code>
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class IntMinHeap {
+	private int[] mValues;
+	private double[] mPriorities;
+	private int mSize;
+	
+	public IntMinHeap(int initialCapacity){
+		mValues = new int[Math.max(1,initialCapacity)];
+		mPriorities = new double[mValues.length];
+	}
+	
+	public void add(int value, double priority){
+		if ( mSize == mValues.length ){
+			mValues = Arrays.copyOf(mValues,mSize*2);
+			mPriorities = Arrays.copyOf(mPriorities,mSize*2);
+		}
+		int i = mSize++;
+		//sift up
+		while ( i > 0 ){
+			int parent = (i - 1) >>> 1;
+			if ( mPriorities[parent] <= priority ) break;
+			mValues[i] = mValues[parent];
+			mPriorities[i] = mPriorities[parent];
+			i = parent;
+		}
+		mValues[i] = value;
+		mPriorities[i] = priority;
+	}
+	
+	/**
+	 * Removes and returns the value with the lowest priority
+	 * @return
+	 */
+	public int pop(){
+		if ( mSize == 0 ) throw new RuntimeException("Trying to pop from an empty heap");
+		int top = mValues[0];
+		mSize--;
+		if ( mSize > 0 ){
+			int value = mValues[mSize];
+			double priority = mPriorities[mSize];
+			//sift down
+			int i = 0;
+			int half = mSize >>> 1;
+			while ( i < half ){
+				int child = 2*i + 1;
+				if ( child + 1 < mSize && mPriorities[child + 1] < mPriorities[child] ) child++;
+				if ( priority <= mPriorities[child] ) break;
+				mValues[i] = mValues[child];
+				mPriorities[i] = mPriorities[child];
+				i = child;
+			}
+			mValues[i] = value;
+			mPriorities[i] = priority;
+		}
+		return top;
+	}
+	
+	/**
+	 * @return The value with the lowest priority, without removing it
+	 */
+	public int peek(){
+		if ( mSize == 0 ) throw new RuntimeException("Trying to peek at an empty heap");
+		return mValues[0];
+	}
+	
+	/**
+	 * @return The lowest priority in the heap
+	 */
+	public double peekPriority(){
+		if ( mSize == 0 ) throw new RuntimeException("Trying to peek at an empty heap");
+		return mPriorities[0];
+	}
+	
+	public int size(){
+		return mSize;
+	}
+	
+	/**
+	 * Empties the heap but keeps its arrays around for the next use
+	 */
+	public void clear(){
+		mSize = 0;
+	}
+}
@@ -0,0 +1,155 @@
+/*
+Copyright (c) 2010, Andrew Stromberg
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither Andrew Stromberg nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Andrew Stromberg BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.stromberglabs.util;
+
+/**
+ * <pre>
+ * Keeps the N int values with the lowest priorities out of everything that gets
+ * added, like a {@link SizedPriorityQueue} tracking the lowest values, but as a
+ * bounded max heap over primitive arrays. The worst of the kept values is at
+ * the top, so deciding whether a new value gets in is O(1) and putting it in is
+ * O(log N).
+ * 
+ * <code>
+ * IntTopN best = new IntTopN(k);
+ * for ( int i = 0; i < numCenters; i++ ){
+ * 		best.add(i,distance(point,center[i]));
+ * }
+ * int count = best.drainSorted(indexes,distances);
+ * </code>
+ * </pre>
+ * 
+ * @author Andrew
+ *
+ */
+public class IntTopN {
+	private int[] mValues;
+	private double[] mPriorities;
+	private int mSize;
+	private int mCapacity;
+	
+	public IntTopN(int n){
+		mValues = new int[Math.max(1,n)];
+		mPriorities = new double[mValues.length];
+		mCapacity = n;
+	}
+	
+	/**
+	 * Offers a value, it's kept if there's room or if its priority is lower than
+	 * the worst one kept so far
+	 * 
+	 * @param value
+	 * @param priority
+	 * @return Whether or not the value was kept
+	 */
+	public boolean add(int value, double priority){
+		if ( mSize < mCapacity ){
+			int i = mSize++;
+			while ( i > 0 ){
+				int parent = (i - 1) >>> 1;
+				if ( mPriorities[parent] >= priority ) break;
+				mValues[i] = mValues[parent];
+				mPriorities[i] = mPriorities[parent];
+				i = parent;
+			}
+			mValues[i] = value;
+			mPriorities[i] = priority;
+			return true;
+		}
+		if ( mCapacity == 0 || priority >= mPriorities[0] ) return false;
+		siftDown(value,priority);
+		return true;
+	}
+	
+	private void siftDown(int value, double priority){
+		int i = 0;
+		int half = mSize >>> 1;
+		while ( i < half ){
+			int child = 2*i + 1;
+			if ( child + 1 < mSize && mPriorities[child + 1] > mPriorities[child] ) child++;
+			if ( priority >= mPriorities[child] ) break;
+			mValues[i] = mValues[child];
+			mPriorities[i] = mPriorities[child];
+			i = child;
+		}
+		mValues[i] = value;
+		mPriorities[i] = priority;
+	}
+	
+	/**
+	 * @return The highest priority being kept, or Double.MAX_VALUE if there's
+	 * still room, so anything would get in
+	 */
+	public double worstPriority(){
+		return mSize < mCapacity ? Double.MAX_VALUE : mPriorities[0];
+	}
+	
+	public int size(){
+		return mSize;
+	}
+	
+	public boolean isFull(){
+		return mSize >= mCapacity;
+	}
+	
+	/**
+	 * Empties it and sets how many values to keep from now on, the arrays are
+	 * reused if they're big enough
+	 * 
+	 * @param n
+	 */
+	public void clear(int n){
+		if ( n > mValues.length ){
+			mValues = new int[n];
+			mPriorities = new double[n];
+		}
+		mCapacity = n;
+		mSize = 0;
+	}
+	
+	/**
+	 * Copies the kept values out lowest priority first and empties it
+	 * 
+	 * @param values - at least size() long
+	 * @param priorities - at least size() long, or null if they aren't wanted
+	 * @return The number of values copied out
+	 */
+	public int drainSorted(int[] values, double[] priorities){
+		int count = mSize;
+		while ( mSize > 0 ){
+			int last = mSize - 1;
+			values[last] = mValues[0];
+			if ( priorities != null ) priorities[last] = mPriorities[0];
+			mSize--;
+			if ( mSize > 0 ){
+				siftDown(mValues[mSize],mPriorities[mSize]);
+			}
+		}
+		return count;
+	}
+}
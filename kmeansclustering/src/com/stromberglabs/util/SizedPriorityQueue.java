@@ -108,7 +108,7 @@ public class SizedPriorityQueue<T> {
 			index++;
 		}
 		
-		if ( index < mSize - 1)
+		if ( index < mSize )
 			mList.add(index,value);
 		
 		if ( mList.size() > mSize ) mList.removeLast();
@@ -132,7 +132,7 @@ public class SizedPriorityQueue<T> {
 			index++;
 		}
 		
-		if ( index < mSize - 1) {
+		if ( index < mSize ) {
 			mList.add(index,value);
 			mPriorities.add(index,priority);
 		}
@@ -29,6 +29,8 @@ package com.stromberglabs.cluster;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -37,6 +39,15 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.stromberglabs.cluster.Clusterable;
+import com.stromberglabs.cluster.checker.DriftClusterChecker;
+import com.stromberglabs.cluster.checker.ShiftCountClusterChecker;
+import com.stromberglabs.cluster.projection.GaussianRandomProjection;
+import com.stromberglabs.cluster.projection.StreamingPCAProjection;
+import com.stromberglabs.data.FloatDataset;
+import com.stromberglabs.data.QuantizedDataset.Encoding;
+import com.stromberglabs.data.RawFloatChunkSource;
+import com.stromberglabs.data.SparseHistogram;
+import com.stromberglabs.tree.Neighbors;
 
 public class KMeansClusteringTest {
 	
@@ -182,12 +193,8 @@ public class KMeansClusteringTest {
 				}
 			}
 			assertEquals(i,idx);
-			//Why not check that they're exactly the same you ask?
-			//Well I'll tell you why
-			//Because this version only returns an approximately similar version of the tree
-			//So it's likely to be off by a bit, but it shouldn't be so far off that they're
-			//radically different clusters
-			//assertEquals(closest,0.0,0.0);
+			//the tree search is exact, so it should land on exactly the same clusters
+			assertEquals(closest,0.0,0.0);
 		}
 	}
 	
@@ -232,4 +239,560 @@ public class KMeansClusteringTest {
 			//assertEquals(closest,0.0,0.0);
 		}
 	}
+	
+	@Test
+	public void testEarlyAbandonedDistance() throws Exception {
+		float a[] = new float[20];
+		float b[] = new float[20];
+		for ( int i = 0; i < a.length; i++ ){
+			b[i] = i;
+		}
+		double full = ClusterUtils.getEuclideanDistance(a,b);
+		assertEquals(full*full,ClusterUtils.getSquaredDistance(a,b,Double.MAX_VALUE),0.0001);
+		assertTrue(ClusterUtils.getSquaredDistance(a,b,10) > 10);
+		assertTrue(ClusterUtils.getSquaredDistance(a,b,10) < full*full);
+		
+		int order[] = ClusterUtils.getDimensionOrder(new float[][]{a,b});
+		assertEquals(19,order[0]);
+		assertEquals(full*full,ClusterUtils.getSquaredDistance(a,b,order,Double.MAX_VALUE),0.0001);
+	}
+	
+	@Test
+	public void testReorderedDimensionsEquivalency() throws Exception {
+		List<Clusterable> points = mLotsOfPoints.subList(0,10000);
+		Cluster[] clusters = new KMeansClusterer().cluster(points,10);
+		Cluster[] clusters2 = new KMeansClusterer(true).cluster(points,10);
+		for ( int i = 0; i < clusters.length; i++ ){
+			assertEquals(clusters[i].getItems().size(),clusters2[i].getItems().size());
+			assertEquals(ClusterUtils.getEuclideanDistance(clusters[i],clusters2[i]),0.0,0.0001);
+		}
+	}
+	
+	@Test
+	public void testProjectedClusterer() throws Exception {
+		KClusterer clusterer = new ProjectedKClusterer(new KMeansClusterer(),new StreamingPCAProjection(1));
+		Cluster clusters[] = clusterer.cluster(mPoints,3);
+		for ( Cluster cluster : clusters ){
+			for ( Clusterable item : cluster.getItems() ){
+				assertTrue(ClusterUtils.getEuclideanDistance(item,cluster) < 0.5);
+			}
+		}
+		
+		clusterer = new ProjectedKClusterer(new KMeansClusterer(),new GaussianRandomProjection(2,1));
+		clusters = clusterer.cluster(mPoints,3);
+		for ( Cluster cluster : clusters ){
+			for ( Clusterable item : cluster.getItems() ){
+				assertTrue(ClusterUtils.getEuclideanDistance(item,cluster) < 0.5);
+			}
+		}
+	}
+	
+	@Test
+	public void testProjectedEmptyClusters() throws Exception {
+		//puts everything in the first cluster, so the other two have to be seeded
+		KClusterer lumping = new KClusterer(){
+			public Cluster[] cluster(List<? extends Clusterable> values, int numClusters){
+				Cluster[] clusters = new Cluster[numClusters];
+				for ( int i = 0; i < numClusters; i++ ){
+					clusters[i] = new Cluster(values.get(0).getLocation(),i);
+				}
+				for ( Clusterable value : values ){
+					clusters[0].addItem(value);
+				}
+				return clusters;
+			}
+		};
+		//without the refinement the seeds come straight back, they should be in different groups
+		Cluster clusters[] = new ProjectedKClusterer(lumping,new GaussianRandomProjection(2,1),0).cluster(mPoints,3);
+		for ( int i = 0; i < clusters.length; i++ ){
+			for ( int j = i + 1; j < clusters.length; j++ ){
+				assertTrue(ClusterUtils.getEuclideanDistance(clusters[i],clusters[j]) > 1);
+			}
+		}
+		
+		clusters = new ProjectedKClusterer(lumping,new GaussianRandomProjection(2,1)).cluster(mPoints,3);
+		for ( Cluster cluster : clusters ){
+			assertTrue(cluster.getItems().size() > 0);
+			for ( Clusterable item : cluster.getItems() ){
+				assertTrue(ClusterUtils.getEuclideanDistance(item,cluster) < 0.5);
+			}
+		}
+	}
+	
+	@Test
+	public void testQuantizedAndBasicEquivalency() throws Exception {
+		List<Clusterable> points = mLotsOfPoints.subList(0,10000);
+		Cluster[] clusters = new KMeansClusterer().cluster(points,10);
+		for ( Encoding encoding : Encoding.values() ){
+			Cluster[] clusters2 = new QuantizedKMeansClusterer(encoding).cluster(points,10);
+			for ( int i = 0; i < clusters.length; i++ ){
+				assertEquals(clusters[i].getItems().size(),clusters2[i].getItems().size());
+				assertEquals(ClusterUtils.getEuclideanDistance(clusters[i],clusters2[i]),0.0,0.0);
+			}
+		}
+		
+		//the same clusterer on the same list after it's been changed in place
+		QuantizedKMeansClusterer clusterer = new QuantizedKMeansClusterer();
+		List<Clusterable> reused = new ArrayList<Clusterable>(points);
+		clusterer.cluster(reused,10);
+		int exactChecks = clusterer.getExactCheckCount();
+		clusterer.cluster(reused,10);
+		assertEquals(exactChecks,clusterer.getExactCheckCount());
+		for ( int i = 0; i < reused.size(); i++ ){
+			reused.set(i,mLotsOfPoints.get(10000 + i));
+		}
+		clusters = new KMeansClusterer().cluster(reused,10);
+		Cluster[] clusters2 = clusterer.cluster(reused,10);
+		for ( int i = 0; i < clusters.length; i++ ){
+			assertEquals(clusters[i].getItems().size(),clusters2[i].getItems().size());
+			assertEquals(ClusterUtils.getEuclideanDistance(clusters[i],clusters2[i]),0.0,0.0);
+		}
+	}
+	
+	@Test
+	public void testForestAutoTuner() throws Exception {
+		KMeansForestClusterer clusterer = new KMeansForestClusterer();
+		ForestAutoTuner.Configuration configuration = ForestAutoTuner.forRecall(0.95).tune(clusterer,mLotsOfPoints,100);
+		assertTrue(configuration.meetsTarget());
+		assertTrue(configuration.getRecall() >= 0.95);
+		assertEquals(configuration.getNumTrees(),clusterer.getNumTrees());
+		assertEquals(configuration.getMaxBinsChecked(),clusterer.getMaxBinsChecked());
+	}
+	
+	@Test
+	public void testFilteringAndBasicEquivalency() throws Exception {
+		int numClusters = 10;
+		FilteringKMeansClusterer clusterer = new FilteringKMeansClusterer();
+		Cluster[] clusters = clusterer.cluster(mLotsOfPoints,numClusters);
+
+		KMeansClusterer clusterer2 = new KMeansClusterer();
+		Cluster[] clusters2 = clusterer2.cluster(mLotsOfPoints,numClusters);
+		
+		for ( int i = 0; i < clusters.length; i++ ){
+			//the cached sums add up in a different order, so the centers can differ by rounding
+			assertEquals(clusters2[i].getItems().size(),clusters[i].getItems().size());
+			assertEquals(0.0,ClusterUtils.getEuclideanDistance(clusters[i],clusters2[i]),0.01);
+		}
+		
+		//a couple of passes should take far fewer distances than a single brute force one
+		FilteringKMeansClusterer shortRun = new FilteringKMeansClusterer(new DriftClusterChecker(AbstractKClusterer.DISTANCE_TOLERANCE),0);
+		shortRun.cluster(mLotsOfPoints,numClusters);
+		long distanceCount = shortRun.getDistanceCount();
+		assertTrue(distanceCount < (long)mLotsOfPoints.size()*numClusters/4);
+		
+		//the count only covers the last run, and a list changed in place gets a new tree
+		shortRun.cluster(mLotsOfPoints,numClusters);
+		assertEquals(distanceCount,shortRun.getDistanceCount());
+		List<Clusterable> reused = new ArrayList<Clusterable>(mLotsOfPoints.subList(0,10000));
+		clusterer.cluster(reused,numClusters);
+		for ( int i = 0; i < reused.size(); i++ ){
+			reused.set(i,mLotsOfPoints.get(10000 + i));
+		}
+		clusters = clusterer.cluster(reused,numClusters);
+		clusters2 = clusterer2.cluster(reused,numClusters);
+		for ( int i = 0; i < clusters.length; i++ ){
+			assertEquals(clusters2[i].getItems().size(),clusters[i].getItems().size());
+		}
+	}
+	
+	@Test
+	public void testBallTreeAndBasicEquivalency() throws Exception {
+		int numClusters = 10;
+		KClusterer clusterer = new KMeansBallTreeClusterer();
+		Cluster[] clusters = clusterer.cluster(mLotsOfPoints,numClusters);
+
+		KMeansClusterer clusterer2 = new KMeansClusterer();
+		Cluster[] clusters2 = clusterer2.cluster(mLotsOfPoints,numClusters);
+		
+		for ( int i = 0; i < clusters.length; i++ ){
+			assertEquals(0.0,ClusterUtils.getEuclideanDistance(clusters[i],clusters2[i]),0.0);
+		}
+	}
+	
+	@Test
+	public void testKMeansHNSWClusterer() throws Exception {
+		KClusterer clusterer = new KMeansHNSWClusterer();
+		Cluster clusters[] = clusterer.cluster(mPoints,3);
+		for ( Cluster cluster : clusters ){
+			for ( Clusterable item : cluster.getItems() ){
+				assertTrue(ClusterUtils.getEuclideanDistance(item,cluster) < 0.5);
+			}
+		}
+	}
+	
+	@Test
+	public void testModelPredictions() throws Exception {
+		Cluster[] clusters = new KMeansClusterer().cluster(mLotsOfPoints,20);
+		float[][] centers = new float[clusters.length][];
+		for ( int i = 0; i < clusters.length; i++ ){
+			centers[i] = clusters[i].getLocation();
+		}
+		FloatDataset data = FloatDataset.fromClusterables(mLotsOfPoints.subList(0,5000));
+		int[] expected = new int[data.size()];
+		for ( int i = 0; i < data.size(); i++ ){
+			expected[i] = ClusterUtils.getNearestIndex(data.getRow(i,null),centers);
+		}
+		
+		KMeansModel.IndexType[] exactTypes = { KMeansModel.IndexType.BRUTE_FORCE, KMeansModel.IndexType.BOUNDS, KMeansModel.IndexType.KD_TREE, KMeansModel.IndexType.BALL_TREE };
+		for ( KMeansModel.IndexType type : exactTypes ){
+			KMeansModel model = new KMeansModel(clusters,type);
+			int[] labels = new int[data.size()];
+			double[] distances = new double[data.size()];
+			model.predictWithDistances(data,labels,distances);
+			for ( int i = 0; i < data.size(); i++ ){
+				assertEquals(expected[i],labels[i]);
+				assertEquals(ClusterUtils.getEuclideanDistance(data.getRow(i,null),centers[labels[i]]),distances[i],0.0001);
+			}
+			assertArrayEquals(labels,model.predictBatch(data));
+			assertEquals(expected[0],model.predict(mLotsOfPoints.get(0)));
+		}
+	}
+	
+	@Test
+	public void testModelHotSwap() throws Exception {
+		Cluster[] clusters = new KMeansClusterer().cluster(mLotsOfPoints,20);
+		final KMeansModel first = new KMeansModel(clusters,KMeansModel.IndexType.KD_TREE);
+		final KMeansModel second = new KMeansModel(new KMeansClusterer().cluster(mLotsOfPoints,5),KMeansModel.IndexType.HNSW);
+		final KMeansModelHolder holder = new KMeansModelHolder(first);
+		assertEquals(1,holder.getVersion());
+		
+		final List<Clusterable> queries = mLotsOfPoints.subList(0,500);
+		final boolean[] failed = new boolean[1];
+		Thread[] readers = new Thread[4];
+		for ( int t = 0; t < readers.length; t++ ){
+			readers[t] = new Thread(){
+				public void run(){
+					for ( int round = 0; round < 20; round++ ){
+						KMeansModelHolder.Snapshot snapshot = holder.getSnapshot();
+						KMeansModel expected = snapshot.getVersion() % 2 == 1 ? first : second;
+						if ( snapshot.getModel() != expected ) failed[0] = true;
+						for ( Clusterable query : queries ){
+							if ( snapshot.getModel().predict(query) >= expected.getNumClusters() ) failed[0] = true;
+						}
+					}
+				}
+			};
+			readers[t].start();
+		}
+		for ( int i = 0; i < 10; i++ ){
+			holder.swap(i % 2 == 0 ? second : first);
+		}
+		for ( Thread reader : readers ){
+			reader.join();
+		}
+		assertFalse(failed[0]);
+		assertEquals(11,holder.getVersion());
+		assertEquals(-1,holder.compareAndSwap(10,second));
+		assertEquals(12,holder.compareAndSwap(11,second));
+		assertTrue(holder.getModel() == second);
+	}
+	
+	@Test
+	public void testBagOfWords() throws Exception {
+		Random random = new Random(3);
+		float[][] words = new float[50][4];
+		for ( float[] word : words ){
+			for ( int d = 0; d < word.length; d++ ){
+				word[d] = (float)random.nextGaussian();
+			}
+		}
+		KMeansModel model = new KMeansModel(words,KMeansModel.IndexType.KD_TREE);
+		List<FloatDataset> images = new ArrayList<FloatDataset>();
+		for ( int i = 0; i < 40; i++ ){
+			FloatDataset image = new FloatDataset(random.nextInt(100),4);
+			for ( int j = 0; j < image.getData().length; j++ ){
+				image.getData()[j] = (float)random.nextGaussian();
+			}
+			images.add(image);
+		}
+		
+		BagOfWordsEncoder encoder = new BagOfWordsEncoder(model,BagOfWordsEncoder.Weighting.TF,BagOfWordsEncoder.Normalization.NONE);
+		SparseHistogram[] histograms = encoder.encodeAll(images);
+		for ( int i = 0; i < images.size(); i++ ){
+			FloatDataset image = images.get(i);
+			float[] counts = new float[words.length];
+			for ( int j = 0; j < image.size(); j++ ){
+				counts[ClusterUtils.getNearestIndex(image.getRow(j,null),words)]++;
+			}
+			assertArrayEquals(counts,histograms[i].toDense(words.length),0);
+			assertArrayEquals(counts,encoder.encode(image).toDense(words.length),0);
+		}
+		
+		encoder.setNormalization(BagOfWordsEncoder.Normalization.L1);
+		SparseHistogram histogram = encoder.encode(images.get(0));
+		double sum = 0;
+		for ( int i = 0; i < histogram.size(); i++ ){
+			sum += histogram.getWeight(i);
+		}
+		assertEquals(1,sum,0.0001);
+		
+		encoder.setWeighting(BagOfWordsEncoder.Weighting.TF_IDF);
+		encoder.setNormalization(BagOfWordsEncoder.Normalization.L2);
+		encoder.fitIdf(images);
+		histograms = encoder.encodeAll(images);
+		for ( int i = 0; i < histograms.length; i++ ){
+			if ( histograms[i].size() > 0 && histograms[i].dot(histograms[i]) > 0 ){
+				assertEquals(1,histograms[i].dot(histograms[i]),0.0001);
+			}
+		}
+	}
+	
+	@Test
+	public void testProductQuantizer() throws Exception {
+		Random random = new Random(4);
+		FloatDataset data = new FloatDataset(2000,10);
+		for ( int i = 0; i < data.getData().length; i++ ){
+			data.getData()[i] = (float)random.nextGaussian();
+		}
+		ProductQuantizer quantizer = new ProductQuantizer(4,16,new KClustererFactory(){
+			public KClusterer create(){
+				return new KMeansClusterer(new DriftClusterChecker(0.01),10);
+			}
+		});
+		quantizer.train(data);
+		byte[] codes = quantizer.encode(data);
+		assertEquals(data.size()*4,codes.length);
+		
+		//the asymmetric distance is the exact distance to the decoded vector
+		float[] query = data.getRow(7,null);
+		float[] table = new float[4*16];
+		quantizer.distanceTable(query,table);
+		float[] decoded = new float[10];
+		double error = 0;
+		for ( int i = 0; i < data.size(); i++ ){
+			quantizer.decode(codes,i,decoded);
+			assertEquals(ClusterUtils.getSquaredDistance(query,decoded,Double.MAX_VALUE),quantizer.distance(table,codes,i),0.001);
+			error += ClusterUtils.getSquaredDistance(data.getRow(i,null),decoded,Double.MAX_VALUE);
+		}
+		//quantizing has to beat just using the mean, which is off by the variance in each dimension
+		assertTrue(error/data.size() < 0.75*10);
+		
+		byte[] own = new byte[4];
+		quantizer.encode(query,own,0);
+		Neighbors neighbors = quantizer.search(query,codes,5);
+		assertEquals(5,neighbors.size());
+		quantizer.decode(own,0,decoded);
+		assertEquals(Math.sqrt(ClusterUtils.getSquaredDistance(query,decoded,Double.MAX_VALUE)),neighbors.getDistance(0),0.001);
+		for ( int i = 1; i < neighbors.size(); i++ ){
+			assertTrue(neighbors.getDistance(i) >= neighbors.getDistance(i-1));
+		}
+	}
+	
+	@Test
+	public void testOutOfCoreAndBasicEquivalency() throws Exception {
+		Random random = new Random(5);
+		FloatDataset data = new FloatDataset(3000,5);
+		for ( int i = 0; i < data.getData().length; i++ ){
+			data.getData()[i] = (float)random.nextGaussian();
+		}
+		File file = File.createTempFile("data",".f32");
+		file.deleteOnExit();
+		RawFloatChunkSource.write(data,file);
+		
+		float[][] centers = new float[8][];
+		for ( int i = 0; i < centers.length; i++ ){
+			centers[i] = data.getRow(i*300,null);
+		}
+		List<Clusterable> values = new ArrayList<Clusterable>();
+		for ( int i = 0; i < data.size(); i++ ){
+			values.add(new Cluster(data.getRow(i,null),i));
+		}
+		Cluster[] expected = new KMeansClusterer(new DriftClusterChecker(0.001),100).cluster(values,centers);
+		
+		RawFloatChunkSource source = new RawFloatChunkSource(file,5);
+		//a chunk size that leaves a short chunk at the end
+		OutOfCoreKMeansClusterer clusterer = new OutOfCoreKMeansClusterer(new DriftClusterChecker(0.001),100,333);
+		Cluster[] clusters = clusterer.cluster(source,centers);
+		assertTrue(clusterer.getNumPasses() > 1);
+		for ( int i = 0; i < clusters.length; i++ ){
+			assertEquals(expected[i].getItems().size(),clusters[i].getItemCount());
+			assertTrue(clusters[i].getItems().isEmpty());
+			assertArrayEquals(expected[i].getClusterMean(),clusters[i].getClusterMean(),0.001F);
+		}
+		
+		//it runs the same loop as the in memory clusterers, so it checkpoints and cancels the same way
+		File checkpoint = File.createTempFile("checkpoint",".ser");
+		checkpoint.deleteOnExit();
+		OutOfCoreKMeansClusterer stopped = new OutOfCoreKMeansClusterer(new DriftClusterChecker(0.001),2,333);
+		stopped.setCheckpoint(checkpoint,1);
+		stopped.cluster(source,centers);
+		clusters = new OutOfCoreKMeansClusterer(new DriftClusterChecker(1),100,333).resume(source,checkpoint);
+		for ( int i = 0; i < clusters.length; i++ ){
+			assertEquals(expected[i].getItems().size(),clusters[i].getItemCount());
+			assertArrayEquals(expected[i].getClusterMean(),clusters[i].getClusterMean(),0.001F);
+		}
+		ClusteringResult result = clusterer.cluster(source,centers,new CancellationToken(0));
+		assertTrue(result.isCancelled());
+		assertEquals(0,result.getNumIterations());
+		source.close();
+	}
+	
+	@Test
+	public void testCheckpointResume() throws Exception {
+		Random random = new Random(6);
+		List<Clusterable> values = new ArrayList<Clusterable>();
+		for ( int i = 0; i < 3000; i++ ){
+			float[] location = new float[5];
+			for ( int j = 0; j < location.length; j++ ){
+				location[j] = (float)random.nextGaussian();
+			}
+			values.add(new Cluster(location,i));
+		}
+		File file = File.createTempFile("checkpoint",".ser");
+		file.deleteOnExit();
+		
+		Cluster[] expected = new KMeansClusterer(new ShiftCountClusterChecker(0.001f,0),100).cluster(values,8);
+		//stop it short, as if the process died after the 4th iteration
+		KMeansClusterer stopped = new KMeansClusterer(new ShiftCountClusterChecker(0.001f,0),3);
+		stopped.setCheckpoint(file,1);
+		stopped.cluster(values,8);
+		assertEquals(4,Checkpoint.read(file).getIteration());
+		Cluster[] clusters = new KMeansClusterer(new DriftClusterChecker(1),100).resume(values,file);
+		for ( int i = 0; i < clusters.length; i++ ){
+			assertEquals(expected[i].getItems().size(),clusters[i].getItems().size());
+			assertArrayEquals(expected[i].getLocation(),clusters[i].getLocation(),0F);
+		}
+		
+		expected = new ElkanKMeansClusterer().cluster(values,8);
+		ElkanKMeansClusterer elkan = new ElkanKMeansClusterer(new DriftClusterChecker(AbstractKClusterer.DISTANCE_TOLERANCE),3);
+		elkan.setCheckpoint(file,2);
+		elkan.cluster(values,8);
+		assertEquals(4,Checkpoint.read(file).getIteration());
+		clusters = new ElkanKMeansClusterer().resume(values,file);
+		for ( int i = 0; i < clusters.length; i++ ){
+			assertEquals(expected[i].getItems().size(),clusters[i].getItems().size());
+			assertArrayEquals(expected[i].getLocation(),clusters[i].getLocation(),0F);
+		}
+		
+		//a checkpoint that can't be written doesn't hide what stopped the run
+		KMeansClusterer failing = new KMeansClusterer(new DriftClusterChecker(0),100){
+			private int mAssignments;
+			
+			protected Cluster[] assignClusters(Cluster[] clusters, List<? extends Clusterable> values, ClusteringRun run){
+				if ( ++mAssignments == 2 ) throw new RuntimeException("Assignment failed");
+				return super.assignClusters(clusters,values,run);
+			}
+		};
+		failing.setCheckpoint(new File(file.getPath() + ".missing","checkpoint.ser"),1);
+		try {
+			failing.cluster(values,8);
+			fail("Should have failed");
+		} catch ( RuntimeException e ){
+			assertEquals("Assignment failed",e.getMessage());
+		}
+		//but a run that finishes still says it couldn't write it
+		KMeansClusterer unwritable = new KMeansClusterer();
+		unwritable.setCheckpoint(new File(file.getPath() + ".missing","checkpoint.ser"),1);
+		try {
+			unwritable.cluster(values,8);
+			fail("Should have failed");
+		} catch ( RuntimeException e ){
+			assertTrue(e.getMessage().startsWith("Couldn't write the checkpoint"));
+		}
+	}
+	
+	@Test
+	public void testCancellation() throws Exception {
+		Random random = new Random(7);
+		final List<Clusterable> values = new ArrayList<Clusterable>();
+		for ( int i = 0; i < 3000; i++ ){
+			values.add(new Point((float)random.nextGaussian(),(float)random.nextGaussian()));
+		}
+		final float[][] centers = new float[8][];
+		for ( int i = 0; i < centers.length; i++ ){
+			centers[i] = values.get(i*300).getLocation();
+		}
+		
+		ClusteringResult result = new KMeansClusterer().cluster(values,centers,new CancellationToken(0));
+		assertTrue(result.isCancelled());
+		assertFalse(result.isConverged());
+		assertEquals(0,result.getNumIterations());
+		for ( Cluster cluster : result.getClusters() ){
+			assertTrue(cluster.getItems().isEmpty());
+		}
+		
+		result = new KMeansClusterer().cluster(values,centers,new CancellationToken());
+		assertTrue(result.isConverged());
+		assertFalse(result.isCancelled());
+		Cluster[] expected = new KMeansClusterer().cluster(values,centers);
+		for ( int i = 0; i < expected.length; i++ ){
+			assertEquals(expected[i].getItems().size(),result.getClusters()[i].getItems().size());
+		}
+		
+		//Elkan makes its first assignment picking the starting clusters, it has to stop there too
+		result = new ElkanKMeansClusterer().cluster(values,centers,new CancellationToken(0));
+		assertTrue(result.isCancelled());
+		assertEquals(0,result.getNumIterations());
+		
+		//runs on the same clusterer each have their own token
+		final KMeansClusterer shared = new KMeansClusterer();
+		final ClusteringResult[] other = new ClusteringResult[1];
+		Thread thread = new Thread(){
+			public void run(){
+				other[0] = shared.cluster(values,centers,new CancellationToken());
+			}
+		};
+		thread.start();
+		result = shared.cluster(values,centers,new CancellationToken(0));
+		thread.join();
+		assertTrue(result.isCancelled());
+		assertTrue(other[0].isConverged());
+		
+		//cancel part way through the 4th assignment, the 3rd one should come back
+		final CancellationToken token = new CancellationToken();
+		List<Clusterable> cancelling = new AbstractList<Clusterable>(){
+			int mCalls = 0;
+			public Clusterable get(int index){
+				if ( index == 2000 && ++mCalls == 4 ) token.cancel();
+				return values.get(index);
+			}
+			public int size(){
+				return values.size();
+			}
+		};
+		result = new KMeansClusterer().cluster(cancelling,centers,token);
+		assertTrue(result.isCancelled());
+		assertFalse(result.isConverged());
+		assertEquals(3,result.getNumIterations());
+		expected = new KMeansClusterer(new DriftClusterChecker(0),1).cluster(values,centers);
+		int total = 0;
+		for ( int i = 0; i < expected.length; i++ ){
+			assertEquals(expected[i].getItems().size(),result.getClusters()[i].getItems().size());
+			assertArrayEquals(expected[i].getLocation(),result.getClusters()[i].getLocation(),0F);
+			total += result.getClusters()[i].getItems().size();
+		}
+		assertEquals(values.size(),total);
+	}
+	
+	@Test
+	public void testSharedIndexClusterers() throws Exception {
+		final List<List<Clusterable>> lists = new ArrayList<List<Clusterable>>();
+		Random random = new Random(8);
+		for ( int l = 0; l < 2; l++ ){
+			List<Clusterable> values = new ArrayList<Clusterable>();
+			for ( int i = 0; i < 2000; i++ ){
+				values.add(new Point((float)random.nextGaussian() + l*10,(float)random.nextGaussian()));
+			}
+			lists.add(values);
+		}
+		final KClusterer[] shared = new KClusterer[]{ new KMeansTreeClusterer(), new KMeansForestClusterer() };
+		for ( final KClusterer clusterer : shared ){
+			final Cluster[][] results = new Cluster[2][];
+			Thread thread = new Thread(){
+				public void run(){
+					results[1] = clusterer.cluster(lists.get(1),8);
+				}
+			};
+			thread.start();
+			results[0] = clusterer.cluster(lists.get(0),8);
+			thread.join();
+			for ( int l = 0; l < 2; l++ ){
+				KClusterer fresh = clusterer instanceof KMeansTreeClusterer ? new KMeansTreeClusterer() : new KMeansForestClusterer();
+				Cluster[] expected = fresh.cluster(lists.get(l),8);
+				for ( int i = 0; i < expected.length; i++ ){
+					assertEquals(expected[i].getItems().size(),results[l][i].getItems().size());
+				}
+			}
+		}
+	}
 }
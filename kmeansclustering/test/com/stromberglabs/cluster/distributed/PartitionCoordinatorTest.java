@@ -0,0 +1,116 @@
+package com.stromberglabs.cluster.distributed;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.stromberglabs.cluster.Cluster;
+import com.stromberglabs.cluster.OutOfCoreKMeansClusterer;
+import com.stromberglabs.cluster.checker.DriftClusterChecker;
+import com.stromberglabs.data.FloatDataset;
+import com.stromberglabs.data.RawFloatChunkSource;
+
+public class PartitionCoordinatorTest {
+	private static File write(FloatDataset data) throws Exception {
+		File file = File.createTempFile("partition",".f32");
+		file.deleteOnExit();
+		RawFloatChunkSource.write(data,file);
+		return file;
+	}
+	
+	private static Thread startWorker(final File file, final int dimension, final int port){
+		Thread thread = new Thread(){
+			public void run(){
+				try {
+					RawFloatChunkSource partition = new RawFloatChunkSource(file,dimension);
+					new PartitionWorker(partition,"localhost",port,100).serve();
+					partition.close();
+				} catch ( Exception e ){
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		thread.start();
+		return thread;
+	}
+	
+	@Test
+	public void testPartitionsAndSingleProcessEquivalency() throws Exception {
+		Random random = new Random(6);
+		FloatDataset data = new FloatDataset(1500,4);
+		for ( int i = 0; i < data.getData().length; i++ ){
+			data.getData()[i] = (float)random.nextGaussian();
+		}
+		float[][] centers = new float[6][];
+		for ( int i = 0; i < centers.length; i++ ){
+			centers[i] = data.getRow(i*250,null);
+		}
+		RawFloatChunkSource whole = new RawFloatChunkSource(write(data),4);
+		Cluster[] expected = new OutOfCoreKMeansClusterer(new DriftClusterChecker(0.001),100).cluster(whole,centers);
+		whole.close();
+		
+		ServerSocket server = new ServerSocket(0);
+		Thread[] workers = new Thread[3];
+		for ( int w = 0; w < workers.length; w++ ){
+			FloatDataset partition = new FloatDataset(Arrays.copyOfRange(data.getData(),w*500*4,(w+1)*500*4),4);
+			workers[w] = startWorker(write(partition),4,server.getLocalPort());
+		}
+		PartitionCoordinator coordinator = new PartitionCoordinator(new DriftClusterChecker(0.001),100);
+		Cluster[] clusters = coordinator.cluster(server,workers.length,centers);
+		server.close();
+		for ( Thread worker : workers ){
+			worker.join();
+		}
+		assertTrue(coordinator.getNumPasses() > 1);
+		for ( int i = 0; i < clusters.length; i++ ){
+			assertEquals(expected[i].getItemCount(),clusters[i].getItemCount());
+			assertArrayEquals(expected[i].getClusterMean(),clusters[i].getClusterMean(),0.0001F);
+		}
+	}
+	
+	@Test
+	public void testSampledStart() throws Exception {
+		Random random = new Random(7);
+		ServerSocket server = new ServerSocket(0);
+		Thread[] workers = new Thread[2];
+		for ( int w = 0; w < workers.length; w++ ){
+			FloatDataset partition = new FloatDataset(300,3);
+			for ( int i = 0; i < partition.getData().length; i++ ){
+				partition.getData()[i] = (float)random.nextGaussian() + w*10;
+			}
+			workers[w] = startWorker(write(partition),3,server.getLocalPort());
+		}
+		Cluster[] clusters = new PartitionCoordinator().cluster(server,workers.length,4);
+		server.close();
+		for ( Thread worker : workers ){
+			worker.join();
+		}
+		int total = 0;
+		for ( Cluster cluster : clusters ){
+			total += cluster.getItemCount();
+		}
+		assertEquals(4,clusters.length);
+		assertEquals(600,total);
+	}
+	
+	@Test
+	public void testCentersOfTheWrongDimension() throws Exception {
+		FloatDataset partition = new FloatDataset(100,3);
+		ServerSocket server = new ServerSocket(0);
+		Thread worker = startWorker(write(partition),3,server.getLocalPort());
+		try {
+			new PartitionCoordinator().cluster(server,1,new float[][]{ new float[3], new float[2] });
+			fail("Should have refused the centers");
+		} catch ( RuntimeException e ){
+			assertTrue(e.getMessage().contains("Center 1"));
+		}
+		server.close();
+		//the worker still gets told to stop
+		worker.join();
+	}
+}
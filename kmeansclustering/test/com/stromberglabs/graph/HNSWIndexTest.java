@@ -0,0 +1,92 @@
+package com.stromberglabs.graph;
+
+import static org.junit.Assert.*;
+import static com.stromberglabs.tree.IndexFixtures.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stromberglabs.cluster.ClusterUtils;
+import com.stromberglabs.cluster.Clusterable;
+import com.stromberglabs.tree.Neighbors;
+
+public class HNSWIndexTest {
+	private Clusterable[] mPoints;
+	private float[][] mQueries;
+	
+	@Before
+	public void setUp() throws Exception {
+		Random random = new Random(1);
+		mPoints = new Clusterable[3000];
+		for ( int i = 0; i < mPoints.length; i++ ){
+			mPoints[i] = gaussianPoint(random,16);
+		}
+		mQueries = new float[200][];
+		for ( int i = 0; i < mQueries.length; i++ ){
+			mQueries[i] = gaussianPoint(random,16).getLocation();
+		}
+	}
+	
+	private double recall(HNSWIndex index, int ef){
+		float[][] locations = new float[mPoints.length][];
+		for ( int i = 0; i < mPoints.length; i++ ){
+			locations[i] = mPoints[i].getLocation();
+		}
+		int correct = 0;
+		for ( float[] query : mQueries ){
+			if ( index.findClosestIndex(query,ef) == ClusterUtils.getNearestIndex(query,locations) ) correct++;
+		}
+		return (double)correct/mQueries.length;
+	}
+	
+	@Test
+	public void testRecall() throws Exception {
+		HNSWIndex index = new HNSWIndex(mPoints);
+		assertTrue(recall(index,100) >= 0.95);
+		for ( int i = 0; i < mPoints.length; i += 10 ){
+			assertEquals(i,index.findClosestIndex(mPoints[i].getLocation()));
+		}
+	}
+	
+	@Test
+	public void testExactQueries() throws Exception {
+		HNSWIndex index = new HNSWIndex(mPoints);
+		for ( float[] query : mQueries ){
+			double[] distances = sortedDistances(query,mPoints);
+			Neighbors neighbors = new Neighbors();
+			index.kNearest(query,5,Integer.MAX_VALUE,neighbors);
+			for ( int i = 0; i < 5; i++ ){
+				assertEquals(distances[i],neighbors.getDistance(i),0.0001);
+			}
+			assertEquals(distances[0],ClusterUtils.getEuclideanDistance(query,mPoints[index.exactNearestIndex(query)].getLocation()),0.0001);
+		}
+	}
+	
+	@Test
+	public void testUpdate() throws Exception {
+		HNSWIndex index = new HNSWIndex(mPoints);
+		Random random = new Random(2);
+		//nudge everything a little and move a few points somewhere else entirely
+		Clusterable[] moved = new Clusterable[mPoints.length];
+		for ( int i = 0; i < mPoints.length; i++ ){
+			if ( random.nextInt(20) == 0 ){
+				moved[i] = gaussianPoint(random,16);
+			} else {
+				final float[] location = mPoints[i].getLocation().clone();
+				location[0] += 0.001F;
+				moved[i] = new Clusterable(){
+					public float[] getLocation(){ return location; }
+				};
+			}
+		}
+		mPoints = moved;
+		int relinked = index.update(mPoints);
+		assertTrue(relinked > 0 && relinked < mPoints.length/2);
+		assertTrue(recall(index,100) >= 0.95);
+		for ( int i = 0; i < mPoints.length; i += 10 ){
+			assertEquals(i,index.findClosestIndex(mPoints[i].getLocation()));
+		}
+	}
+}
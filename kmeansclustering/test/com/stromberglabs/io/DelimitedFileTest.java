@@ -0,0 +1,66 @@
+package com.stromberglabs.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.stromberglabs.data.FloatDataset;
+
+public class DelimitedFileTest {
+	private static File write(String text) throws Exception {
+		File file = File.createTempFile("data",".csv");
+		file.deleteOnExit();
+		FileWriter out = new FileWriter(file);
+		out.write(text);
+		out.close();
+		return file;
+	}
+	
+	@Test
+	public void testRead() throws Exception {
+		FloatDataset data = DelimitedFile.read(write("x,y,z\r\n1,2.5,-3\r\n\r\n 4e2 , .5,1E-3\r\n-0.0,+7,3.4028235E38"),',',true);
+		assertEquals(3,data.size());
+		assertEquals(3,data.getDimension());
+		assertArrayEquals(new float[]{ 1, 2.5F, -3, 400, 0.5F, 0.001F, -0F, 7, Float.MAX_VALUE },data.getData(),0);
+		
+		data = DelimitedFile.read(write("1\t2  3\n4 5\t\t6\n"),' ',false);
+		assertArrayEquals(new float[]{ 1, 2, 3, 4, 5, 6 },data.getData(),0);
+	}
+	
+	@Test
+	public void testParallelPieces() throws Exception {
+		Random random = new Random(1);
+		StringBuilder text = new StringBuilder();
+		float[] expected = new float[2000*6];
+		for ( int i = 0; i < expected.length; i++ ){
+			String value = i % 3 == 0 ? Float.toString((float)random.nextGaussian()) : String.format("%.4f",random.nextGaussian()*100);
+			expected[i] = Float.parseFloat(value);
+			text.append(value).append(i % 6 == 5 ? "\n" : ",");
+		}
+		int oldSize = DelimitedFile.PARSE_CHUNK_SIZE;
+		DelimitedFile.PARSE_CHUNK_SIZE = 1000;
+		try {
+			FloatDataset data = DelimitedFile.read(write(text.toString()));
+			assertEquals(2000,data.size());
+			assertArrayEquals(expected,data.getData(),0);
+		} finally {
+			DelimitedFile.PARSE_CHUNK_SIZE = oldSize;
+		}
+	}
+	
+	@Test
+	public void testBadLines() throws Exception {
+		String[] bad = { "1,2\n3\n", "1,,2\n", "1,2,\n", "1,abc\n" };
+		for ( String text : bad ){
+			try {
+				DelimitedFile.read(write(text));
+				fail("Read \"" + text + "\"");
+			} catch ( RuntimeException e ){
+			}
+		}
+	}
+}
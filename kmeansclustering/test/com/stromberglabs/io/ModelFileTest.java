@@ -0,0 +1,81 @@
+package com.stromberglabs.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stromberglabs.cluster.KMeansModel;
+import com.stromberglabs.data.FloatDataset;
+
+public class ModelFileTest {
+	private float[][] mCentroids;
+	private FloatDataset mQueries;
+	
+	@Before
+	public void setUp() throws Exception {
+		Random random = new Random(1);
+		mCentroids = new float[2000][12];
+		for ( float[] centroid : mCentroids ){
+			for ( int d = 0; d < centroid.length; d++ ){
+				centroid[d] = (float)random.nextGaussian();
+			}
+		}
+		mQueries = new FloatDataset(1000,12);
+		for ( int i = 0; i < mQueries.getData().length; i++ ){
+			mQueries.getData()[i] = (float)random.nextGaussian();
+		}
+	}
+	
+	@Test
+	public void testRoundTrip() throws Exception {
+		for ( KMeansModel.IndexType type : KMeansModel.IndexType.values() ){
+			KMeansModel model = new KMeansModel(mCentroids,type);
+			File file = File.createTempFile("model",".kmns");
+			file.deleteOnExit();
+			ModelFile.write(model,file);
+			assertEquals(8 + model.getSerializedSize(),file.length());
+			KMeansModel loaded = ModelFile.read(file);
+			assertEquals(type,loaded.getIndexType());
+			assertEquals(model.getNumClusters(),loaded.getNumClusters());
+			assertArrayEquals(model.getCentroid(7),loaded.getCentroid(7),0);
+			//the rebuilt HNSW graph is the same as the written one's, so every type predicts the same
+			assertArrayEquals(model.predictBatch(mQueries),loaded.predictBatch(mQueries));
+		}
+	}
+	
+	@Test
+	public void testBadHeader() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+		ModelFile.write(new KMeansModel(new float[][]{ { 1, 2 } },KMeansModel.IndexType.BRUTE_FORCE),buffer);
+		buffer.putInt(4,ModelFile.VERSION + 1);
+		buffer.flip();
+		try {
+			ModelFile.read(buffer);
+			fail("Read a model file from the future");
+		} catch ( RuntimeException e ){
+		}
+		buffer.putInt(0,0);
+		buffer.position(0);
+		try {
+			ModelFile.read(buffer);
+			fail("Read something that isn't a model file");
+		} catch ( RuntimeException e ){
+		}
+		buffer.putInt(0,ModelFile.MAGIC);
+		buffer.putInt(4,ModelFile.VERSION);
+		buffer.putInt(8,KMeansModel.IndexType.values().length);
+		buffer.position(0);
+		try {
+			ModelFile.read(buffer);
+			fail("Read an index type that doesn't exist");
+		} catch ( RuntimeException e ){
+			assertEquals("Not a model file",e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.stromberglabs.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.stromberglabs.data.FloatDataset;
+
+public class VecsFileTest {
+	private static FloatDataset randomData(int size, int dimension, boolean bytes){
+		Random random = new Random(1);
+		FloatDataset data = new FloatDataset(size,dimension);
+		for ( int i = 0; i < data.getData().length; i++ ){
+			data.getData()[i] = bytes ? random.nextInt(256) : (float)random.nextGaussian();
+		}
+		return data;
+	}
+	
+	private static File tempFile(String suffix) throws Exception {
+		File file = File.createTempFile("vecs",suffix);
+		file.deleteOnExit();
+		return file;
+	}
+	
+	@Test
+	public void testFvecs() throws Exception {
+		int oldSize = VecsChunkSource.READ_BUFFER_SIZE;
+		//small enough that the reads take several buffers
+		VecsChunkSource.READ_BUFFER_SIZE = 1000;
+		try {
+			FloatDataset data = randomData(500,24,false);
+			File file = tempFile(".fvecs");
+			VecsFile.writeFvecs(data,file);
+			assertEquals(500*(4 + 24*4),file.length());
+			FloatDataset read = VecsFile.readFvecs(file);
+			assertEquals(24,read.getDimension());
+			assertArrayEquals(data.getData(),read.getData(),0);
+			
+			FloatDataset part = VecsFile.read(file,VecsFile.Type.FVECS,490,100);
+			assertEquals(10,part.size());
+			assertArrayEquals(data.getRow(495,null),part.getRow(5,null),0);
+		} finally {
+			VecsChunkSource.READ_BUFFER_SIZE = oldSize;
+		}
+	}
+	
+	@Test
+	public void testBvecsAndIvecs() throws Exception {
+		FloatDataset data = randomData(300,16,true);
+		File file = tempFile(".bvecs");
+		VecsFile.writeBvecs(data,file);
+		assertArrayEquals(data.getData(),VecsFile.readBvecs(file).getData(),0);
+		
+		int[][] rows = new int[50][7];
+		for ( int i = 0; i < rows.length; i++ ){
+			for ( int j = 0; j < rows[i].length; j++ ){
+				rows[i][j] = i*1000 - j;
+			}
+		}
+		file = tempFile(".ivecs");
+		VecsFile.writeIvecs(rows,file);
+		int[][] read = VecsFile.readIvecs(file);
+		assertEquals(rows.length,read.length);
+		for ( int i = 0; i < rows.length; i++ ){
+			assertArrayEquals(rows[i],read[i]);
+		}
+	}
+	
+	@Test
+	public void testNotVecs() throws Exception {
+		File file = tempFile(".fvecs");
+		VecsFile.writeFvecs(randomData(3,5,false),file);
+		//read as bvecs the records come out the wrong size
+		try {
+			VecsFile.readBvecs(file);
+			fail("Read an fvecs file as bvecs");
+		} catch ( RuntimeException e ){
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.stromberglabs.tree;
+
+import static org.junit.Assert.*;
+import static com.stromberglabs.tree.IndexFixtures.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stromberglabs.cluster.ClusterUtils;
+import com.stromberglabs.cluster.Clusterable;
+
+public class ClusterBallTreeTest {
+	private Clusterable[] mPoints;
+	private Clusterable[] mQueries;
+	
+	@Before
+	public void setUp() throws Exception {
+		Random random = new Random(1);
+		mPoints = new Clusterable[2000];
+		for ( int i = 0; i < mPoints.length; i++ ){
+			mPoints[i] = randomPoint(random,32,100);
+		}
+		mQueries = new Clusterable[200];
+		for ( int i = 0; i < mQueries.length; i++ ){
+			mQueries[i] = randomPoint(random,32,100);
+		}
+	}
+	
+	@Test
+	public void testExactNearestNeighbor() throws Exception {
+		ClusterBallTree tree = new ClusterBallTree(mPoints);
+		float[][] locations = new float[mPoints.length][];
+		for ( int i = 0; i < mPoints.length; i++ ){
+			locations[i] = mPoints[i].getLocation();
+		}
+		for ( Clusterable query : mQueries ){
+			assertEquals(ClusterUtils.getNearestIndex(query.getLocation(),locations),tree.exactNearestIndex(query.getLocation()));
+		}
+		//every point is its own closest
+		for ( int i = 0; i < mPoints.length; i += 10 ){
+			assertEquals(i,tree.exactNearestIndex(mPoints[i].getLocation()));
+		}
+	}
+	
+	@Test
+	public void testKNearestAndRadius() throws Exception {
+		ClusterBallTree tree = new ClusterBallTree(mPoints);
+		for ( Clusterable query : mQueries ){
+			double[] distances = sortedDistances(query,mPoints);
+			Neighbors neighbors = tree.kNearest(query,5,Integer.MAX_VALUE);
+			assertEquals(5,neighbors.size());
+			for ( int i = 0; i < 5; i++ ){
+				assertEquals(distances[i],neighbors.getDistance(i),0.0001);
+			}
+			double radius = distances[9] + 0.001;
+			int expected = 0;
+			while ( distances[expected] <= radius ) expected++;
+			assertEquals(expected,tree.withinRadius(query,radius).size());
+			assertEquals(distances[0],ClusterUtils.getEuclideanDistance(query,tree.restrictedNearestNeighbor(query,Integer.MAX_VALUE)),0.0001);
+		}
+	}
+	
+	@Test
+	public void testUpdate() throws Exception {
+		ClusterBallTree tree = new ClusterBallTree(mPoints);
+		Random random = new Random(2);
+		Clusterable[] moved = new Clusterable[mPoints.length];
+		for ( int i = 0; i < mPoints.length; i++ ){
+			moved[i] = randomPoint(random,32,100);
+		}
+		mPoints = moved;
+		tree.update(mPoints);
+		for ( Clusterable query : mQueries ){
+			double[] distances = sortedDistances(query,mPoints);
+			assertEquals(distances[0],ClusterUtils.getEuclideanDistance(query,tree.exactNearestNeighbor(query)),0.0001);
+			assertEquals(distances[2],tree.kNearest(query,3,Integer.MAX_VALUE).getDistance(2),0.0001);
+		}
+	}
+}
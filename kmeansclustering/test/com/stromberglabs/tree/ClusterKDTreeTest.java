@@ -0,0 +1,125 @@
+package com.stromberglabs.tree;
+
+import static org.junit.Assert.*;
+import static com.stromberglabs.tree.IndexFixtures.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stromberglabs.cluster.ClusterUtils;
+import com.stromberglabs.cluster.Clusterable;
+import com.stromberglabs.cluster.Point;
+
+public class ClusterKDTreeTest {
+	private Clusterable[] mPoints;
+	private Clusterable[] mQueries;
+	
+	@Before
+	public void setUp() throws Exception {
+		Random random = new Random(1);
+		mPoints = new Clusterable[2000];
+		for ( int i = 0; i < mPoints.length; i++ ){
+			mPoints[i] = new Point(random.nextInt(1000) - 500,random.nextInt(1000) - 500);
+		}
+		mQueries = new Clusterable[200];
+		for ( int i = 0; i < mQueries.length; i++ ){
+			mQueries[i] = new Point(random.nextFloat()*1000 - 500,random.nextFloat()*1000 - 500);
+		}
+	}
+	
+	@Test
+	public void testExactNearestNeighbor() throws Exception {
+		ClusterKDTree tree = new ClusterKDTree(mPoints,true);
+		for ( Clusterable query : mQueries ){
+			double[] distances = sortedDistances(query,mPoints);
+			assertEquals(distances[0],ClusterUtils.getEuclideanDistance(query,tree.exactNearestNeighbor(query)),0.0001);
+		}
+	}
+	
+	@Test
+	public void testKNearest() throws Exception {
+		ClusterKDTree tree = new ClusterKDTree(mPoints,true);
+		ClusterIndex forest = new ClusterKDForest(mPoints,4,10,ClusterKDTree.SplitRule.VARIANCE,true,1);
+		for ( Clusterable query : mQueries ){
+			double[] distances = sortedDistances(query,mPoints);
+			assertEquals(distances[0],ClusterUtils.getEuclideanDistance(query,forest.exactNearestNeighbor(query)),0.0001);
+			Neighbors neighbors = tree.kNearest(query,5,Integer.MAX_VALUE);
+			Neighbors forestNeighbors = forest.kNearest(query,5,Integer.MAX_VALUE);
+			assertEquals(5,neighbors.size());
+			assertEquals(5,forestNeighbors.size());
+			for ( int i = 0; i < 5; i++ ){
+				assertEquals(distances[i],neighbors.getDistance(i),0.0001);
+				assertEquals(distances[i],ClusterUtils.getEuclideanDistance(query,tree.getPoint(neighbors.getIndex(i))),0.0001);
+				assertEquals(distances[i],forestNeighbors.getDistance(i),0.0001);
+			}
+		}
+	}
+	
+	@Test
+	public void testWithinRadius() throws Exception {
+		ClusterKDTree tree = new ClusterKDTree(mPoints,false);
+		for ( Clusterable query : mQueries ){
+			double[] distances = sortedDistances(query,mPoints);
+			int expected = 0;
+			while ( distances[expected] <= 40 ) expected++;
+			Neighbors neighbors = tree.withinRadius(query,40);
+			assertEquals(expected,neighbors.size());
+			for ( int i = 0; i < neighbors.size(); i++ ){
+				assertTrue(neighbors.getDistance(i) <= 40);
+			}
+		}
+	}
+	
+	@Test
+	public void testVarianceSplitAndRotation() throws Exception {
+		ClusterKDTree tree = new ClusterKDTree(mPoints,ClusterKDTree.SplitRule.VARIANCE,true,1);
+		float[][] locations = new float[mPoints.length][];
+		for ( int i = 0; i < mPoints.length; i++ ){
+			locations[i] = mPoints[i].getLocation();
+		}
+		for ( Clusterable query : mQueries ){
+			double[] distances = sortedDistances(query,mPoints);
+			assertEquals(distances[0],ClusterUtils.getEuclideanDistance(query,tree.exactNearestNeighbor(query)),0.0001);
+			assertEquals(ClusterUtils.getNearestIndex(query.getLocation(),locations),tree.exactNearestIndex(query.getLocation()));
+			Neighbors neighbors = tree.kNearest(query,5,Integer.MAX_VALUE);
+			assertEquals(5,neighbors.size());
+			for ( int i = 0; i < 5; i++ ){
+				assertEquals(distances[i],neighbors.getDistance(i),0.0001);
+			}
+		}
+	}
+	
+	@Test
+	public void testUpdate() throws Exception {
+		ClusterKDTree tree = new ClusterKDTree(mPoints,true);
+		ClusterKDTree rotatedTree = new ClusterKDTree(mPoints,ClusterKDTree.SplitRule.VARIANCE,true,1);
+		ClusterKDForest forest = new ClusterKDForest(mPoints,4,10);
+		Random random = new Random(2);
+		for ( int round = 0; round < 3; round++ ){
+			//small moves only break a few splits deep in the tree, the last round has big jumps that break most of it
+			Clusterable[] moved = new Clusterable[mPoints.length];
+			for ( int i = 0; i < mPoints.length; i++ ){
+				float[] location = mPoints[i].getLocation();
+				float jump = round == 2 && random.nextInt(20) == 0 ? 300 : 5;
+				moved[i] = new Point(location[0] + (random.nextFloat() - 0.5F)*jump,location[1] + (random.nextFloat() - 0.5F)*jump);
+			}
+			mPoints = moved;
+			int rebuilt = tree.update(mPoints);
+			if ( round < 2 ) assertTrue(rebuilt < mPoints.length/10);
+			rotatedTree.update(mPoints);
+			forest.update(mPoints);
+			for ( Clusterable query : mQueries ){
+				double[] distances = sortedDistances(query,mPoints);
+				assertEquals(distances[0],ClusterUtils.getEuclideanDistance(query,tree.exactNearestNeighbor(query)),0.0001);
+				assertEquals(distances[0],ClusterUtils.getEuclideanDistance(query,rotatedTree.exactNearestNeighbor(query)),0.0001);
+				Neighbors neighbors = forest.kNearest(query,5,Integer.MAX_VALUE);
+				for ( int i = 0; i < 5; i++ ){
+					assertEquals(distances[i],neighbors.getDistance(i),0.0001);
+				}
+				assertTrue(tree.withinRadius(query,distances[0] + 0.0001).size() >= 1);
+			}
+		}
+	}
+}
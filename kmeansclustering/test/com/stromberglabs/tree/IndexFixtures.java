@@ -0,0 +1,53 @@
+package com.stromberglabs.tree;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.stromberglabs.cluster.ClusterUtils;
+import com.stromberglabs.cluster.Clusterable;
+
+/**
+ * Points and brute force answers for the index tests
+ */
+public class IndexFixtures {
+	/**
+	 * @return A point with every dimension a whole number from 0 up to bound
+	 */
+	public static Clusterable randomPoint(Random random, int dimensions, int bound){
+		final float[] location = new float[dimensions];
+		for ( int d = 0; d < dimensions; d++ ){
+			location[d] = random.nextInt(bound);
+		}
+		return point(location);
+	}
+	
+	public static Clusterable gaussianPoint(Random random, int dimensions){
+		final float[] location = new float[dimensions];
+		for ( int d = 0; d < dimensions; d++ ){
+			location[d] = (float)random.nextGaussian();
+		}
+		return point(location);
+	}
+	
+	private static Clusterable point(final float[] location){
+		return new Clusterable(){
+			public float[] getLocation(){ return location; }
+		};
+	}
+	
+	/**
+	 * @return The distances from the query to every point, closest first
+	 */
+	public static double[] sortedDistances(float[] query, Clusterable[] points){
+		double[] distances = new double[points.length];
+		for ( int i = 0; i < points.length; i++ ){
+			distances[i] = ClusterUtils.getEuclideanDistance(query,points[i].getLocation());
+		}
+		Arrays.sort(distances);
+		return distances;
+	}
+	
+	public static double[] sortedDistances(Clusterable query, Clusterable[] points){
+		return sortedDistances(query.getLocation(),points);
+	}
+}
@@ -0,0 +1,59 @@
+package com.stromberglabs.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntHeapTest {
+	
+	@Test
+	public void testMinHeapOrder() throws Exception {
+		Random random = new Random(1);
+		IntMinHeap heap = new IntMinHeap(1);
+		double[] priorities = new double[1000];
+		for ( int i = 0; i < priorities.length; i++ ){
+			priorities[i] = random.nextDouble();
+			heap.add(i,priorities[i]);
+		}
+		double[] sorted = priorities.clone();
+		Arrays.sort(sorted);
+		for ( int i = 0; i < sorted.length; i++ ){
+			assertEquals(sorted[i],heap.peekPriority(),0.0);
+			assertEquals(sorted[i],priorities[heap.pop()],0.0);
+		}
+		assertEquals(0,heap.size());
+	}
+	
+	@Test
+	public void testTopNKeepsLowest() throws Exception {
+		Random random = new Random(1);
+		IntTopN top = new IntTopN(10);
+		double[] priorities = new double[1000];
+		for ( int i = 0; i < priorities.length; i++ ){
+			priorities[i] = random.nextDouble();
+			top.add(i,priorities[i]);
+		}
+		double[] sorted = priorities.clone();
+		Arrays.sort(sorted);
+		int[] values = new int[10];
+		double[] kept = new double[10];
+		assertEquals(10,top.drainSorted(values,kept));
+		for ( int i = 0; i < 10; i++ ){
+			assertEquals(sorted[i],kept[i],0.0);
+			assertEquals(sorted[i],priorities[values[i]],0.0);
+		}
+	}
+	
+	@Test
+	public void testSizedPriorityQueueKeepsFullSize() throws Exception {
+		SizedPriorityQueue<Integer> queue = new SizedPriorityQueue<Integer>(3,true);
+		queue.add(1,3.0);
+		queue.add(2,2.0);
+		queue.add(3,1.0);
+		assertEquals(3,queue.size());
+		assertEquals(3,(int)queue.pop());
+	}
+}